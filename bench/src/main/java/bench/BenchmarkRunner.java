@@ -0,0 +1,47 @@
+package bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The BenchmarkRunner class is the main class of the benchmarks jar. It takes
+ * the usual JMH command line (for example <code>-l</code> to list the
+ * benchmarks, or a regular expression to select some of them) and always adds
+ * the GC profiler, so the allocation rate is reported next to the throughput.
+ * When the jar was built with the "vector" profile the benchmark forks get
+ * the vector module too.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+public final class BenchmarkRunner {
+
+	private BenchmarkRunner() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		if (commandLine.shouldHelp()) {
+			commandLine.showHelp();
+			return;
+		}
+
+		OptionsBuilder options = new OptionsBuilder();
+		options.parent(commandLine).addProfiler(GCProfiler.class);
+
+		// The forks need the vector module when the jar was built with the vector engine.
+		if (BenchmarkRunner.class.getClassLoader().getResource("VectorEngine.class") != null) {
+			options.jvmArgsPrepend("--add-modules", "jdk.incubator.vector");
+		}
+
+		Runner runner = new Runner(options.build());
+		if (commandLine.shouldList()) {
+			runner.list();
+		} else {
+			runner.run();
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of a single block and of the round function, in the reference
+ * (bit-at-a-time) implementation and in the word-packed engine, and of a
+ * batch of 64 blocks in the bitsliced engine (scored per block).
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockBenchmark {
+	private byte[] block; // A 64-bit block.
+	private byte[][] referenceSubKeys; // The sub-keys of the reference implementation.
+	private byte[] half; // A 32-bit half-block.
+	private byte[] expanded; // A 48-bit word, as given to the twist-box.
+	private long word; // The block, word-packed.
+	private long[] subKeys; // The sub-keys of the engine.
+	private int halfWord; // The half-block, word-packed.
+	private long expandedWord; // The 48-bit word, word-packed.
+	private long[] batch; // 64 blocks for the bitsliced engine.
+
+	@Setup
+	public void setup() throws Throwable {
+		Random random = new Random(42);
+		byte[] key = new byte[8];
+		random.nextBytes(key);
+		referenceSubKeys = (byte[][]) (Object) Targets.REFERENCE_SUB_KEYS.invokeExact((Object) key,
+				(Object) Targets.PC1, (Object) Targets.PC2, (Object) Targets.KEY_SHIFT);
+		subKeys = (long[]) (Object) Targets.ENGINE_SUB_KEYS.invokeExact((Object) key);
+
+		block = new byte[8];
+		half = new byte[4];
+		expanded = new byte[6];
+		random.nextBytes(block);
+		random.nextBytes(half);
+		random.nextBytes(expanded);
+		word = (long) Targets.BYTES_TO_LONG.invokeExact((Object) block, 0);
+		halfWord = random.nextInt();
+		expandedWord = random.nextLong() >>> 16;
+		batch = new long[64];
+		for (int i = 0; i < batch.length; i++) {
+			batch[i] = random.nextLong();
+		}
+	}
+
+	@Benchmark
+	public Object referenceEncrypt() throws Throwable {
+		return (Object) Targets.REFERENCE_BLOCK.invokeExact((Object) block, (Object) referenceSubKeys, false);
+	}
+
+	@Benchmark
+	public Object referenceDecrypt() throws Throwable {
+		return (Object) Targets.REFERENCE_BLOCK.invokeExact((Object) block, (Object) referenceSubKeys, true);
+	}
+
+	@Benchmark
+	public long engineEncrypt() throws Throwable {
+		return (long) Targets.ENGINE_BLOCK.invokeExact(word, (Object) subKeys, false);
+	}
+
+	@Benchmark
+	public long engineDecrypt() throws Throwable {
+		return (long) Targets.ENGINE_BLOCK.invokeExact(word, (Object) subKeys, true);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(64)
+	public Object slicedEncrypt() throws Throwable {
+		Targets.SLICED_BLOCKS.invokeExact((Object) batch, 0, 64, (Object) subKeys, false);
+		return batch;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(64)
+	public Object slicedDecrypt() throws Throwable {
+		Targets.SLICED_BLOCKS.invokeExact((Object) batch, 0, 64, (Object) subKeys, true);
+		return batch;
+	}
+
+	@Benchmark
+	public Object referenceFFunction() throws Throwable {
+		return (Object) Targets.REFERENCE_F_FUNCTION.invokeExact((Object) half, (Object) referenceSubKeys[0]);
+	}
+
+	@Benchmark
+	public int engineFFunction() throws Throwable {
+		return (int) Targets.ENGINE_F_FUNCTION.invokeExact(halfWord, subKeys[0]);
+	}
+
+	@Benchmark
+	public Object referenceTwistBox() throws Throwable {
+		return (Object) Targets.REFERENCE_TWIST_BOX.invokeExact((Object) expanded);
+	}
+
+	@Benchmark
+	public int engineTwistBox() throws Throwable {
+		return (int) Targets.ENGINE_TWIST_BOX.invokeExact(expandedWord);
+	}
+}
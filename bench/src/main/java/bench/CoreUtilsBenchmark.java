@@ -0,0 +1,87 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the bit primitives of <code>CoreUtils</code>, on the sizes the
+ * round function uses them with.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoreUtilsBenchmark {
+	private byte[] half; // A 32-bit half-block.
+	private byte[] expanded; // A 48-bit word.
+	private byte[] subKey; // A 48-bit sub-key.
+	private byte[] block; // A 64-bit block.
+	private long word; // The block, word-packed.
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		half = new byte[4];
+		expanded = new byte[6];
+		subKey = new byte[6];
+		block = new byte[8];
+		random.nextBytes(half);
+		random.nextBytes(expanded);
+		random.nextBytes(subKey);
+		random.nextBytes(block);
+		word = random.nextLong();
+	}
+
+	@Benchmark
+	public Object permutation() throws Throwable {
+		return (Object) Targets.PERMUTATION.invokeExact((Object) half, (Object) Targets.E);
+	}
+
+	@Benchmark
+	public Object xor() throws Throwable {
+		return (Object) Targets.XOR.invokeExact((Object) expanded, (Object) subKey);
+	}
+
+	@Benchmark
+	public Object getBits() throws Throwable {
+		return (Object) Targets.GET_BITS.invokeExact((Object) block, 32, 32);
+	}
+
+	@Benchmark
+	public Object splitBytes() throws Throwable {
+		return (Object) Targets.SPLIT_BYTES.invokeExact((Object) expanded, 16);
+	}
+
+	@Benchmark
+	public Object leftRotation() throws Throwable {
+		return (Object) Targets.LEFT_ROTATION.invokeExact((Object) half, 28, 2);
+	}
+
+	@Benchmark
+	public long bytesToLong() throws Throwable {
+		return (long) Targets.BYTES_TO_LONG.invokeExact((Object) block, 0);
+	}
+
+	@Benchmark
+	public Object longToBytes() throws Throwable {
+		Targets.LONG_TO_BYTES.invokeExact(word, (Object) block, 0);
+		return block;
+	}
+}
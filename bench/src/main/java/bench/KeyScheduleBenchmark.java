@@ -0,0 +1,61 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the key schedule: the sub-key generators of the reference
+ * implementation and of the engine, and building a cipher with and without
+ * the shared key schedule cache.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyScheduleBenchmark {
+	private byte[] key; // The master key.
+
+	@Setup
+	public void setup() {
+		key = new byte[8];
+		new Random(42).nextBytes(key);
+	}
+
+	@Benchmark
+	public Object referenceSubKeys() throws Throwable {
+		return (Object) Targets.REFERENCE_SUB_KEYS.invokeExact((Object) key, (Object) Targets.PC1,
+				(Object) Targets.PC2, (Object) Targets.KEY_SHIFT);
+	}
+
+	@Benchmark
+	public Object engineSubKeys() throws Throwable {
+		return (Object) Targets.ENGINE_SUB_KEYS.invokeExact((Object) key);
+	}
+
+	@Benchmark
+	public Object newCipher() throws Throwable {
+		return (Object) Targets.NEW_CIPHER.invokeExact((Object) key);
+	}
+
+	@Benchmark
+	public Object cachedCipher() throws Throwable {
+		return (Object) Targets.FOR_KEY.invokeExact((Object) key);
+	}
+}
@@ -0,0 +1,86 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end benchmarks of encrypting and deciphering whole payloads, from a
+ * single block up to 64MB. The score is in payloads per second, multiply by
+ * the size for bytes per second. The batch functions write into arrays that
+ * are allocated once, so their allocation rate should be zero.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class PayloadBenchmark {
+	@Param({ "16", "1024", "65536", "1048576", "16777216", "67108864" })
+	public int size; // The length of the payload, in bytes.
+
+	private Object cipher; // The cipher instance.
+	private byte[] plainText; // The payload.
+	private byte[] cipherText; // The encrypted payload.
+	private long[] blocks; // The payload as 64-bit blocks.
+	private long[] output; // The output of the batch functions.
+
+	@Setup
+	public void setup() throws Throwable {
+		Random random = new Random(42);
+		byte[] key = new byte[8];
+		random.nextBytes(key);
+		cipher = (Object) Targets.NEW_CIPHER.invokeExact((Object) key);
+
+		plainText = new byte[size];
+		random.nextBytes(plainText);
+		cipherText = (byte[]) (Object) Targets.ENCRYPT.invokeExact(cipher, (Object) plainText);
+		blocks = new long[size / 8];
+		output = new long[size / 8];
+		for (int i = 0; i < blocks.length; i++) {
+			blocks[i] = random.nextLong();
+		}
+	}
+
+	@Benchmark
+	public Object encrypt() throws Throwable {
+		return (Object) Targets.ENCRYPT.invokeExact(cipher, (Object) plainText);
+	}
+
+	@Benchmark
+	public Object decrypt() throws Throwable {
+		return (Object) Targets.DECRYPT.invokeExact(cipher, (Object) cipherText);
+	}
+
+	@Benchmark
+	public Object ctr() throws Throwable {
+		return (Object) Targets.CTR.invokeExact(cipher, (Object) plainText, 0L);
+	}
+
+	@Benchmark
+	public Object encryptBlocks() throws Throwable {
+		Targets.ENCRYPT_BLOCKS.invokeExact(cipher, (Object) blocks, 0, (Object) output, 0, blocks.length);
+		return output;
+	}
+
+	@Benchmark
+	public long decryptCbcBlocks() throws Throwable {
+		return (long) Targets.DECRYPT_CBC.invokeExact(cipher, (Object) blocks, 0, (Object) output, 0, blocks.length, 0L);
+	}
+}
@@ -0,0 +1,146 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * The Targets class holds handles to the cipher functions that are measured.
+ * The cipher lives in the default package, which can't be imported (and JMH
+ * doesn't accept benchmarks in the default package), so its functions are
+ * looked up once and kept in constants, which the JIT inlines like direct
+ * calls.
+ *
+ * All the handles are erased: every reference type is an
+ * <code>Object</code>, so they can be invoked exactly without naming the
+ * cipher classes.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+final class Targets {
+	// The reference (bit-at-a-time) implementation.
+	static final MethodHandle REFERENCE_BLOCK = find("Feistel", "blockEncryptDecrypt", byte[].class, byte[].class,
+			byte[][].class, boolean.class);
+	static final MethodHandle REFERENCE_F_FUNCTION = find("Feistel", "f_Function", byte[].class, byte[].class,
+			byte[].class);
+	static final MethodHandle REFERENCE_TWIST_BOX = find("Feistel", "twistBox", byte[].class, byte[].class);
+	static final MethodHandle REFERENCE_SUB_KEYS = find("CoreUtils", "subKeysGenerator", byte[][].class,
+			byte[].class, int[].class, int[].class, int[].class);
+
+	// The word-packed engine.
+	static final MethodHandle ENGINE_BLOCK = find("FeistelEngine", "blockEncryptDecrypt", long.class, long.class,
+			long[].class, boolean.class);
+	static final MethodHandle ENGINE_F_FUNCTION = find("FeistelEngine", "f_Function", int.class, int.class,
+			long.class);
+	static final MethodHandle ENGINE_TWIST_BOX = find("FeistelEngine", "twistBox", int.class, long.class);
+	static final MethodHandle SLICED_BLOCKS = find("BitslicedEngine", "blockEncryptDecrypt", void.class, long[].class,
+			int.class, int.class, long[].class, boolean.class);
+	static final MethodHandle ENGINE_SUB_KEYS = find("FeistelEngine", "subKeysGenerator", long[].class,
+			byte[].class);
+
+	// The bit primitives.
+	static final MethodHandle PERMUTATION = find("CoreUtils", "permutation", byte[].class, byte[].class,
+			int[].class);
+	static final MethodHandle XOR = find("CoreUtils", "xor", byte[].class, byte[].class, byte[].class);
+	static final MethodHandle GET_BITS = find("CoreUtils", "getBits", byte[].class, byte[].class, int.class,
+			int.class);
+	static final MethodHandle SPLIT_BYTES = find("CoreUtils", "splitBytes", byte[].class, byte[].class, int.class);
+	static final MethodHandle LEFT_ROTATION = find("CoreUtils", "leftRotation", byte[].class, byte[].class,
+			int.class, int.class);
+	static final MethodHandle BYTES_TO_LONG = find("CoreUtils", "bytesToLong", long.class, byte[].class, int.class);
+	static final MethodHandle LONG_TO_BYTES = find("CoreUtils", "longToBytes", void.class, long.class, byte[].class,
+			int.class);
+
+	// The cipher instance.
+	static final MethodHandle FOR_KEY = find("FeistelCipher", "forKey", "FeistelCipher", byte[].class);
+	static final MethodHandle NEW_CIPHER = constructor("FeistelCipher", byte[].class);
+	static final MethodHandle ENCRYPT = virtual("FeistelCipher", "encrypt", byte[].class, byte[].class);
+	static final MethodHandle DECRYPT = virtual("FeistelCipher", "decrypt", byte[].class, byte[].class);
+	static final MethodHandle CTR = virtual("FeistelCipher", "ctr", byte[].class, byte[].class, long.class);
+	static final MethodHandle ENCRYPT_BLOCKS = virtual("FeistelCipher", "encryptBlocks", void.class, long[].class,
+			int.class, long[].class, int.class, int.class);
+	static final MethodHandle DECRYPT_CBC = virtual("FeistelCipher", "decryptCbc", long.class, long[].class, int.class,
+			long[].class, int.class, int.class, long.class);
+
+	// The tables of the Feistel class.
+	static final int[] PC1 = table("PC1");
+	static final int[] PC2 = table("PC2");
+	static final int[] KEY_SHIFT = table("keyShift");
+	static final int[] E = table("E");
+
+	private Targets() {
+	}
+
+	/**
+	 * Find a static function of a cipher class.
+	 */
+	private static MethodHandle find(String className, String name, Class<?> returnType, Class<?>... parameters) {
+		try {
+			Class<?> owner = Class.forName(className);
+			MethodHandle handle = lookup(owner).findStatic(owner, name, MethodType.methodType(returnType, parameters));
+			return handle.asType(handle.type().erase());
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * Find a static function of a cipher class that returns another cipher
+	 * class.
+	 */
+	private static MethodHandle find(String className, String name, String returnType, Class<?>... parameters) {
+		try {
+			return find(className, name, Class.forName(returnType), parameters);
+		} catch (ClassNotFoundException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * Find a constructor of a cipher class.
+	 */
+	private static MethodHandle constructor(String className, Class<?>... parameters) {
+		try {
+			Class<?> owner = Class.forName(className);
+			MethodHandle handle = lookup(owner).findConstructor(owner, MethodType.methodType(void.class, parameters));
+			return handle.asType(handle.type().erase());
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * Find an instance function of a cipher class.
+	 */
+	private static MethodHandle virtual(String className, String name, Class<?> returnType, Class<?>... parameters) {
+		try {
+			Class<?> owner = Class.forName(className);
+			MethodHandle handle = lookup(owner).findVirtual(owner, name, MethodType.methodType(returnType, parameters));
+			return handle.asType(handle.type().erase());
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * Read a permutation table of the Feistel class.
+	 */
+	private static int[] table(String name) {
+		try {
+			Class<?> owner = Class.forName("Feistel");
+			return (int[]) lookup(owner).findStaticGetter(owner, name, int[].class).invoke();
+		} catch (Throwable e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * A lookup with full access to the given class (both live in the unnamed
+	 * module, so its package-private and private members are reachable).
+	 */
+	private static MethodHandles.Lookup lookup(Class<?> owner) throws IllegalAccessException {
+		return MethodHandles.privateLookupIn(owner, MethodHandles.lookup());
+	}
+}
@@ -0,0 +1,184 @@
+import java.util.Arrays;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The VectorEngine class runs the bitsliced network (see
+ * <code>BitslicedEngine</code>) on SIMD registers: every vector lane holds a
+ * plane of another group of 64 blocks, so a single instruction handles the
+ * same bit of 64 blocks in each of its lanes. The vector width is the widest
+ * the CPU has (256 blocks at once with AVX2, 512 with AVX-512, 128 with NEON).
+ * The key mixing is a xor with a broadcast mask, the twist-box is boolean
+ * lane-wise operations and the permutations are still free wiring.
+ *
+ * It needs the <code>jdk.incubator.vector</code> module, it is compiled by the
+ * "vector" build profile only and is loaded by <code>BatchEngines</code>. Like
+ * the bitsliced engine it works on arrays of the calling thread, which are
+ * reused by all its calls.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+final class VectorEngine implements BatchEngine {
+	private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+	private static final int GROUPS = SPECIES.length(); // The groups of 64 blocks in a vector.
+
+	/**
+	 * The arrays of the planes, one set for every thread.
+	 */
+	private static final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+	/**
+	 * Create the engine.
+	 *
+	 * @throws UnsupportedOperationException
+	 *             In case the CPU has no vectors wider than a single long.
+	 */
+	VectorEngine() {
+		if (GROUPS < 2) {
+			throw new UnsupportedOperationException("No SIMD vectors of longs");
+		}
+	}
+
+	@Override
+	public int lanes() {
+		return BitslicedEngine.LANES * GROUPS;
+	}
+
+	@Override
+	public void blockEncryptDecrypt(long[] blocks, int offset, int count, long[] subKeys, boolean isDecrypt) {
+		// Plane k of group g is at index k * GROUPS + g, so a vector load takes plane k of all the groups.
+		Scratch arrays = scratch.get();
+		long[] planes = arrays.planes;
+		long[] group = arrays.group;
+		Arrays.fill(planes, 0);
+		for (int g = 0; g < GROUPS; g++) {
+			int first = g * BitslicedEngine.LANES;
+			int length = Math.min(BitslicedEngine.LANES, count - first);
+			if (length <= 0) {
+				break; // The planes of the empty groups are zero.
+			}
+			System.arraycopy(blocks, offset + first, group, 0, length);
+			Arrays.fill(group, length, group.length, 0);
+			BitslicedEngine.transpose(group);
+			for (int k = 0; k < 64; k++) {
+				planes[k * GROUPS + g] = group[k];
+			}
+		}
+
+		long[] L = arrays.L;
+		long[] R = arrays.R;
+		long[] expanded = arrays.expanded;
+		long[] twisted = arrays.twisted;
+
+		// The initial permutation.
+		for (int k = 0; k < 32; k++) {
+			System.arraycopy(planes, BitslicedEngine.IP[k] * GROUPS, L, k * GROUPS, GROUPS);
+			System.arraycopy(planes, BitslicedEngine.IP[32 + k] * GROUPS, R, k * GROUPS, GROUPS);
+		}
+
+		for (int i = 0; i < 16; i++) {
+			long subKey = (isDecrypt) ? subKeys[15 - i] : subKeys[i];
+
+			// The expansion and the key mixing, a set key bit flips the whole plane.
+			for (int k = 0; k < 48; k++) {
+				LongVector.fromArray(SPECIES, R, BitslicedEngine.E[k] * GROUPS)
+						.lanewise(VectorOperators.XOR, -((subKey >>> (47 - k)) & 1))
+						.intoArray(expanded, k * GROUPS);
+			}
+			twistBox(expanded, twisted);
+
+			// The P-box, xor'ed into the left half which becomes the right half.
+			for (int k = 0; k < 32; k++) {
+				LongVector twistedPlane = LongVector.fromArray(SPECIES, twisted, BitslicedEngine.P[k] * GROUPS);
+				LongVector.fromArray(SPECIES, L, k * GROUPS).lanewise(VectorOperators.XOR, twistedPlane)
+						.intoArray(L, k * GROUPS);
+			}
+			long[] tmp = L;
+			L = R;
+			R = tmp;
+		}
+
+		// The final permutation of R followed by L.
+		for (int k = 0; k < 64; k++) {
+			int index = BitslicedEngine.IPinverse[k];
+			if (index < 32) {
+				System.arraycopy(R, index * GROUPS, planes, k * GROUPS, GROUPS);
+			} else {
+				System.arraycopy(L, (index - 32) * GROUPS, planes, k * GROUPS, GROUPS);
+			}
+		}
+
+		for (int g = 0; g < GROUPS; g++) {
+			int first = g * BitslicedEngine.LANES;
+			int length = Math.min(BitslicedEngine.LANES, count - first);
+			if (length <= 0) {
+				break;
+			}
+			for (int k = 0; k < 64; k++) {
+				group[k] = planes[k * GROUPS + g];
+			}
+			BitslicedEngine.transpose(group);
+			System.arraycopy(group, 0, blocks, offset + first, length);
+		}
+	}
+
+	/**
+	 * The arrays a single thread works on.
+	 */
+	private static final class Scratch {
+		final long[] planes = new long[64 * GROUPS];
+		final long[] group = new long[BitslicedEngine.LANES];
+		final long[] L = new long[32 * GROUPS];
+		final long[] R = new long[32 * GROUPS];
+		final long[] expanded = new long[48 * GROUPS];
+		final long[] twisted = new long[32 * GROUPS];
+	}
+
+	/**
+	 * The twist-box of <code>BitslicedEngine</code>, on vectors of planes.
+	 */
+	private static void twistBox(long[] expanded, long[] twisted) {
+		// Add the number of the first piece to it, bit7 is its lowest bit.
+		int add = Feistel.additionTable[0];
+		long add0 = -(add & 1);
+		long add1 = -((add >>> 1) & 1);
+		long add2 = -((add >>> 2) & 1);
+		LongVector a = LongVector.fromArray(SPECIES, expanded, 0);
+		LongVector b = LongVector.fromArray(SPECIES, expanded, GROUPS);
+		LongVector c = LongVector.fromArray(SPECIES, expanded, 2 * GROUPS);
+		LongVector bit7 = c.lanewise(VectorOperators.XOR, add0);
+		LongVector carry = c.lanewise(VectorOperators.AND, add0);
+		LongVector bit6 = b.lanewise(VectorOperators.XOR, add1).lanewise(VectorOperators.XOR, carry);
+		carry = b.lanewise(VectorOperators.AND, add1).or(carry.and(b.lanewise(VectorOperators.XOR, add1)));
+		LongVector bit5 = a.lanewise(VectorOperators.XOR, add2).lanewise(VectorOperators.XOR, carry);
+
+		LongVector diff76 = bit7.lanewise(VectorOperators.XOR, bit6);
+		LongVector diff56 = bit5.lanewise(VectorOperators.XOR, bit6);
+
+		for (int i = 0; i < 16; i++) {
+			a = LongVector.fromArray(SPECIES, expanded, 3 * i * GROUPS);
+			b = LongVector.fromArray(SPECIES, expanded, (3 * i + 1) * GROUPS);
+			c = LongVector.fromArray(SPECIES, expanded, (3 * i + 2) * GROUPS);
+			LongVector notA = a.not();
+			LongVector notB = b.not();
+			LongVector notC = c.not();
+
+			// The value of the piece modulo 3: {0, 3, 6}, {1, 4, 7} or {2, 5}.
+			LongVector mod0 = notA.and(notB).and(notC).or(notA.and(b).and(c)).or(a.and(b).and(notC));
+			LongVector mod1 = notA.and(notB).and(c).or(a.and(notB).and(notC)).or(a.and(b).and(c));
+			LongVector mod2 = notA.and(b).and(notC).or(a.and(notB).and(c));
+			int firstPair = BitslicedEngine.firstPair[i];
+			int lastPair = BitslicedEngine.lastPair[i];
+			LongVector first = (firstPair == 0) ? mod0 : (firstPair == 1) ? mod1 : mod2;
+			LongVector last = (lastPair == 0) ? mod0 : (lastPair == 1) ? mod1 : mod2;
+
+			// The first pair is (bit7, bit6), the middle (bit7, bit5) and the last (bit6, bit5).
+			bit7.lanewise(VectorOperators.XOR, last.and(diff76)).intoArray(twisted, 2 * i * GROUPS);
+			bit5.lanewise(VectorOperators.XOR, first.and(diff56)).intoArray(twisted, (2 * i + 1) * GROUPS);
+		}
+	}
+}
@@ -0,0 +1,300 @@
+import java.util.Arrays;
+
+/**
+ * The Base64Stage class encodes and decodes base64 text in parts, so it can
+ * run in the same pass as the cipher over the same buffers instead of as
+ * another pass over the whole text. It uses the basic alphabet of
+ * <code>java.util.Base64</code> with padding and no line separators, and
+ * produces byte-identical text.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+final class Base64Stage {
+	private static final byte[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes();
+	private static final byte PADDING = '=';
+
+	/**
+	 * The value of every base64 character, -1 for all the other bytes.
+	 */
+	private static final int[] VALUES = new int[256];
+
+	static {
+		Arrays.fill(VALUES, -1);
+		for (int i = 0; i < ALPHABET.length; i++) {
+			VALUES[ALPHABET[i]] = i;
+		}
+	}
+
+	private Base64Stage() {
+	}
+
+	/**
+	 * This function returns the length of the base64 text of the given number
+	 * of bytes.
+	 *
+	 * @param length
+	 *            The number of bytes.
+	 * @return The number of base64 characters.
+	 */
+	static long encodedLength(long length) {
+		return (length + 2) / 3 * 4;
+	}
+
+	/**
+	 * This function encodes a single byte triplet into 4 characters.
+	 */
+	private static void encodeTriplet(int triplet, byte[] output, int outputOffset) {
+		output[outputOffset] = ALPHABET[(triplet >>> 18) & 0x3F];
+		output[outputOffset + 1] = ALPHABET[(triplet >>> 12) & 0x3F];
+		output[outputOffset + 2] = ALPHABET[(triplet >>> 6) & 0x3F];
+		output[outputOffset + 3] = ALPHABET[triplet & 0x3F];
+	}
+
+	/**
+	 * This function encodes a single byte triplet into 4 characters.
+	 *
+	 * @param triplet
+	 *            The 3 bytes, in the lowest 24 bits.
+	 * @return The 4 characters, the first one in the highest byte.
+	 */
+	static int encodeTriplet(int triplet) {
+		return ALPHABET[(triplet >>> 18) & 0x3F] << 24 | ALPHABET[(triplet >>> 12) & 0x3F] << 16
+				| ALPHABET[(triplet >>> 6) & 0x3F] << 8 | ALPHABET[triplet & 0x3F];
+	}
+
+	/**
+	 * This function decodes 4 characters (with no padding) into a single byte
+	 * triplet.
+	 *
+	 * @param quartet
+	 *            The 4 characters, the first one in the highest byte.
+	 * @return The 3 bytes, in the lowest 24 bits.
+	 * @throws IllegalArgumentException
+	 *             In case one of the characters isn't a base64 character.
+	 */
+	static int decodeQuartet(int quartet) {
+		int result = VALUES[quartet >>> 24] << 18 | VALUES[(quartet >>> 16) & 0xFF] << 12
+				| VALUES[(quartet >>> 8) & 0xFF] << 6 | VALUES[quartet & 0xFF];
+		if (result < 0) {
+			throw new IllegalArgumentException("Illegal base64 character in " + Integer.toHexString(quartet));
+		}
+		return result;
+	}
+
+	/**
+	 * The Encoder class holds the state of an encoding that is fed in parts:
+	 * the (up to 2) bytes that don't make a whole triplet yet.
+	 */
+	static final class Encoder {
+		private int leftover; // The bytes that are left, as the top of a triplet.
+		private int leftoverLength; // The number of bytes that are left.
+
+		/**
+		 * This function returns how many characters the next call to
+		 * <code>update</code> will write for the given input length.
+		 *
+		 * @param length
+		 *            The number of input bytes.
+		 * @return The number of output characters.
+		 */
+		int updateSize(int length) {
+			return (leftoverLength + length) / 3 * 4;
+		}
+
+		/**
+		 * This function encodes all the whole triplets that can be made of the
+		 * given input (and the bytes kept from the previous call), the
+		 * remaining bytes are kept for the next call.
+		 *
+		 * @param input
+		 *            The array holding the input bytes.
+		 * @param offset
+		 *            The index of the first input byte.
+		 * @param length
+		 *            The number of input bytes.
+		 * @param output
+		 *            The array to write the characters to, it must have room
+		 *            for <code>updateSize(length)</code> bytes.
+		 * @param outputOffset
+		 *            The index to start writing at.
+		 * @return The number of characters written.
+		 */
+		int update(byte[] input, int offset, int length, byte[] output, int outputOffset) {
+			long start = CipherMetrics.start();
+			int total = length;
+			int written = 0;
+
+			// Complete the triplet that was started by the previous call.
+			while (leftoverLength > 0 && length > 0) {
+				leftover |= (input[offset++] & 0xFF) << (16 - 8 * leftoverLength++);
+				length--;
+				if (leftoverLength == 3) {
+					encodeTriplet(leftover, output, outputOffset);
+					leftover = 0;
+					leftoverLength = 0;
+					written = 4;
+				}
+			}
+
+			// Encode all the whole triplets.
+			int end = offset + length / 3 * 3;
+			for (; offset < end; offset += 3, written += 4) {
+				int triplet = (input[offset] & 0xFF) << 16 | (input[offset + 1] & 0xFF) << 8 | input[offset + 2] & 0xFF;
+				encodeTriplet(triplet, output, outputOffset + written);
+			}
+
+			// Keep the rest for the next call.
+			for (; offset < end + length % 3; offset++) {
+				leftover |= (input[offset] & 0xFF) << (16 - 8 * leftoverLength++);
+			}
+			CipherMetrics.base64Encoded(total, start);
+			return written;
+		}
+
+		/**
+		 * This function encodes the bytes that are left, padded with '='.
+		 *
+		 * @param output
+		 *            The array to write the characters to, it must have room
+		 *            for 4 bytes.
+		 * @param outputOffset
+		 *            The index to start writing at.
+		 * @return The number of characters written.
+		 */
+		int doFinal(byte[] output, int outputOffset) {
+			if (leftoverLength == 0) {
+				return 0;
+			}
+
+			encodeTriplet(leftover, output, outputOffset);
+			output[outputOffset + 3] = PADDING;
+			if (leftoverLength == 1) {
+				output[outputOffset + 2] = PADDING;
+			}
+			leftover = 0;
+			leftoverLength = 0;
+			return 4;
+		}
+	}
+
+	/**
+	 * The Decoder class holds the state of a decoding that is fed in parts:
+	 * the (up to 3) characters that don't make a whole quartet yet. It accepts
+	 * the same text as the basic decoder of <code>java.util.Base64</code>.
+	 */
+	static final class Decoder {
+		private int bits; // The bits of the characters that are left.
+		private int count; // The number of characters that are left.
+		private int missingPadding = -1; // The '=' still expected, -1 before any.
+
+		/**
+		 * This function returns the maximal number of bytes the next call to
+		 * <code>update</code> will write for the given input length.
+		 *
+		 * @param length
+		 *            The number of input characters.
+		 * @return The maximal number of output bytes.
+		 */
+		int updateSize(int length) {
+			return (count + length) / 4 * 3 + 2;
+		}
+
+		/**
+		 * This function decodes the given characters, the characters that
+		 * don't make a whole quartet are kept for the next call.
+		 *
+		 * @param input
+		 *            The array holding the input characters.
+		 * @param offset
+		 *            The index of the first input character.
+		 * @param length
+		 *            The number of input characters.
+		 * @param output
+		 *            The array to write the bytes to, it must have room for
+		 *            <code>updateSize(length)</code> bytes.
+		 * @param outputOffset
+		 *            The index to start writing at.
+		 * @return The number of bytes written.
+		 * @throws IllegalArgumentException
+		 *             In case the input isn't a valid base64 text.
+		 */
+		int update(byte[] input, int offset, int length, byte[] output, int outputOffset) {
+			long start = CipherMetrics.start();
+			int written = 0;
+
+			for (int end = offset + length; offset < end; offset++) {
+				int val = VALUES[input[offset] & 0xFF];
+
+				if (missingPadding == 0 || (missingPadding > 0 && input[offset] != PADDING)) {
+					throw new IllegalArgumentException("Input byte array has incorrect ending byte at " + offset);
+				} else if (missingPadding > 0) {
+					missingPadding--;
+				} else if (input[offset] == PADDING) {
+					// The padding ends the text, write the bytes that are left.
+					if (count < 2) {
+						throw new IllegalArgumentException("Illegal base64 padding at " + offset);
+					}
+					written += writeLeftover(output, outputOffset + written);
+					missingPadding = (count == 2) ? 1 : 0;
+					count = 0;
+				} else if (val < 0) {
+					throw new IllegalArgumentException(
+							"Illegal base64 character " + Integer.toString(input[offset] & 0xFF, 16));
+				} else {
+					bits = bits << 6 | val;
+					if (++count == 4) {
+						output[outputOffset + written] = (byte) (bits >>> 16);
+						output[outputOffset + written + 1] = (byte) (bits >>> 8);
+						output[outputOffset + written + 2] = (byte) bits;
+						written += 3;
+						bits = 0;
+						count = 0;
+					}
+				}
+			}
+			CipherMetrics.base64Decoded(length, start);
+			return written;
+		}
+
+		/**
+		 * This function decodes the characters that are left (a text doesn't
+		 * have to end with its padding) and checks that the text ended well.
+		 *
+		 * @param output
+		 *            The array to write the bytes to, it must have room for 2
+		 *            bytes.
+		 * @param outputOffset
+		 *            The index to start writing at.
+		 * @return The number of bytes written.
+		 * @throws IllegalArgumentException
+		 *             In case the input isn't a valid base64 text.
+		 */
+		int doFinal(byte[] output, int outputOffset) {
+			try {
+				if (missingPadding > 0 || count == 1) {
+					throw new IllegalArgumentException("Input byte array has wrong 4-byte ending unit");
+				}
+				return (count == 0) ? 0 : writeLeftover(output, outputOffset);
+			} finally {
+				bits = 0;
+				count = 0;
+				missingPadding = -1;
+			}
+		}
+
+		/**
+		 * Write the bytes of the 2 or 3 characters that are left.
+		 */
+		private int writeLeftover(byte[] output, int outputOffset) {
+			if (count == 2) {
+				output[outputOffset] = (byte) (bits >>> 4);
+				return 1;
+			}
+			output[outputOffset] = (byte) (bits >>> 10);
+			output[outputOffset + 1] = (byte) (bits >>> 2);
+			return 2;
+		}
+	}
+}
@@ -0,0 +1,36 @@
+/**
+ * The BatchEngine interface is implemented by the engines that encrypt and
+ * decipher many independent blocks at once. All of them produce exactly the
+ * same output as <code>Feistel.blockEncryptDecrypt</code>, block by block.
+ * 
+ * Happy cow says: "Muuuuuuu.."
+ * 
+ * @author Ben Sabah.
+ */
+interface BatchEngine {
+	/**
+	 * This function returns the number of blocks the engine handles at once.
+	 * 
+	 * @return The number of blocks of a whole batch.
+	 */
+	int lanes();
+
+	/**
+	 * The function encrypts/deciphers up to <code>lanes()</code> independent
+	 * blocks in place with the given sub-keys.
+	 * 
+	 * @param blocks
+	 *            The array holding the 64-bit blocks.
+	 * @param offset
+	 *            The index of the first block.
+	 * @param count
+	 *            The number of blocks, at most <code>lanes()</code>.
+	 * @param subKeys
+	 *            The 16, 48-bit, sub-keys generated by
+	 *            <code>FeistelEngine.subKeysGenerator</code>.
+	 * @param isDecrypt
+	 *            decide whether we want to encrypt (<code>false</code>) or
+	 *            decrypt (<code>true</code>).
+	 */
+	void blockEncryptDecrypt(long[] blocks, int offset, int count, long[] subKeys, boolean isDecrypt);
+}
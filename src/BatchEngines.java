@@ -0,0 +1,56 @@
+/**
+ * The BatchEngines class picks the fastest <code>BatchEngine</code> this JVM
+ * can run. The SIMD <code>VectorEngine</code> is compiled only by the
+ * "vector" build profile and needs the <code>jdk.incubator.vector</code>
+ * module at run time (<code>--add-modules jdk.incubator.vector</code>), so it
+ * is looked up by name, and the scalar bitsliced engine is used whenever it
+ * isn't there. Setting the system property <code>feistel.vector</code> to
+ * <code>false</code> forces the scalar engine.
+ * 
+ * Happy cow says: "Muuuuuuu.."
+ * 
+ * @author Ben Sabah.
+ */
+final class BatchEngines {
+
+	/**
+	 * The scalar bitsliced engine, 64 blocks at once.
+	 */
+	static final BatchEngine SLICED = new BatchEngine() {
+		@Override
+		public int lanes() {
+			return BitslicedEngine.LANES;
+		}
+
+		@Override
+		public void blockEncryptDecrypt(long[] blocks, int offset, int count, long[] subKeys, boolean isDecrypt) {
+			BitslicedEngine.blockEncryptDecrypt(blocks, offset, count, subKeys, isDecrypt);
+		}
+	};
+
+	/**
+	 * The fastest engine that is available.
+	 */
+	static final BatchEngine BEST = best();
+
+	private BatchEngines() {
+	}
+
+	/**
+	 * Load the vector engine if it was compiled in and its module is present,
+	 * otherwise fall back to the scalar engine. The property is read on every
+	 * call, <code>BEST</code> holds the result of the first one.
+	 */
+	static BatchEngine best() {
+		if (!Boolean.parseBoolean(System.getProperty("feistel.vector", "true"))) {
+			return SLICED;
+		}
+
+		try {
+			return (BatchEngine) Class.forName("VectorEngine").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError | UnsupportedOperationException e) {
+			// No vector engine (or no wide enough vectors), the scalar one is used.
+			return SLICED;
+		}
+	}
+}
@@ -0,0 +1,215 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The BinaryContainer class writes and reads the binary file format, which
+ * holds the raw cipher-text instead of its base64 text. The file starts with
+ * a header of 24 bytes (all numbers are big-endian):
+ *
+ * <pre>
+ * 0  - 3   The magic bytes 0xF7 'F' 'T' 'B' (0xF7 isn't a base64 character).
+ * 4        The version of the format.
+ * 5        The mode: 0 for CBC, 1 for CTR.
+ * 6  - 7   Reserved, always zero.
+ * 8  - 15  The initial vector (CBC) or the nonce (CTR).
+ * 16 - 23  The length of the original plain-text.
+ * </pre>
+ *
+ * The header is followed by the cipher-text blocks, the CBC ones are padded
+ * as usual.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+final class BinaryContainer {
+	static final int HEADER_SIZE = 24; // The length of the header, in bytes.
+	private static final byte[] MAGIC = { (byte) 0xF7, 'F', 'T', 'B' };
+	private static final int VERSION = 1;
+
+	private BinaryContainer() {
+	}
+
+	/**
+	 * This function checks if the given bytes (the start of a file) are the
+	 * magic bytes of the binary format.
+	 *
+	 * @param start
+	 *            The first bytes of the file.
+	 * @param length
+	 *            The number of bytes that were read.
+	 * @return Whether or not the file is in the binary format.
+	 */
+	static boolean isContainer(byte[] start, int length) {
+		if (length < MAGIC.length) {
+			return false;
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (start[i] != MAGIC[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The function writes the header and encrypts everything that is read from
+	 * the input stream into the output stream. None of the streams is closed.
+	 *
+	 * @param cipher
+	 *            The cipher to encrypt with.
+	 * @param mode
+	 *            The mode to chain the blocks with.
+	 * @param iv
+	 *            The initial vector (CBC) or the nonce (CTR).
+	 * @param length
+	 *            The length of the plain-text, as written to the header.
+	 * @param input
+	 *            The stream to read the plain-text from.
+	 * @param output
+	 *            The stream to write the header and the cipher-text to.
+	 * @return The number of bytes written.
+	 * @throws IOException
+	 *             In case of error while reading or writing, or in case the
+	 *             plain-text wasn't as long as the given length.
+	 */
+	static long encrypt(FeistelCipher cipher, CipherMode mode, long iv, long length, InputStream input,
+			OutputStream output) throws IOException {
+		Header header = new Header(mode, iv, length);
+		header.write(output);
+
+		long written = 0;
+		switch (mode) {
+		case CBC:
+			written = cipher.encrypt(input, output, iv);
+			break;
+
+		case CTR:
+			long start = CipherMetrics.start();
+			written = cipher.ctr(input, output, iv);
+			CipherMetrics.record(CipherMetrics.Operation.ENCRYPT, start);
+			break;
+		}
+
+		if (written != header.cipherTextLength()) {
+			throw new IOException("The plain-text changed while it was encrypted");
+		}
+		return HEADER_SIZE + written;
+	}
+
+	/**
+	 * The function reads the header and deciphers the cipher-text that
+	 * follows it into the output stream. None of the streams is closed.
+	 *
+	 * @param cipher
+	 *            The cipher to decipher with.
+	 * @param input
+	 *            The stream to read the header and the cipher-text from.
+	 * @param output
+	 *            The stream to write the plain-text to.
+	 * @return The number of bytes written.
+	 * @throws IOException
+	 *             In case of error while reading or writing.
+	 * @throws IllegalArgumentException
+	 *             In case the header isn't valid, or in case the cipher-text
+	 *             doesn't match the length in the header.
+	 */
+	static long decrypt(FeistelCipher cipher, InputStream input, OutputStream output)
+			throws IOException, IllegalArgumentException {
+		Header header = Header.read(input);
+
+		long written = 0;
+		switch (header.mode) {
+		case CBC:
+			written = cipher.decrypt(input, output, header.iv);
+			break;
+
+		case CTR:
+			long start = CipherMetrics.start();
+			written = cipher.ctr(input, output, header.iv);
+			CipherMetrics.record(CipherMetrics.Operation.DECRYPT, start);
+			break;
+		}
+
+		if (written != header.length) {
+			throw new IllegalArgumentException("The cipher-text doesn't match the length in its header");
+		}
+		return written;
+	}
+
+	/**
+	 * The Header class holds the fields of the header of a binary file.
+	 */
+	static final class Header {
+		final CipherMode mode; // The mode the blocks are chained with.
+		final long iv; // The initial vector (CBC) or the nonce (CTR).
+		final long length; // The length of the original plain-text.
+
+		Header(CipherMode mode, long iv, long length) {
+			this.mode = mode;
+			this.iv = iv;
+			this.length = length;
+		}
+
+		/**
+		 * This function returns the length of the cipher-text that follows the
+		 * header, the CBC padding adds 1 to 8 bytes.
+		 *
+		 * @return The number of cipher-text bytes.
+		 */
+		long cipherTextLength() {
+			return (mode == CipherMode.CBC) ? length + 8 - length % 8 : length;
+		}
+
+		/**
+		 * Write the header to the given stream.
+		 */
+		void write(OutputStream output) throws IOException {
+			byte[] header = new byte[HEADER_SIZE];
+			System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+			header[4] = VERSION;
+			header[5] = (byte) mode.ordinal();
+			CoreUtils.longToBytes(iv, header, 8);
+			CoreUtils.longToBytes(length, header, 16);
+			output.write(header);
+		}
+
+		/**
+		 * This function reads a header from the given stream.
+		 *
+		 * @param input
+		 *            The stream to read from, it is left at the first byte of
+		 *            the cipher-text.
+		 * @return The header.
+		 * @throws IOException
+		 *             In case of error while reading.
+		 * @throws IllegalArgumentException
+		 *             In case the header isn't valid.
+		 */
+		static Header read(InputStream input) throws IOException, IllegalArgumentException {
+			byte[] header = new byte[HEADER_SIZE];
+			int count = 0;
+			int read;
+			while (count < HEADER_SIZE && (read = input.read(header, count, HEADER_SIZE - count)) != -1) {
+				count += read;
+			}
+
+			if (!isContainer(header, count) || count < HEADER_SIZE) {
+				throw new IllegalArgumentException("The file has no valid header");
+			}
+			if (header[4] != VERSION) {
+				throw new IllegalArgumentException("Unknown file version " + header[4]);
+			}
+			if (header[5] < 0 || header[5] >= CipherMode.values().length || header[6] != 0 || header[7] != 0) {
+				throw new IllegalArgumentException("Unknown cipher mode " + header[5]);
+			}
+
+			long length = CoreUtils.bytesToLong(header, 16);
+			if (length < 0) {
+				throw new IllegalArgumentException("Illegal plain-text length " + length);
+			}
+			return new Header(CipherMode.values()[header[5]], CoreUtils.bytesToLong(header, 8), length);
+		}
+	}
+}
@@ -0,0 +1,202 @@
+import java.util.Arrays;
+
+/**
+ * The BitslicedEngine class is a bitsliced implementation of the Feistel
+ * network: 64 independent blocks are handled at once, bit number k of all of
+ * them is held in a single <code>long</code> (a "plane"), so every boolean
+ * operation works on all the blocks together. The permutations become free
+ * wiring (picking planes by index) and the twist-box becomes a handful of
+ * boolean operations, no table is looked up. It produces exactly the same
+ * output as <code>Feistel.blockEncryptDecrypt</code>.
+ *
+ * Lane j of a plane is bit (63 - j) of the <code>long</code>, it belongs to
+ * block number j of the batch. The planes are kept in arrays of the calling
+ * thread, which are reused by all its calls, so nothing is allocated once the
+ * thread made its first call.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+final class BitslicedEngine {
+	static final int LANES = 64; // The number of blocks that are handled at once.
+
+	// The permutations of the Feistel class, as 0-based plane indexes.
+	static final int[] IP = zeroBased(Feistel.IP);
+	static final int[] IPinverse = zeroBased(Feistel.IPinverse);
+	static final int[] E = zeroBased(Feistel.E);
+	static final int[] P = zeroBased(Feistel.P);
+
+	/**
+	 * A 3-bit piece plus its number from the <code>additionTable</code>,
+	 * modulo 3, depends only on the piece modulo 3. For every piece these are
+	 * the values of the piece modulo 3 that select the first (0) and the last
+	 * (2) pair of kept bits.
+	 */
+	static final int[] firstPair = new int[16];
+	static final int[] lastPair = new int[16];
+
+	/**
+	 * The arrays of the planes, one set for every thread.
+	 */
+	private static final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+	static {
+		for (int i = 0; i < 16; i++) {
+			int add = Feistel.additionTable[i];
+			firstPair[i] = ((0 - add) % 3 + 3) % 3;
+			lastPair[i] = ((2 - add) % 3 + 3) % 3;
+		}
+	}
+
+	private BitslicedEngine() {
+	}
+
+	/**
+	 * Convert a 1-based permutation table into 0-based indexes.
+	 */
+	private static int[] zeroBased(int[] table) {
+		int[] result = new int[table.length];
+		for (int i = 0; i < table.length; i++) {
+			result[i] = table[i] - 1;
+		}
+		return result;
+	}
+
+	/**
+	 * The function encrypts/deciphers up to 64 independent blocks in place
+	 * with the given sub-keys.
+	 *
+	 * @param blocks
+	 *            The array holding the 64-bit blocks.
+	 * @param offset
+	 *            The index of the first block.
+	 * @param count
+	 *            The number of blocks, at most <code>LANES</code>.
+	 * @param subKeys
+	 *            The 16, 48-bit, sub-keys generated by
+	 *            <code>FeistelEngine.subKeysGenerator</code>.
+	 * @param isDecrypt
+	 *            decide whether we want to encrypt (<code>false</code>) or
+	 *            decrypt (<code>true</code>).
+	 */
+	static void blockEncryptDecrypt(long[] blocks, int offset, int count, long[] subKeys, boolean isDecrypt) {
+		Scratch arrays = scratch.get();
+		long[] planes = arrays.planes;
+		System.arraycopy(blocks, offset, planes, 0, count);
+		Arrays.fill(planes, count, LANES, 0);
+		transpose(planes);
+
+		long[] L = arrays.L;
+		long[] R = arrays.R;
+		long[] expanded = arrays.expanded;
+		long[] twisted = arrays.twisted;
+
+		// The initial permutation.
+		for (int k = 0; k < 32; k++) {
+			L[k] = planes[IP[k]];
+			R[k] = planes[IP[32 + k]];
+		}
+
+		for (int i = 0; i < 16; i++) {
+			long subKey = (isDecrypt) ? subKeys[15 - i] : subKeys[i];
+
+			// The expansion and the key mixing, a set key bit flips the whole plane.
+			for (int k = 0; k < 48; k++) {
+				expanded[k] = R[E[k]] ^ -((subKey >>> (47 - k)) & 1);
+			}
+			twistBox(expanded, twisted);
+
+			// The P-box, xor'ed into the left half which becomes the right half.
+			for (int k = 0; k < 32; k++) {
+				L[k] ^= twisted[P[k]];
+			}
+			long[] tmp = L;
+			L = R;
+			R = tmp;
+		}
+
+		// The final permutation of R followed by L.
+		for (int k = 0; k < 64; k++) {
+			int index = IPinverse[k];
+			planes[k] = (index < 32) ? R[index] : L[index - 32];
+		}
+
+		transpose(planes);
+		System.arraycopy(planes, 0, blocks, offset, count);
+	}
+
+	/**
+	 * The twist-box (see <code>FeistelEngine.twistBox</code>) as boolean
+	 * logic. The kept bits are the first piece plus its number, which is added
+	 * with a ripple carry, and every piece selects its pair of them by its
+	 * value modulo 3.
+	 *
+	 * @param expanded
+	 *            The 48 planes of the expanded and key mixed half-block.
+	 * @param twisted
+	 *            The 32 planes to write the result to.
+	 */
+	private static void twistBox(long[] expanded, long[] twisted) {
+		// Add the number of the first piece to it, bit7 is its lowest bit.
+		int add = Feistel.additionTable[0];
+		long add0 = -(add & 1);
+		long add1 = -((add >>> 1) & 1);
+		long add2 = -((add >>> 2) & 1);
+		long bit7 = expanded[2] ^ add0;
+		long carry = expanded[2] & add0;
+		long bit6 = expanded[1] ^ add1 ^ carry;
+		carry = (expanded[1] & add1) | (carry & (expanded[1] ^ add1));
+		long bit5 = expanded[0] ^ add2 ^ carry;
+
+		long diff76 = bit7 ^ bit6;
+		long diff56 = bit5 ^ bit6;
+
+		for (int i = 0; i < 16; i++) {
+			long a = expanded[3 * i];
+			long b = expanded[3 * i + 1];
+			long c = expanded[3 * i + 2];
+
+			// The value of the piece modulo 3: {0, 3, 6}, {1, 4, 7} or {2, 5}.
+			long mod0 = (~a & ~b & ~c) | (~a & b & c) | (a & b & ~c);
+			long mod1 = (~a & ~b & c) | (a & ~b & ~c) | (a & b & c);
+			long mod2 = (~a & b & ~c) | (a & ~b & c);
+			long first = (firstPair[i] == 0) ? mod0 : (firstPair[i] == 1) ? mod1 : mod2;
+			long last = (lastPair[i] == 0) ? mod0 : (lastPair[i] == 1) ? mod1 : mod2;
+
+			// The first pair is (bit7, bit6), the middle (bit7, bit5) and the last (bit6, bit5).
+			twisted[2 * i] = bit7 ^ (last & diff76);
+			twisted[2 * i + 1] = bit5 ^ (first & diff56);
+		}
+	}
+
+	/**
+	 * The arrays a single thread works on.
+	 */
+	private static final class Scratch {
+		final long[] planes = new long[LANES];
+		final long[] L = new long[32];
+		final long[] R = new long[32];
+		final long[] expanded = new long[48];
+		final long[] twisted = new long[32];
+	}
+
+	/**
+	 * Transpose a 64x64 bit matrix in place: bit (63 - j) of word i is swapped
+	 * with bit (63 - i) of word j. This turns 64 blocks into 64 planes and
+	 * back.
+	 *
+	 * @param words
+	 *            The 64 words of the matrix.
+	 */
+	static void transpose(long[] words) {
+		long mask = 0x00000000FFFFFFFFL;
+		for (int j = 32; j != 0; j >>>= 1, mask ^= mask << j) {
+			for (int k = 0; k < 64; k = (k + j + 1) & ~j) {
+				long t = (words[k] ^ (words[k + j] >>> j)) & mask;
+				words[k] ^= t;
+				words[k + j] ^= t << j;
+			}
+		}
+	}
+}
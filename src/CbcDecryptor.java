@@ -0,0 +1,313 @@
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * The CbcDecryptor class holds the state of a CBC decryption that is fed in
+ * parts: the chaining value, the bytes of a block that isn't complete yet and
+ * the last deciphered block, which is held back until <code>doFinal</code>
+ * since it carries the padding.
+ *
+ * The input and output can also be <code>ByteBuffer</code>s, heap or direct,
+ * which are read and written in place, so off-heap data is deciphered without
+ * being copied.
+ *
+ * The state belongs to a single decryption, so an instance must not be shared
+ * between threads.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+final class CbcDecryptor {
+	private final FeistelCipher cipher; // The cipher to decipher the blocks with.
+	private final long initialIv; // The IV to start every chain with.
+	private long iv; // The previous cipher block.
+	private final byte[] partial = new byte[8]; // The current incomplete block.
+	private int partialLength; // The number of bytes in the incomplete block.
+	private long lastBlock; // The last deciphered block, not written yet.
+	private boolean hasLastBlock; // Whether or not there is a last block.
+	private long[] batch; // The blocks read from a buffer, made on first use.
+
+	/**
+	 * Start a new CBC chain.
+	 *
+	 * @param cipher
+	 *            The cipher to decipher the blocks with.
+	 * @param iv
+	 *            The initial vector of the chain.
+	 */
+	CbcDecryptor(FeistelCipher cipher, long iv) {
+		this.cipher = cipher;
+		this.initialIv = iv;
+		this.iv = iv;
+	}
+
+	/**
+	 * This function returns the maximal number of bytes the next call to
+	 * <code>update</code> will write for the given input length.
+	 *
+	 * @param length
+	 *            The number of input bytes.
+	 * @return The maximal number of output bytes.
+	 */
+	int updateSize(int length) {
+		return (partialLength + length) & ~7;
+	}
+
+	/**
+	 * This function deciphers all the complete blocks that can be made of the
+	 * given input (and the bytes kept from the previous call), the remaining
+	 * bytes are kept for the next call. The output must not overlap the input.
+	 *
+	 * @param input
+	 *            The array holding the input bytes.
+	 * @param offset
+	 *            The index of the first input byte.
+	 * @param length
+	 *            The number of input bytes.
+	 * @param output
+	 *            The array to write the deciphered bytes to, it must have
+	 *            room for <code>updateSize(length)</code> bytes.
+	 * @param outputOffset
+	 *            The index to start writing at.
+	 * @return The number of bytes written.
+	 */
+	int update(byte[] input, int offset, int length, byte[] output, int outputOffset) {
+		int written = 0;
+
+		// Complete the block that was started by the previous call.
+		if (partialLength > 0) {
+			int count = Math.min(8 - partialLength, length);
+			System.arraycopy(input, offset, partial, partialLength, count);
+			partialLength += count;
+			offset += count;
+			length -= count;
+			if (partialLength < 8) {
+				return 0;
+			}
+
+			written = decipher(CoreUtils.bytesToLong(partial, 0), output, outputOffset);
+			partialLength = 0;
+		}
+
+		// Decipher the whole blocks in a batch, all but the last one which is held back instead.
+		int whole = length & ~7;
+		if (whole > 0) {
+			if (hasLastBlock) {
+				CoreUtils.longToBytes(lastBlock, output, outputOffset + written);
+				written += 8;
+				hasLastBlock = false;
+			}
+			iv = cipher.decryptCbc(input, offset, whole - 8, output, outputOffset + written, iv);
+			written += whole - 8;
+			offset += whole - 8;
+			written += decipher(CoreUtils.bytesToLong(input, offset), output, outputOffset + written);
+			offset += 8;
+		}
+
+		// Keep the rest for the next call.
+		partialLength = length & 7;
+		System.arraycopy(input, offset, partial, 0, partialLength);
+		return written;
+	}
+
+	/**
+	 * This function deciphers all the complete blocks that can be made of the
+	 * remaining bytes of the input buffer (and the bytes kept from the
+	 * previous call), the remaining bytes are kept for the next call. The
+	 * positions of both buffers are advanced.
+	 *
+	 * @param input
+	 *            The buffer to read the input bytes from, all its remaining
+	 *            bytes are consumed.
+	 * @param output
+	 *            The buffer to write the deciphered bytes to, it must have
+	 *            room for all the deciphered blocks but the last one, which
+	 *            is held back (at most <code>updateSize(input.remaining())</code>
+	 *            bytes).
+	 * @return The number of bytes written.
+	 * @throws BufferOverflowException
+	 *             In case the output has no room for the result, nothing is
+	 *             consumed then.
+	 */
+	int update(ByteBuffer input, ByteBuffer output) {
+		int blocks = (partialLength + input.remaining()) / 8;
+		if (blocks > 0 && output.remaining() < ((hasLastBlock) ? blocks : blocks - 1) * 8) {
+			throw new BufferOverflowException();
+		}
+		int written = 0;
+
+		// Complete the block that was started by the previous call.
+		if (partialLength > 0) {
+			int count = Math.min(8 - partialLength, input.remaining());
+			input.get(partial, partialLength, count);
+			partialLength += count;
+			if (partialLength < 8) {
+				return 0;
+			}
+
+			written = decipher(CoreUtils.bytesToLong(partial, 0), output);
+			partialLength = 0;
+		}
+
+		// Decipher the whole blocks in batches.
+		if (batch == null && input.remaining() >= 8) {
+			batch = new long[BatchEngines.BEST.lanes()];
+		}
+		while (input.remaining() >= 8) {
+			int count = Math.min(batch.length, input.remaining() / 8);
+			for (int j = 0; j < count; j++) {
+				batch[j] = CoreUtils.getLong(input);
+			}
+			iv = cipher.decryptCbc(batch, 0, batch, 0, count, iv);
+
+			// Write the held back block and hold back the last one of the batch.
+			for (int j = 0; j < count; j++) {
+				if (hasLastBlock) {
+					CoreUtils.putLong(lastBlock, output);
+					written += 8;
+				}
+				lastBlock = batch[j];
+				hasLastBlock = true;
+			}
+		}
+
+		// Keep the rest for the next call.
+		partialLength = input.remaining();
+		input.get(partial, 0, partialLength);
+		return written;
+	}
+
+	/**
+	 * Decipher a block into the buffer, see
+	 * <code>decipher(long, byte[], int)</code>.
+	 */
+	private int decipher(long cipherTextBlock, ByteBuffer output) {
+		int written = 0;
+		if (hasLastBlock) {
+			CoreUtils.putLong(lastBlock, output);
+			written = 8;
+		}
+
+		lastBlock = cipher.decryptBlock(cipherTextBlock) ^ iv;
+		CipherMetrics.processed(CipherMetrics.Mode.CBC, 8);
+		hasLastBlock = true;
+		iv = cipherTextBlock;
+		return written;
+	}
+
+	/**
+	 * Decipher a block, write the previous deciphered block and hold this one
+	 * back instead.
+	 *
+	 * @return The number of bytes written.
+	 */
+	private int decipher(long cipherTextBlock, byte[] output, int outputOffset) {
+		int written = 0;
+		if (hasLastBlock) {
+			CoreUtils.longToBytes(lastBlock, output, outputOffset);
+			written = 8;
+		}
+
+		lastBlock = cipher.decryptBlock(cipherTextBlock) ^ iv;
+		CipherMetrics.processed(CipherMetrics.Mode.CBC, 8);
+		hasLastBlock = true;
+		iv = cipherTextBlock;
+		return written;
+	}
+
+	/**
+	 * This function removes the padding (the trailing zeros and the 0x80 byte
+	 * before them) from the last block, writes what is left of it and starts a
+	 * new chain with the same initial vector.
+	 *
+	 * @param output
+	 *            The array to write the rest of the plain-text to, it must
+	 *            have room for 7 bytes.
+	 * @param outputOffset
+	 *            The index to start writing at.
+	 * @return The number of bytes written.
+	 * @throws IllegalArgumentException
+	 *             In case the cipher-text wasn't made of whole 64-bit blocks,
+	 *             or its last block holds no padding.
+	 */
+	int doFinal(byte[] output, int outputOffset) {
+		try {
+			int length = lastBlockLength();
+			for (int i = 0; i < length; i++) {
+				output[outputOffset + i] = (byte) (lastBlock >>> (56 - 8 * i));
+			}
+			return length;
+		} finally {
+			reset();
+		}
+	}
+
+	/**
+	 * This function removes the padding from the last block, writes what is
+	 * left of it into the buffer and starts a new chain with the same initial
+	 * vector.
+	 *
+	 * @param output
+	 *            The buffer to write the rest of the plain-text to, it must
+	 *            have room for 7 bytes.
+	 * @return The number of bytes written.
+	 * @throws IllegalArgumentException
+	 *             In case the cipher-text wasn't made of whole 64-bit blocks,
+	 *             or its last block holds no padding.
+	 * @throws BufferOverflowException
+	 *             In case the output has no room for the rest of the
+	 *             plain-text, the chain isn't ended then.
+	 */
+	int doFinal(ByteBuffer output) {
+		int length;
+		try {
+			length = lastBlockLength();
+		} catch (IllegalArgumentException e) {
+			reset();
+			throw e;
+		}
+		if (output.remaining() < length) {
+			throw new BufferOverflowException();
+		}
+
+		for (int i = 0; i < length; i++) {
+			output.put((byte) (lastBlock >>> (56 - 8 * i)));
+		}
+		reset();
+		return length;
+	}
+
+	/**
+	 * This function returns the number of plain-text bytes in the last block,
+	 * without the padding (the trailing zeros and the 0x80 byte before them).
+	 *
+	 * @throws IllegalArgumentException
+	 *             In case the cipher-text wasn't made of whole 64-bit blocks,
+	 *             or its last block holds no padding.
+	 */
+	private int lastBlockLength() {
+		if (partialLength != 0 || !hasLastBlock) {
+			throw new IllegalArgumentException("The cipher-text must be made of whole 64-bit blocks");
+		}
+
+		// Skip the trailing zeros, the byte before them is the 0x80.
+		int length = 7;
+		while (length >= 0 && (byte) (lastBlock >>> (56 - 8 * length)) == 0) {
+			length--;
+		}
+		if (length < 0 || (byte) (lastBlock >>> (56 - 8 * length)) != (byte) 0x80) {
+			throw new IllegalArgumentException("The last block of the cipher-text holds no padding");
+		}
+		return length;
+	}
+
+	/**
+	 * Drop the current state and start a new chain with the initial vector.
+	 */
+	void reset() {
+		iv = initialIv;
+		partialLength = 0;
+		hasLastBlock = false;
+	}
+}
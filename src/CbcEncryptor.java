@@ -0,0 +1,219 @@
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * The CbcEncryptor class holds the state of a CBC encryption that is fed in
+ * parts: the chaining value and the bytes of a block that isn't complete yet.
+ * When all the input was given, <code>doFinal</code> pads the last block with
+ * 0x80 followed by zeros, exactly as <code>FeistelCipher.encrypt</code>
+ * does.
+ *
+ * The input and output can also be <code>ByteBuffer</code>s, heap or direct,
+ * which are read and written in place, so off-heap data is encrypted without
+ * being copied.
+ *
+ * The state belongs to a single encryption, so an instance must not be shared
+ * between threads.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+final class CbcEncryptor {
+	private final FeistelCipher cipher; // The cipher to encrypt the blocks with.
+	private final long initialIv; // The IV to start every chain with.
+	private long iv; // The previous cipher block.
+	private final byte[] partial = new byte[8]; // The current incomplete block.
+	private int partialLength; // The number of bytes in the incomplete block.
+
+	/**
+	 * Start a new CBC chain.
+	 *
+	 * @param cipher
+	 *            The cipher to encrypt the blocks with.
+	 * @param iv
+	 *            The initial vector of the chain.
+	 */
+	CbcEncryptor(FeistelCipher cipher, long iv) {
+		this.cipher = cipher;
+		this.initialIv = iv;
+		this.iv = iv;
+	}
+
+	/**
+	 * This function returns how many bytes the next call to
+	 * <code>update</code> will write for the given input length.
+	 *
+	 * @param length
+	 *            The number of input bytes.
+	 * @return The number of output bytes.
+	 */
+	int updateSize(int length) {
+		return (partialLength + length) & ~7;
+	}
+
+	/**
+	 * This function encrypts all the complete blocks that can be made of the
+	 * given input (and the bytes kept from the previous call), the remaining
+	 * bytes are kept for the next call. The output must not overlap the input.
+	 *
+	 * @param input
+	 *            The array holding the input bytes.
+	 * @param offset
+	 *            The index of the first input byte.
+	 * @param length
+	 *            The number of input bytes.
+	 * @param output
+	 *            The array to write the encrypted blocks to, it must have room
+	 *            for <code>updateSize(length)</code> bytes.
+	 * @param outputOffset
+	 *            The index to start writing at.
+	 * @return The number of bytes written.
+	 */
+	int update(byte[] input, int offset, int length, byte[] output, int outputOffset) {
+		int written = 0;
+
+		// Complete the block that was started by the previous call.
+		if (partialLength > 0) {
+			int count = Math.min(8 - partialLength, length);
+			System.arraycopy(input, offset, partial, partialLength, count);
+			partialLength += count;
+			offset += count;
+			length -= count;
+			if (partialLength < 8) {
+				return 0;
+			}
+
+			iv = cipher.encryptBlock(CoreUtils.bytesToLong(partial, 0) ^ iv);
+			CipherMetrics.processed(CipherMetrics.Mode.CBC, 8);
+			CoreUtils.longToBytes(iv, output, outputOffset);
+			partialLength = 0;
+			written = 8;
+		}
+
+		// Encrypt each block, xor'ed with the previous cipher block.
+		int whole = length & ~7;
+		iv = cipher.encryptCbc(input, offset, whole, output, outputOffset + written, iv);
+		offset += whole;
+		written += whole;
+
+		// Keep the rest for the next call.
+		partialLength = length & 7;
+		System.arraycopy(input, offset, partial, 0, partialLength);
+		return written;
+	}
+
+	/**
+	 * This function encrypts all the complete blocks that can be made of the
+	 * remaining bytes of the input buffer (and the bytes kept from the
+	 * previous call), the remaining bytes are kept for the next call. The
+	 * positions of both buffers are advanced.
+	 *
+	 * @param input
+	 *            The buffer to read the input bytes from, all its remaining
+	 *            bytes are consumed.
+	 * @param output
+	 *            The buffer to write the encrypted blocks to, it must have
+	 *            room for <code>updateSize(input.remaining())</code> bytes.
+	 * @return The number of bytes written.
+	 * @throws BufferOverflowException
+	 *             In case the output has no room for the result, nothing is
+	 *             consumed then.
+	 */
+	int update(ByteBuffer input, ByteBuffer output) {
+		if (output.remaining() < updateSize(input.remaining())) {
+			throw new BufferOverflowException();
+		}
+		int written = 0;
+
+		// Complete the block that was started by the previous call.
+		if (partialLength > 0) {
+			int count = Math.min(8 - partialLength, input.remaining());
+			input.get(partial, partialLength, count);
+			partialLength += count;
+			if (partialLength < 8) {
+				return 0;
+			}
+
+			iv = cipher.encryptBlock(CoreUtils.bytesToLong(partial, 0) ^ iv);
+			CipherMetrics.processed(CipherMetrics.Mode.CBC, 8);
+			CoreUtils.putLong(iv, output);
+			partialLength = 0;
+			written = 8;
+		}
+
+		// Encrypt each block, xor'ed with the previous cipher block.
+		int whole = input.remaining() & ~7;
+		int limit = input.limit();
+		input.limit(input.position() + whole);
+		iv = cipher.encryptCbc(input, output, iv);
+		input.limit(limit);
+		written += whole;
+
+		// Keep the rest for the next call.
+		partialLength = input.remaining();
+		input.get(partial, 0, partialLength);
+		return written;
+	}
+
+	/**
+	 * This function pads and encrypts the last block and starts a new chain
+	 * with the same initial vector.
+	 *
+	 * @param output
+	 *            The array to write the last block to, it must have room for 8
+	 *            bytes.
+	 * @param outputOffset
+	 *            The index to start writing at.
+	 * @return The number of bytes written (always 8).
+	 */
+	int doFinal(byte[] output, int outputOffset) {
+		CoreUtils.longToBytes(lastBlock(), output, outputOffset);
+		reset();
+		return 8;
+	}
+
+	/**
+	 * This function pads and encrypts the last block into the buffer and
+	 * starts a new chain with the same initial vector.
+	 *
+	 * @param output
+	 *            The buffer to write the last block to, it must have room for
+	 *            8 bytes.
+	 * @return The number of bytes written (always 8).
+	 * @throws BufferOverflowException
+	 *             In case the output has no room for the block, the chain
+	 *             isn't ended then.
+	 */
+	int doFinal(ByteBuffer output) {
+		if (output.remaining() < 8) {
+			throw new BufferOverflowException();
+		}
+
+		CoreUtils.putLong(lastBlock(), output);
+		reset();
+		return 8;
+	}
+
+	/**
+	 * Pad and encrypt the last block.
+	 */
+	private long lastBlock() {
+		// Add the padding bytes: 0x80 followed by zeros.
+		partial[partialLength] = (byte) 0x80;
+		for (int i = partialLength + 1; i < 8; i++) {
+			partial[i] = 0;
+		}
+
+		CipherMetrics.processed(CipherMetrics.Mode.CBC, 8);
+		return cipher.encryptBlock(CoreUtils.bytesToLong(partial, 0) ^ iv);
+	}
+
+	/**
+	 * Drop the current state and start a new chain with the initial vector.
+	 */
+	void reset() {
+		iv = initialIv;
+		partialLength = 0;
+	}
+}
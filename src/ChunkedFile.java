@@ -0,0 +1,654 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * The ChunkedFile class writes and reads the chunked file format, which is
+ * made for big files that are read or rewritten a small range at a time. The
+ * plain-text is split into chunks of a fixed size, and every chunk is chained
+ * on its own with an IV (CBC) or a nonce (CTR) of its own, so a range is
+ * read or rewritten by deciphering / encrypting only the chunks that cover
+ * it. The file starts with a header of 24 bytes (all numbers are
+ * big-endian):
+ *
+ * <pre>
+ * 0  - 3   The magic bytes 0xF7 'F' 'T' 'C' (0xF7 isn't a base64 character).
+ * 4        The version of the format.
+ * 5        The mode: 0 for CBC, 1 for CTR.
+ * 6        The update flag: 1 while the journal holds a chunk that is being
+ *          rewritten, otherwise 0.
+ * 7        Reserved, always zero.
+ * 8  - 11  The size of a chunk, a multiple of 8.
+ * 12 - 15  Reserved, always zero.
+ * 16 - 23  The length of the original plain-text.
+ * </pre>
+ *
+ * The header is followed by the chunk index, the IV / nonce of every chunk (8
+ * bytes each), and then by the cipher-text of the chunks, one after the
+ * other. Every chunk but the last holds a whole chunk of the plain-text. The
+ * CBC chunks aren't padded: the last one is filled with zeros up to a whole
+ * block, and the length in the header tells where the plain-text ends. So
+ * every chunk and its IV are at a fixed place in the file.
+ *
+ * A rewritten chunk gets a new IV, so an IV is never used with two different
+ * plain-texts. It goes through a journal, a shadow chunk slot after the last
+ * chunk that holds the index of the chunk, its new IV and its new
+ * cipher-text. The journal is synced, then the update flag is set and synced,
+ * then the chunk and its IV are overwritten in place and synced, and then
+ * the flag is cleared. A crash (or an I/O error) before the flag is set
+ * leaves the old chunk whole, and one after it leaves the new chunk whole in
+ * the journal, where the next <code>open</code> for writing copies it back
+ * from. So a torn rewrite loses no more than the rewrite itself, at the cost
+ * of three syncs per rewritten chunk. The file can't be deciphered as a
+ * stream, or opened only for reading, before the journal was copied back.
+ * The journal is cut off when the file is closed.
+ *
+ * An instance must not be shared between threads.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+final class ChunkedFile implements Closeable {
+	static final int HEADER_SIZE = 24; // The length of the header, in bytes.
+	private static final int UPDATE_FLAG = 6; // The position of the update flag in the header.
+	private static final int JOURNAL_HEADER = 16; // The index of the chunk and its IV, before its cipher-text.
+	static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+	private static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024; // Bigger chunks aren't read.
+	private static final long MAX_CHUNKS = 1L << 24; // The index of more chunks is too big to hold.
+	private static final byte[] MAGIC = { (byte) 0xF7, 'F', 'T', 'C' };
+	private static final int VERSION = 1;
+	private static final SecureRandom random = new SecureRandom();
+
+	private final FeistelCipher cipher; // The cipher of the file.
+	private final FileChannel channel; // The file.
+	private final Header header; // The header of the file.
+	private final boolean isWritable; // Whether or not the file was opened for writing.
+	private final byte[] chunk; // The plain-text of the loaded chunk.
+	private final byte[] journal; // A journal record: the index of a chunk, its IV and its cipher-text.
+	private final byte[] iv = new byte[8]; // The bytes of an index entry.
+	private long loaded = -1; // The index of the chunk in the buffer, -1 for none.
+
+	private ChunkedFile(FeistelCipher cipher, FileChannel channel, Header header, boolean isWritable) {
+		this.cipher = cipher;
+		this.channel = channel;
+		this.header = header;
+		this.isWritable = isWritable;
+		this.chunk = new byte[header.chunkSize];
+		this.journal = new byte[JOURNAL_HEADER + header.chunkSize];
+	}
+
+	/**
+	 * This function checks if the given bytes (the start of a file) are the
+	 * magic bytes of the chunked format.
+	 *
+	 * @param start
+	 *            The first bytes of the file.
+	 * @param length
+	 *            The number of bytes that were read.
+	 * @return Whether or not the file is in the chunked format.
+	 */
+	static boolean isChunked(byte[] start, int length) {
+		return length >= MAGIC.length && Arrays.equals(Arrays.copyOf(start, MAGIC.length), MAGIC);
+	}
+
+	/**
+	 * The function writes the header and the chunk index, and encrypts
+	 * everything that is read from the input stream into the chunks of the
+	 * output stream. None of the streams is closed.
+	 *
+	 * @param cipher
+	 *            The cipher to encrypt with.
+	 * @param mode
+	 *            The mode to chain the blocks of every chunk with.
+	 * @param chunkSize
+	 *            The size of a chunk, a multiple of 8.
+	 * @param length
+	 *            The length of the plain-text, as written to the header.
+	 * @param input
+	 *            The stream to read the plain-text from.
+	 * @param output
+	 *            The stream to write the file to.
+	 * @return The number of bytes written.
+	 * @throws IOException
+	 *             In case of error while reading or writing, or in case the
+	 *             plain-text wasn't as long as the given length.
+	 * @throws IllegalArgumentException
+	 *             In case the chunk size isn't valid, or in case there are
+	 *             too many chunks.
+	 */
+	static long encrypt(FeistelCipher cipher, CipherMode mode, int chunkSize, long length, InputStream input,
+			OutputStream output) throws IOException, IllegalArgumentException {
+		Header header = new Header(mode, chunkSize, length);
+		header.write(output);
+
+		// Every chunk gets a random IV / nonce of its own.
+		byte[] index = new byte[(int) header.chunkCount() * 8];
+		random.nextBytes(index);
+		output.write(index);
+
+		byte[] buffer = new byte[chunkSize];
+		for (int i = 0; i < header.chunkCount(); i++) {
+			int count = header.chunkLength(i);
+			if (readFully(input, buffer, count) != count) {
+				throw new IOException("The plain-text changed while it was encrypted");
+			}
+			output.write(buffer, 0, encryptChunk(cipher, mode, buffer, count, CoreUtils.bytesToLong(index, i * 8)));
+		}
+
+		if (input.read() != -1) {
+			throw new IOException("The plain-text changed while it was encrypted");
+		}
+		return header.fileLength();
+	}
+
+	/**
+	 * The function reads the header and the chunk index and deciphers the
+	 * chunks that follow them into the output stream. None of the streams is
+	 * closed.
+	 *
+	 * @param cipher
+	 *            The cipher to decipher with.
+	 * @param input
+	 *            The stream to read the file from.
+	 * @param output
+	 *            The stream to write the plain-text to.
+	 * @return The number of bytes written.
+	 * @throws IOException
+	 *             In case of error while reading or writing.
+	 * @throws IllegalArgumentException
+	 *             In case the header isn't valid, in case the file is
+	 *             shorter than its header tells, or in case a rewrite wasn't
+	 *             finished.
+	 */
+	static long decrypt(FeistelCipher cipher, InputStream input, OutputStream output)
+			throws IOException, IllegalArgumentException {
+		Header header = Header.read(input);
+		if (header.isUpdating) {
+			throw new IllegalArgumentException("A rewrite of the file wasn't finished, open it for writing first");
+		}
+
+		byte[] index = new byte[(int) header.chunkCount() * 8];
+		if (readFully(input, index, index.length) != index.length) {
+			throw new IllegalArgumentException("The file is shorter than its chunk index");
+		}
+
+		byte[] buffer = new byte[header.chunkSize];
+		for (int i = 0; i < header.chunkCount(); i++) {
+			int count = header.cipherTextLength(i);
+			if (readFully(input, buffer, count) != count) {
+				throw new IllegalArgumentException("The cipher-text doesn't match the length in its header");
+			}
+			decryptChunk(cipher, header.mode, buffer, count, CoreUtils.bytesToLong(index, i * 8));
+			output.write(buffer, 0, header.chunkLength(i));
+		}
+		return header.length;
+	}
+
+	/**
+	 * This function opens a chunked file for random access. A rewrite that
+	 * wasn't finished is finished from the journal when the file is opened
+	 * for writing.
+	 *
+	 * @param cipher
+	 *            The cipher of the file.
+	 * @param path
+	 *            The path to the file.
+	 * @param isWritable
+	 *            Whether or not the file is going to be written.
+	 * @return The open file.
+	 * @throws IOException
+	 *             In case of error while reading the file.
+	 * @throws IllegalArgumentException
+	 *             In case the file isn't a valid chunked file, or in case it
+	 *             is opened only for reading and a rewrite wasn't finished.
+	 */
+	static ChunkedFile open(FeistelCipher cipher, Path path, boolean isWritable)
+			throws IOException, IllegalArgumentException {
+		FileChannel channel = (isWritable)
+				? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+				: FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			byte[] start = new byte[HEADER_SIZE];
+			readFully(channel, start, 0, start.length, 0);
+			Header header = Header.parse(start, start.length);
+
+			// The journal may follow the chunks, up to a whole chunk.
+			long size = channel.size();
+			if (size < header.fileLength() || size > header.fileLength() + JOURNAL_HEADER + header.chunkSize) {
+				throw new IllegalArgumentException("The file doesn't match the length in its header");
+			}
+			if (header.isUpdating && !isWritable) {
+				throw new IllegalArgumentException("A rewrite of the file wasn't finished, open it for writing first");
+			}
+
+			ChunkedFile file = new ChunkedFile(cipher, channel, header, isWritable);
+			if (header.isUpdating) {
+				file.recover();
+			}
+			return file;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return The length of the plain-text.
+	 */
+	long length() {
+		return header.length;
+	}
+
+	/**
+	 * @return The size of a chunk.
+	 */
+	int chunkSize() {
+		return header.chunkSize;
+	}
+
+	/**
+	 * This function reads a range of the plain-text, only the chunks that
+	 * cover it are read and deciphered.
+	 *
+	 * @param position
+	 *            The index of the first byte to read.
+	 * @param output
+	 *            The array to read into.
+	 * @param offset
+	 *            The index to start writing at.
+	 * @param length
+	 *            The maximal number of bytes to read.
+	 * @return The number of bytes read, which is less than the given length
+	 *         only at the end of the plain-text, or -1 in case the position is
+	 *         at the end or after it (0 when the given length is 0).
+	 * @throws IOException
+	 *             In case of error while reading the file.
+	 * @throws IllegalArgumentException
+	 *             In case the position is negative.
+	 * @throws IndexOutOfBoundsException
+	 *             In case the range isn't inside the given array.
+	 */
+	int read(long position, byte[] output, int offset, int length)
+			throws IOException, IllegalArgumentException, IndexOutOfBoundsException {
+		Objects.checkFromIndexSize(offset, length, output.length);
+		if (position < 0) {
+			throw new IllegalArgumentException("Negative position " + position);
+		}
+		if (length == 0) {
+			return 0;
+		}
+		if (position >= header.length) {
+			return -1;
+		}
+
+		length = (int) Math.min(length, header.length - position);
+		for (int done = 0; done < length;) {
+			long i = (position + done) / header.chunkSize;
+			int start = (int) ((position + done) % header.chunkSize);
+			int count = Math.min(length - done, header.chunkLength(i) - start);
+
+			load(i);
+			System.arraycopy(chunk, start, output, offset + done, count);
+			done += count;
+		}
+		return length;
+	}
+
+	/**
+	 * This function rewrites a range of the plain-text, only the chunks that
+	 * cover it are encrypted (each with a new IV) and written, one at a time
+	 * through the journal. A chunk that is only partly rewritten is read and
+	 * deciphered first. The plain-text can't grow.
+	 *
+	 * @param position
+	 *            The index of the first byte to rewrite.
+	 * @param input
+	 *            The array holding the new bytes.
+	 * @param offset
+	 *            The index of the first new byte.
+	 * @param length
+	 *            The number of bytes to rewrite.
+	 * @throws IOException
+	 *             In case of error while reading or writing the file.
+	 * @throws IllegalArgumentException
+	 *             In case the range isn't inside the plain-text.
+	 * @throws IndexOutOfBoundsException
+	 *             In case the range isn't inside the given array.
+	 */
+	void write(long position, byte[] input, int offset, int length)
+			throws IOException, IllegalArgumentException, IndexOutOfBoundsException {
+		Objects.checkFromIndexSize(offset, length, input.length);
+		if (position < 0 || length < 0 || position + length > header.length) {
+			throw new IllegalArgumentException("The range " + position + "+" + length
+					+ " isn't inside the plain-text of " + header.length + " bytes");
+		}
+
+		for (int done = 0; done < length;) {
+			long i = (position + done) / header.chunkSize;
+			int start = (int) ((position + done) % header.chunkSize);
+			int chunkLength = header.chunkLength(i);
+			int count = Math.min(length - done, chunkLength - start);
+
+			// Only the bytes that are kept need the old chunk.
+			if (count < chunkLength) {
+				load(i);
+			}
+			System.arraycopy(input, offset + done, chunk, start, count);
+			store(i);
+			done += count;
+		}
+	}
+
+	/**
+	 * Read and decipher the given chunk into the buffer, unless it is there
+	 * already.
+	 */
+	private void load(long i) throws IOException {
+		if (loaded == i) {
+			return;
+		}
+
+		loaded = -1;
+		int count = header.cipherTextLength(i);
+		readFully(channel, iv, 0, iv.length, HEADER_SIZE + i * 8);
+		readFully(channel, chunk, 0, count, header.chunkOffset(i));
+		decryptChunk(cipher, header.mode, chunk, count, CoreUtils.bytesToLong(iv, 0));
+		loaded = i;
+	}
+
+	/**
+	 * Encrypt the plain-text in the buffer with a new IV and write it as the
+	 * given chunk through the journal, the buffer keeps the plain-text.
+	 */
+	private void store(long i) throws IOException {
+		long newIv = random.nextLong();
+		CoreUtils.longToBytes(i, journal, 0);
+		CoreUtils.longToBytes(newIv, journal, 8);
+		System.arraycopy(chunk, 0, journal, JOURNAL_HEADER, header.chunkLength(i));
+		int count = encryptChunk(cipher, header.mode, journal, JOURNAL_HEADER, header.chunkLength(i), newIv);
+
+		// The flag is set only once the journal is whole on the disk.
+		loaded = -1;
+		writeFully(channel, journal, 0, JOURNAL_HEADER + count, header.fileLength());
+		channel.force(false);
+		setUpdating(true);
+
+		writeFully(channel, journal, JOURNAL_HEADER, count, header.chunkOffset(i));
+		writeFully(channel, journal, 8, 8, HEADER_SIZE + i * 8);
+		channel.force(false);
+		setUpdating(false);
+		loaded = i;
+	}
+
+	/**
+	 * Copy the chunk in the journal back to its place, after a rewrite that
+	 * wasn't finished.
+	 */
+	private void recover() throws IOException {
+		readFully(channel, journal, 0, JOURNAL_HEADER, header.fileLength());
+		long i = CoreUtils.bytesToLong(journal, 0);
+		if (i < 0 || i >= header.chunkCount()) {
+			throw new IllegalArgumentException("The journal holds no valid chunk");
+		}
+
+		int count = header.cipherTextLength(i);
+		readFully(channel, journal, JOURNAL_HEADER, count, header.fileLength() + JOURNAL_HEADER);
+		writeFully(channel, journal, JOURNAL_HEADER, count, header.chunkOffset(i));
+		writeFully(channel, journal, 8, 8, HEADER_SIZE + i * 8);
+		channel.force(false);
+		setUpdating(false);
+	}
+
+	/**
+	 * Write the update flag of the header, a set flag is synced.
+	 */
+	private void setUpdating(boolean isUpdating) throws IOException {
+		byte[] flag = { (byte) (isUpdating ? 1 : 0) };
+		writeFully(channel, flag, 0, 1, UPDATE_FLAG);
+		if (isUpdating) {
+			channel.force(false);
+		}
+	}
+
+	/**
+	 * Cut the journal off and close the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (isWritable && channel.size() > header.fileLength()) {
+				// The cleared flag must reach the disk before the journal is gone.
+				channel.force(false);
+				channel.truncate(header.fileLength());
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Encrypt a chunk in place.
+	 *
+	 * @return The length of its cipher-text.
+	 */
+	private static int encryptChunk(FeistelCipher cipher, CipherMode mode, byte[] buffer, int length, long iv) {
+		return encryptChunk(cipher, mode, buffer, 0, length, iv);
+	}
+
+	/**
+	 * Encrypt a chunk in place, starting at the given offset.
+	 *
+	 * @return The length of its cipher-text.
+	 */
+	private static int encryptChunk(FeistelCipher cipher, CipherMode mode, byte[] buffer, int offset, int length,
+			long iv) {
+		if (mode == CipherMode.CTR) {
+			cipher.ctr(buffer, offset, length, buffer, offset, iv);
+			return length;
+		}
+
+		// The last CBC chunk is filled with zeros up to a whole block.
+		int whole = (length + 7) / 8 * 8;
+		Arrays.fill(buffer, offset + length, offset + whole, (byte) 0);
+		cipher.encryptCbc(buffer, offset, whole, buffer, offset, iv);
+		return whole;
+	}
+
+	/**
+	 * Decipher a chunk in place.
+	 */
+	private static void decryptChunk(FeistelCipher cipher, CipherMode mode, byte[] buffer, int length, long iv) {
+		if (mode == CipherMode.CTR) {
+			cipher.ctr(buffer, 0, length, buffer, 0, iv);
+		} else {
+			cipher.decryptCbc(buffer, 0, length, buffer, 0, iv);
+		}
+	}
+
+	/**
+	 * Read from the stream until the given number of bytes were read or the
+	 * stream ended.
+	 *
+	 * @return The number of bytes read.
+	 */
+	private static int readFully(InputStream input, byte[] buffer, int length) throws IOException {
+		int total = 0;
+		int count;
+
+		while (total < length && (count = input.read(buffer, total, length - total)) != -1) {
+			total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * Read the given range of the file.
+	 */
+	private static void readFully(FileChannel channel, byte[] buffer, int offset, int length, long position)
+			throws IOException {
+		ByteBuffer target = ByteBuffer.wrap(buffer, offset, length);
+		while (target.hasRemaining()) {
+			if (channel.read(target, position + target.position() - offset) == -1) {
+				throw new IllegalArgumentException("The file is shorter than its header tells");
+			}
+		}
+	}
+
+	/**
+	 * Write the given bytes at the given position of the file.
+	 */
+	private static void writeFully(FileChannel channel, byte[] buffer, int offset, int length, long position)
+			throws IOException {
+		ByteBuffer source = ByteBuffer.wrap(buffer, offset, length);
+		while (source.hasRemaining()) {
+			channel.write(source, position + source.position() - offset);
+		}
+	}
+
+	/**
+	 * The Header class holds the fields of the header of a chunked file, and
+	 * tells where every chunk is.
+	 */
+	static final class Header {
+		final CipherMode mode; // The mode the blocks of every chunk are chained with.
+		final int chunkSize; // The size of a chunk.
+		final long length; // The length of the original plain-text.
+		final boolean isUpdating; // Whether or not the update flag was set.
+
+		/**
+		 * @throws IllegalArgumentException
+		 *             In case the chunk size isn't valid, or in case there are
+		 *             too many chunks.
+		 */
+		Header(CipherMode mode, int chunkSize, long length) throws IllegalArgumentException {
+			this(mode, chunkSize, length, false);
+		}
+
+		private Header(CipherMode mode, int chunkSize, long length, boolean isUpdating)
+				throws IllegalArgumentException {
+			if (chunkSize < 8 || chunkSize > MAX_CHUNK_SIZE || chunkSize % 8 != 0) {
+				throw new IllegalArgumentException("Illegal chunk size " + chunkSize);
+			}
+			if (length < 0 || (length + chunkSize - 1) / chunkSize > MAX_CHUNKS) {
+				throw new IllegalArgumentException("Illegal plain-text length " + length);
+			}
+			this.mode = mode;
+			this.chunkSize = chunkSize;
+			this.length = length;
+			this.isUpdating = isUpdating;
+		}
+
+		/**
+		 * @return The number of chunks.
+		 */
+		long chunkCount() {
+			return (length + chunkSize - 1) / chunkSize;
+		}
+
+		/**
+		 * @return The number of plain-text bytes in the given chunk.
+		 */
+		int chunkLength(long i) {
+			return (int) Math.min(chunkSize, length - i * chunkSize);
+		}
+
+		/**
+		 * @return The number of cipher-text bytes of the given chunk, the CBC
+		 *         chunks are made of whole blocks.
+		 */
+		int cipherTextLength(long i) {
+			return (mode == CipherMode.CBC) ? (chunkLength(i) + 7) / 8 * 8 : chunkLength(i);
+		}
+
+		/**
+		 * @return The position of the given chunk in the file.
+		 */
+		long chunkOffset(long i) {
+			return HEADER_SIZE + chunkCount() * 8 + i * chunkSize;
+		}
+
+		/**
+		 * @return The length of the whole file.
+		 */
+		long fileLength() {
+			return (length == 0) ? HEADER_SIZE : chunkOffset(chunkCount() - 1) + cipherTextLength(chunkCount() - 1);
+		}
+
+		/**
+		 * Write the header to the given stream.
+		 */
+		void write(OutputStream output) throws IOException {
+			byte[] header = new byte[HEADER_SIZE];
+			System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+			header[4] = VERSION;
+			header[5] = (byte) mode.ordinal();
+			header[8] = (byte) (chunkSize >>> 24);
+			header[9] = (byte) (chunkSize >>> 16);
+			header[10] = (byte) (chunkSize >>> 8);
+			header[11] = (byte) chunkSize;
+			CoreUtils.longToBytes(length, header, 16);
+			output.write(header);
+		}
+
+		/**
+		 * This function reads a header from the given stream.
+		 *
+		 * @param input
+		 *            The stream to read from, it is left at the first byte of
+		 *            the chunk index.
+		 * @return The header.
+		 * @throws IOException
+		 *             In case of error while reading.
+		 * @throws IllegalArgumentException
+		 *             In case the header isn't valid.
+		 */
+		static Header read(InputStream input) throws IOException, IllegalArgumentException {
+			byte[] header = new byte[HEADER_SIZE];
+			return parse(header, readFully(input, header, HEADER_SIZE));
+		}
+
+		/**
+		 * This function parses the given bytes of a header.
+		 *
+		 * @param header
+		 *            The first bytes of the file.
+		 * @param count
+		 *            The number of bytes that were read.
+		 * @return The header.
+		 * @throws IllegalArgumentException
+		 *             In case the header isn't valid.
+		 */
+		static Header parse(byte[] header, int count) throws IllegalArgumentException {
+			if (!isChunked(header, count) || count < HEADER_SIZE) {
+				throw new IllegalArgumentException("The file has no valid header");
+			}
+			if (header[4] != VERSION) {
+				throw new IllegalArgumentException("Unknown file version " + header[4]);
+			}
+			if (header[5] < 0 || header[5] >= CipherMode.values().length) {
+				throw new IllegalArgumentException("Unknown cipher mode " + header[5]);
+			}
+			if ((header[UPDATE_FLAG] & ~1) != 0 || header[7] != 0) {
+				throw new IllegalArgumentException("The reserved bytes of the header aren't zero");
+			}
+			if ((CoreUtils.bytesToLong(header, 8) & 0xFFFFFFFFL) != 0) {
+				throw new IllegalArgumentException("The reserved bytes of the header aren't zero");
+			}
+
+			int chunkSize = (int) (CoreUtils.bytesToLong(header, 8) >>> 32);
+			return new Header(CipherMode.values()[header[5]], chunkSize, CoreUtils.bytesToLong(header, 16),
+					header[UPDATE_FLAG] == 1);
+		}
+	}
+}
@@ -0,0 +1,323 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * The CipherMetrics class counts what the cipher does: the bytes and blocks
+ * of every mode, the latency of the encrypt / decrypt / verify operations and
+ * of the file jobs, the key schedules, the base64 stages and the file jobs in
+ * flight. It is read through JMX (see <code>CipherMetricsMXBean</code>) once
+ * <code>register</code> was called. The entry points (the GUI and the batch
+ * runner) call it, a program that uses the cipher as a library calls it
+ * itself if it wants the metrics. <code>FeistelProvider</code> doesn't, a
+ * security provider can be created anywhere and has no side effects.
+ *
+ * The counters are <code>LongAdder</code>s, which never lock and spread
+ * contended updates over cells, and they are updated once per call (a buffer,
+ * a message or a file) rather than once per block, so the block functions of
+ * the engines run exactly as they did and the metrics are always on.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+final class CipherMetrics implements CipherMetricsMXBean {
+	static final String OBJECT_NAME = "FeistelTwistBox:type=CipherMetrics";
+
+	/**
+	 * The modes the bytes are counted by.
+	 */
+	enum Mode {
+		ECB, CBC, CTR
+	}
+
+	/**
+	 * The operations with a latency histogram.
+	 */
+	enum Operation {
+		ENCRYPT, DECRYPT, VERIFY, ENCRYPT_FILE, DECRYPT_FILE
+	}
+
+	private static final LongAdder[] bytes = adders(Mode.values().length);
+	private static final LongAdder[] blocks = adders(Mode.values().length);
+	private static final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+	private static final LongAdder keySchedules = new LongAdder();
+	private static final LongAdder keyScheduleNanos = new LongAdder();
+	private static final LongAdder base64EncodedBytes = new LongAdder();
+	private static final LongAdder base64EncodeNanos = new LongAdder();
+	private static final LongAdder base64DecodedChars = new LongAdder();
+	private static final LongAdder base64DecodeNanos = new LongAdder();
+	private static final LongAdder jobsInFlight = new LongAdder();
+	private static boolean isRegistered; // Whether or not the MBean was registered.
+
+	static {
+		for (int i = 0; i < latencies.length; i++) {
+			latencies[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * The instance that is registered, it reads the static counters.
+	 */
+	static final CipherMetrics INSTANCE = new CipherMetrics();
+
+	private CipherMetrics() {
+	}
+
+	private static LongAdder[] adders(int count) {
+		LongAdder[] result = new LongAdder[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = new LongAdder();
+		}
+		return result;
+	}
+
+	/**
+	 * Register the metrics on the platform MBean server, only the first call
+	 * does anything. A JVM that doesn't allow it just runs without them. The
+	 * counters are updated whether or not this is called.
+	 */
+	static synchronized void register() {
+		if (isRegistered) {
+			return;
+		}
+		isRegistered = true;
+
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+		} catch (InstanceAlreadyExistsException e) {
+			// Registered by another class loader, which has its own counters.
+		} catch (JMException | SecurityException e) {
+			System.err.println("[Warning] The cipher metrics aren't available through JMX: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Count bytes processed in the given mode.
+	 *
+	 * @param mode
+	 *            The mode of operation.
+	 * @param length
+	 *            The number of bytes, the last block may be partial.
+	 */
+	static void processed(Mode mode, long length) {
+		if (length > 0) {
+			bytes[mode.ordinal()].add(length);
+			blocks[mode.ordinal()].add((length + 7) / 8);
+		}
+	}
+
+	/**
+	 * This function is called when an operation starts.
+	 *
+	 * @return The start time, to give to <code>record</code>.
+	 */
+	static long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Record the latency of an operation.
+	 *
+	 * @param operation
+	 *            The operation.
+	 * @param start
+	 *            The time it started, as returned by <code>start</code>.
+	 */
+	static void record(Operation operation, long start) {
+		latencies[operation.ordinal()].record(System.nanoTime() - start);
+	}
+
+	/**
+	 * This function is called when a file job starts.
+	 *
+	 * @return The start time, to give to <code>jobEnded</code>.
+	 */
+	static long jobStarted() {
+		jobsInFlight.increment();
+		return System.nanoTime();
+	}
+
+	/**
+	 * This function is called when a file job ends, whether or not it
+	 * succeeded.
+	 *
+	 * @param operation
+	 *            The operation of the job.
+	 * @param start
+	 *            The time it started, as returned by <code>jobStarted</code>.
+	 */
+	static void jobEnded(Operation operation, long start) {
+		jobsInFlight.decrement();
+		record(operation, start);
+	}
+
+	/**
+	 * Count a key schedule that was generated.
+	 *
+	 * @param start
+	 *            The time the generation started.
+	 */
+	static void keySchedule(long start) {
+		keyScheduleNanos.add(System.nanoTime() - start);
+		keySchedules.increment();
+	}
+
+	/**
+	 * Count bytes that were encoded into base64 text.
+	 *
+	 * @param length
+	 *            The number of bytes.
+	 * @param start
+	 *            The time the encoding started.
+	 */
+	static void base64Encoded(long length, long start) {
+		base64EncodeNanos.add(System.nanoTime() - start);
+		base64EncodedBytes.add(length);
+	}
+
+	/**
+	 * Count base64 characters that were decoded.
+	 *
+	 * @param length
+	 *            The number of characters.
+	 * @param start
+	 *            The time the decoding started.
+	 */
+	static void base64Decoded(long length, long start) {
+		base64DecodeNanos.add(System.nanoTime() - start);
+		base64DecodedChars.add(length);
+	}
+
+	/**
+	 * This function returns a reading of the histogram of the given
+	 * operation.
+	 */
+	static Latency latency(Operation operation) {
+		LatencyHistogram histogram = latencies[operation.ordinal()];
+		long count = histogram.count();
+		double mean = (count == 0) ? 0 : histogram.total() / 1e3 / count;
+		return new Latency(count, mean, histogram.percentile(50) / 1e3, histogram.percentile(90) / 1e3,
+				histogram.percentile(99) / 1e3, histogram.max() / 1e3);
+	}
+
+	@Override
+	public long getEcbBytes() {
+		return bytes[Mode.ECB.ordinal()].sum();
+	}
+
+	@Override
+	public long getEcbBlocks() {
+		return blocks[Mode.ECB.ordinal()].sum();
+	}
+
+	@Override
+	public long getCbcBytes() {
+		return bytes[Mode.CBC.ordinal()].sum();
+	}
+
+	@Override
+	public long getCbcBlocks() {
+		return blocks[Mode.CBC.ordinal()].sum();
+	}
+
+	@Override
+	public long getCtrBytes() {
+		return bytes[Mode.CTR.ordinal()].sum();
+	}
+
+	@Override
+	public long getCtrBlocks() {
+		return blocks[Mode.CTR.ordinal()].sum();
+	}
+
+	@Override
+	public Latency getEncryptLatency() {
+		return latency(Operation.ENCRYPT);
+	}
+
+	@Override
+	public Latency getDecryptLatency() {
+		return latency(Operation.DECRYPT);
+	}
+
+	@Override
+	public Latency getVerifyLatency() {
+		return latency(Operation.VERIFY);
+	}
+
+	@Override
+	public Latency getEncryptFileLatency() {
+		return latency(Operation.ENCRYPT_FILE);
+	}
+
+	@Override
+	public Latency getDecryptFileLatency() {
+		return latency(Operation.DECRYPT_FILE);
+	}
+
+	@Override
+	public long getKeySchedules() {
+		return keySchedules.sum();
+	}
+
+	@Override
+	public long getKeyScheduleMicros() {
+		return keyScheduleNanos.sum() / 1000;
+	}
+
+	@Override
+	public long getKeyScheduleCacheHits() {
+		return KeyScheduleCache.SHARED.hits();
+	}
+
+	@Override
+	public long getKeyScheduleCacheMisses() {
+		return KeyScheduleCache.SHARED.misses();
+	}
+
+	@Override
+	public long getBase64EncodedBytes() {
+		return base64EncodedBytes.sum();
+	}
+
+	@Override
+	public long getBase64EncodeMicros() {
+		return base64EncodeNanos.sum() / 1000;
+	}
+
+	@Override
+	public long getBase64DecodedChars() {
+		return base64DecodedChars.sum();
+	}
+
+	@Override
+	public long getBase64DecodeMicros() {
+		return base64DecodeNanos.sum() / 1000;
+	}
+
+	@Override
+	public long getJobsInFlight() {
+		return jobsInFlight.sum();
+	}
+
+	@Override
+	public void reset() {
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i].reset();
+			blocks[i].reset();
+		}
+		for (LatencyHistogram histogram : latencies) {
+			histogram.reset();
+		}
+		keySchedules.reset();
+		keyScheduleNanos.reset();
+		base64EncodedBytes.reset();
+		base64EncodeNanos.reset();
+		base64DecodedChars.reset();
+		base64DecodeNanos.reset();
+	}
+}
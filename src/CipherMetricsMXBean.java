@@ -0,0 +1,197 @@
+import java.beans.ConstructorProperties;
+
+/**
+ * The management interface of <code>CipherMetrics</code>, registered as
+ * "FeistelTwistBox:type=CipherMetrics" on the platform MBean server, so it can
+ * be read with JConsole, VisualVM or any JMX client while the cipher runs.
+ *
+ * The counters only grow (until <code>reset</code>), a client tells the rates
+ * from two readings. The times are in microseconds.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+public interface CipherMetricsMXBean {
+	/**
+	 * @return The bytes processed in ECB mode: independent blocks, with no
+	 *         chaining.
+	 */
+	long getEcbBytes();
+
+	/**
+	 * @return The blocks processed in ECB mode.
+	 */
+	long getEcbBlocks();
+
+	/**
+	 * @return The bytes processed in CBC mode.
+	 */
+	long getCbcBytes();
+
+	/**
+	 * @return The blocks processed in CBC mode.
+	 */
+	long getCbcBlocks();
+
+	/**
+	 * @return The bytes processed in CTR mode.
+	 */
+	long getCtrBytes();
+
+	/**
+	 * @return The blocks processed in CTR mode, the last block of a text may
+	 *         be partial.
+	 */
+	long getCtrBlocks();
+
+	/**
+	 * @return The latency of encrypting a whole message (an array, a buffer
+	 *         or a stream).
+	 */
+	Latency getEncryptLatency();
+
+	/**
+	 * @return The latency of deciphering a whole message.
+	 */
+	Latency getDecryptLatency();
+
+	/**
+	 * @return The latency of verifying a cipher-text file against its
+	 *         plain-text file.
+	 */
+	Latency getVerifyLatency();
+
+	/**
+	 * @return The latency of encrypting a file.
+	 */
+	Latency getEncryptFileLatency();
+
+	/**
+	 * @return The latency of deciphering a file.
+	 */
+	Latency getDecryptFileLatency();
+
+	/**
+	 * @return The number of key schedules that were generated.
+	 */
+	long getKeySchedules();
+
+	/**
+	 * @return The time spent generating key schedules.
+	 */
+	long getKeyScheduleMicros();
+
+	/**
+	 * @return The key schedules that were found in the shared cache.
+	 */
+	long getKeyScheduleCacheHits();
+
+	/**
+	 * @return The key schedules that weren't in the shared cache.
+	 */
+	long getKeyScheduleCacheMisses();
+
+	/**
+	 * @return The bytes encoded into base64 text.
+	 */
+	long getBase64EncodedBytes();
+
+	/**
+	 * @return The time spent encoding base64 text.
+	 */
+	long getBase64EncodeMicros();
+
+	/**
+	 * @return The base64 characters decoded.
+	 */
+	long getBase64DecodedChars();
+
+	/**
+	 * @return The time spent decoding base64 text.
+	 */
+	long getBase64DecodeMicros();
+
+	/**
+	 * @return The file jobs (encrypt, decrypt or verify) that are running
+	 *         now.
+	 */
+	long getJobsInFlight();
+
+	/**
+	 * Reset all the counters and histograms, except for the jobs in flight.
+	 */
+	void reset();
+
+	/**
+	 * The Latency class is a reading of a latency histogram, a JMX client
+	 * sees it as a composite value. The percentiles are accurate to 25%.
+	 */
+	final class Latency {
+		private final long count;
+		private final double meanMicros;
+		private final double p50Micros;
+		private final double p90Micros;
+		private final double p99Micros;
+		private final double maxMicros;
+
+		@ConstructorProperties({ "count", "meanMicros", "p50Micros", "p90Micros", "p99Micros", "maxMicros" })
+		public Latency(long count, double meanMicros, double p50Micros, double p90Micros, double p99Micros,
+				double maxMicros) {
+			this.count = count;
+			this.meanMicros = meanMicros;
+			this.p50Micros = p50Micros;
+			this.p90Micros = p90Micros;
+			this.p99Micros = p99Micros;
+			this.maxMicros = maxMicros;
+		}
+
+		/**
+		 * @return The number of recorded operations.
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return The mean latency.
+		 */
+		public double getMeanMicros() {
+			return meanMicros;
+		}
+
+		/**
+		 * @return The median latency.
+		 */
+		public double getP50Micros() {
+			return p50Micros;
+		}
+
+		/**
+		 * @return The 90th percentile of the latency.
+		 */
+		public double getP90Micros() {
+			return p90Micros;
+		}
+
+		/**
+		 * @return The 99th percentile of the latency.
+		 */
+		public double getP99Micros() {
+			return p99Micros;
+		}
+
+		/**
+		 * @return The longest latency.
+		 */
+		public double getMaxMicros() {
+			return maxMicros;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("count=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus max=%.1fus", count,
+					meanMicros, p50Micros, p90Micros, p99Micros, maxMicros);
+		}
+	}
+}
@@ -0,0 +1,22 @@
+/**
+ * The modes of operation the Feistel cipher can chain its blocks with.
+ * 
+ * Happy cow says: "Muuuuuuu.."
+ * 
+ * @author Ben Sabah.
+ */
+public enum CipherMode {
+	/**
+	 * Cipher block chaining: every plain block is xor'ed with the previous
+	 * cipher block before it is encrypted, the plain-text is padded with 0x80
+	 * followed by zeros. This is the default mode.
+	 */
+	CBC,
+
+	/**
+	 * Counter mode: every plain block is xor'ed with the encryption of the
+	 * nonce plus the index of the block, it needs no padding and all the
+	 * blocks can be handled in parallel.
+	 */
+	CTR
+}
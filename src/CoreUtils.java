@@ -1,3 +1,7 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
 /**
  * Utilities class holds all the needed functions to work with bits to apply
  * permutations and remove padding
@@ -19,14 +23,111 @@ class CoreUtils {
 	 */
 	static byte[] xor(byte[] byteArrA, byte[] byteArrB) {
 		byte[] result = new byte[byteArrA.length];
+		xor(byteArrA, byteArrB, result);
+		return result;
+	}
 
+	/**
+	 * This function applies a bitwise-XOR over two byte vectors into the given
+	 * array, which may be one of them.
+	 * 
+	 * @param byteArrA
+	 *            The array of bytes to be xor'ed with <code>byteArrB</code>
+	 * @param byteArrB
+	 *            The array of bytes to be xor'ed with <code>byteArrA</code>
+	 * @param result
+	 *            The array to write the result to, as long as
+	 *            <code>byteArrA</code>.
+	 */
+	static void xor(byte[] byteArrA, byte[] byteArrB, byte[] result) {
 		for (int i = 0; i < byteArrA.length; i++) {
 			result[i] = (byte) (byteArrA[i] ^ byteArrB[i]);
 		}
+	}
+
+	/**
+	 * This function reads 8 bytes from the given offset of the array as a
+	 * single 64-bit word, the first byte becomes the most significant one (as if
+	 * the bytes were concatenated).
+	 * 
+	 * @param byteArr
+	 *            The array of bytes.
+	 * @param offset
+	 *            The index of the first byte to read.
+	 * @return The 64-bit word.
+	 */
+	static long bytesToLong(byte[] byteArr, int offset) {
+		long result = 0;
+
+		for (int i = 0; i < 8; i++) {
+			result = (result << 8) | (byteArr[offset + i] & 0xFF);
+		}
 
 		return result;
 	}
 
+	/**
+	 * This function writes a 64-bit word into 8 bytes of the array starting at
+	 * the given offset, the most significant byte is written first.
+	 * 
+	 * @param word
+	 *            The 64-bit word to write.
+	 * @param byteArr
+	 *            The array of bytes to write to.
+	 * @param offset
+	 *            The index of the first byte to write.
+	 */
+	static void longToBytes(long word, byte[] byteArr, int offset) {
+		for (int i = 7; i >= 0; i--) {
+			byteArr[offset + i] = (byte) word;
+			word >>>= 8;
+		}
+	}
+
+	/**
+	 * This function reads the next 8 bytes of the buffer as a single 64-bit
+	 * word, the first byte becomes the most significant one whatever the byte
+	 * order of the buffer is.
+	 * 
+	 * @param buffer
+	 *            The buffer to read from, its position is advanced by 8.
+	 * @return The 64-bit word.
+	 */
+	static long getLong(ByteBuffer buffer) {
+		long word = buffer.getLong();
+		return (buffer.order() == ByteOrder.BIG_ENDIAN) ? word : Long.reverseBytes(word);
+	}
+
+	/**
+	 * This function reads the 8 bytes of the buffer at the given index as a
+	 * single 64-bit word, see <code>getLong(ByteBuffer)</code>. The position
+	 * of the buffer isn't changed.
+	 * 
+	 * @param buffer
+	 *            The buffer to read from.
+	 * @param index
+	 *            The index of the first byte.
+	 * @return The 64-bit word.
+	 */
+	static long getLong(ByteBuffer buffer, int index) {
+		long word = buffer.getLong(index);
+		return (buffer.order() == ByteOrder.BIG_ENDIAN) ? word : Long.reverseBytes(word);
+	}
+
+	/**
+	 * This function writes a 64-bit word into the next 8 bytes of the buffer,
+	 * the most significant byte is written first whatever the byte order of
+	 * the buffer is.
+	 * 
+	 * @param word
+	 *            The 64-bit word to write.
+	 * @param buffer
+	 *            The buffer to write to, its position is advanced by 8.
+	 */
+	static void putLong(long word, ByteBuffer buffer) {
+		buffer.putLong((buffer.order() == ByteOrder.BIG_ENDIAN) ? word : Long.reverseBytes(word));
+	}
+
 	/**
 	 * This function get a array of bytes, an index of a bit and a value (1 or
 	 * 0, the method will change the bit of the given index (as if the bytes
@@ -65,6 +166,22 @@ class CoreUtils {
 		return byteArr[whichByte] >> (8 - (whichBit + 1)) & 0x0001;
 	}
 
+	/**
+	 * This function clears the last byte of the given number of bits, the
+	 * functions that write bit by bit into a given array leave no stale bits
+	 * after their result this way (every bit before them is overwritten).
+	 * 
+	 * @param byteArr
+	 *            The array of bytes.
+	 * @param length
+	 *            The number of bits that are written.
+	 */
+	private static void clearLastBits(byte[] byteArr, int length) {
+		if (length % 8 != 0) {
+			byteArr[length / 8] = 0;
+		}
+	}
+
 	/**
 	 * This function get array of bytes a starting index and the number of bits
 	 * to copy and returns array of bytes with the request bits.
@@ -80,14 +197,33 @@ class CoreUtils {
 	static byte[] getBits(byte[] byteArr, int index, int length) {
 		int numOfBytes = (length - 1) / 8 + 1;
 		byte[] result = new byte[numOfBytes];
+		getBits(byteArr, index, length, result);
+		return result;
+	}
+
+	/**
+	 * This function copies the requested bits into the given array, see
+	 * <code>getBits(byte[], int, int)</code>. The bits after them in its last
+	 * byte are cleared.
+	 * 
+	 * @param byteArr
+	 *            The array of bytes.
+	 * @param index
+	 *            The index from where to start copying the bits.
+	 * @param length
+	 *            how many bits to copy from the starting <code>index</code>.
+	 * @param result
+	 *            The array to copy the bits to, it must not be
+	 *            <code>byteArr</code>.
+	 */
+	static void getBits(byte[] byteArr, int index, int length, byte[] result) {
+		clearLastBits(result, length);
 		int val;
 
 		for (int i = 0; i < length; i++) {
 			val = getBit(byteArr, index + i);
 			setBit(result, i, val);
 		}
-
-		return result;
 	}
 
 	/**
@@ -106,6 +242,28 @@ class CoreUtils {
 	static byte[] concatenateBits(byte[] byteArrA, int aLength, byte[] byteArrB, int bLength) {
 		int numOfBytes = (aLength + bLength - 1) / 8 + 1;
 		byte[] result = new byte[numOfBytes];
+		concatenateBits(byteArrA, aLength, byteArrB, bLength, result);
+		return result;
+	}
+
+	/**
+	 * This function concatenates the bits of 2 byte arrays into the given
+	 * array, see <code>concatenateBits(byte[], int, byte[], int)</code>.
+	 * 
+	 * @param byteArrA
+	 *            The first byte array to copy from.
+	 * @param aLength
+	 *            The number of bits to copy from the <code>byteArrA</code>.
+	 * @param byteArrB
+	 *            The second byte array to copy from.
+	 * @param bLength
+	 *            The number of bits to copy from the <code>byteArrB</code>.
+	 * @param result
+	 *            The array to write the concatenation to, it must not be one
+	 *            of the others.
+	 */
+	static void concatenateBits(byte[] byteArrA, int aLength, byte[] byteArrB, int bLength, byte[] result) {
+		clearLastBits(result, aLength + bLength);
 		int j = 0;
 		int val;
 
@@ -117,8 +275,6 @@ class CoreUtils {
 			val = getBit(byteArrB, i);
 			setBit(result, j, val);
 		}
-
-		return result;
 	}
 
 	/**
@@ -133,6 +289,24 @@ class CoreUtils {
 	 */
 	static byte[] splitBytes(byte[] byteArr, int howManyParts) {
 		byte[] result = new byte[howManyParts];
+		splitBytes(byteArr, howManyParts, result);
+		return result;
+	}
+
+	/**
+	 * This function splits the array into the given array, see
+	 * <code>splitBytes(byte[], int)</code>.
+	 * 
+	 * @param byteArr
+	 *            The byte array to copy from.
+	 * @param howManyParts
+	 *            The number of bytes split the bit to.
+	 * @param result
+	 *            The array to write the parts to, it must not be
+	 *            <code>byteArr</code>.
+	 */
+	static void splitBytes(byte[] byteArr, int howManyParts, byte[] result) {
+		Arrays.fill(result, 0, howManyParts, (byte) 0);
 		int whichByte;
 		int val;
 
@@ -141,8 +315,6 @@ class CoreUtils {
 			val = getBit(byteArr, i);
 			setBit(result, 5 * (whichByte + 1) + i, val);
 		}
-
-		return result;
 	}
 
 	/**
@@ -185,14 +357,31 @@ class CoreUtils {
 	static byte[] permutation(byte[] byteArr, int[] table) {
 		int tableSize = (table.length - 1) / 8 + 1;
 		byte[] result = new byte[tableSize];
+		permutation(byteArr, table, result);
+		return result;
+	}
+
+	/**
+	 * This function applies a permutation on a array of bytes into the given
+	 * array, see <code>permutation(byte[], int[])</code>.
+	 * 
+	 * @param byteArr
+	 *            The byte array to rearrange.
+	 * @param table
+	 *            The indexing table that we use to rearrange the
+	 *            <code>byteArr</code>.
+	 * @param result
+	 *            The array to write the permutation to, it must not be
+	 *            <code>byteArr</code>.
+	 */
+	static void permutation(byte[] byteArr, int[] table, byte[] result) {
+		clearLastBits(result, table.length);
 		int val;
 
 		for (int i = 0; i < table.length; i++) {
 			val = getBit(byteArr, table[i] - 1);
 			setBit(result, i, val);
 		}
-
-		return result;
 	}
 
 	/**
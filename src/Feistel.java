@@ -1,11 +1,18 @@
-import java.util.Base64;
+import java.util.Arrays;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 
+import java.nio.file.Path;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 
+import java.security.SecureRandom;
+
 /**
  * The Feistel class holds all the functions that are used to implement the
  * Feistel network cipher-algorithm and uses cipher block chaining.
@@ -17,6 +24,22 @@ import java.nio.file.Paths;
 public class Feistel {
 
 	private static final int KEY_SIZE = 56;
+	private static final int BUFFER_SIZE = FeistelCipher.BUFFER_SIZE;
+	private static final long MAPPED_THRESHOLD = 64L * 1024 * 1024; // Bigger files are memory-mapped.
+
+	/**
+	 * The initial vector of the CBC chain, the bytes "UUUUUUUU" which are of
+	 * the form 010101....
+	 */
+	static final long IV = 0x5555555555555555L;
+
+	/**
+	 * The text files of the CTR mode start with this marker, followed by the
+	 * base64 text of the nonce and the cipher-text. The CBC files hold only the
+	 * base64 text, which can't hold a ':'.
+	 */
+	private static final byte[] CTR_MARKER = "CTR:".getBytes();
+	private static final SecureRandom random = new SecureRandom();
 
 	/**
 	 * This table specifies the input permutation of a 64-bit block. it
@@ -25,7 +48,7 @@ public class Feistel {
 	 * input; the second bit from the 50th bit, and so on. This information is
 	 * taken from http://en.wikipedia.org/wiki/DES_supplementary_material
 	 */
-	private static int[] IP = { 58, 50, 42, 34, 26, 18, 10, 2, 60, 52, 44, 36, 28, 20, 12, 4, 62, 54, 46, 38, 30, 22,
+	static final int[] IP = { 58, 50, 42, 34, 26, 18, 10, 2, 60, 52, 44, 36, 28, 20, 12, 4, 62, 54, 46, 38, 30, 22,
 			14, 6, 64, 56, 48, 40, 32, 24, 16, 8, 57, 49, 41, 33, 25, 17, 9, 1, 59, 51, 43, 35, 27, 19, 11, 3, 61, 53,
 			45, 37, 29, 21, 13, 5, 63, 55, 47, 39, 31, 23, 15, 7 };
 
@@ -34,7 +57,7 @@ public class Feistel {
 	 * table is interpreted similarly to as the IP. taken from
 	 * http://en.wikipedia.org/wiki/DES_supplementary_material
 	 */
-	private static int[] IPinverse = { 40, 8, 48, 16, 56, 24, 64, 32, 39, 7, 47, 15, 55, 23, 63, 31, 38, 6, 46, 14, 54,
+	static final int[] IPinverse = { 40, 8, 48, 16, 56, 24, 64, 32, 39, 7, 47, 15, 55, 23, 63, 31, 38, 6, 46, 14, 54,
 			22, 62, 30, 37, 5, 45, 13, 53, 21, 61, 29, 36, 4, 44, 12, 52, 20, 60, 28, 35, 3, 43, 11, 51, 19, 59, 27,
 			34, 2, 42, 10, 50, 18, 58, 26, 33, 1, 41, 9, 49, 17, 57, 25 };
 
@@ -42,14 +65,14 @@ public class Feistel {
 	 * The expansion permutation for the f function taken from
 	 * http://en.wikipedia.org/wiki/DES_supplementary_material
 	 */
-	private static int[] E = { 9, 8, 9, 10, 11, 12, 13, 20, 21, 20, 21, 22, 23, 24, 25, 24, 25, 26, 27, 12, 13, 14, 15,
+	static final int[] E = { 9, 8, 9, 10, 11, 12, 13, 20, 21, 20, 21, 22, 23, 24, 25, 24, 25, 26, 27, 12, 13, 14, 15,
 			16, 17, 16, 17, 32, 1, 2, 3, 4, 5, 4, 5, 6, 7, 8, 18, 19, 28, 29, 28, 29, 30, 31, 32, 1 };
 
 	/**
 	 * The P permutation shuffles the bits of a 32-bit half-block. taken from
 	 * http://en.wikipedia.org/wiki/DES_supplementary_material
 	 */
-	private static int[] P = { 16, 7, 20, 21, 29, 12, 28, 17, 1, 15, 23, 26, 5, 18, 31, 10, 2, 8, 24, 14, 32, 27, 3, 9,
+	static final int[] P = { 16, 7, 20, 21, 29, 12, 28, 17, 1, 15, 23, 26, 5, 18, 31, 10, 2, 8, 24, 14, 32, 27, 3, 9,
 			19, 13, 30, 6, 22, 11, 4, 25 };
 
 	/**
@@ -58,7 +81,7 @@ public class Feistel {
 	 * use as parity bits. taken from
 	 * http://en.wikipedia.org/wiki/DES_supplementary_material
 	 */
-	private static int[] PC1 = { 57, 49, 41, 33, 25, 17, 9, 1, 58, 50, 42, 34, 26, 18, 10, 2, 59, 51, 43, 35, 27, 19,
+	static final int[] PC1 = { 57, 49, 41, 33, 25, 17, 9, 1, 58, 50, 42, 34, 26, 18, 10, 2, 59, 51, 43, 35, 27, 19,
 			11, 3, 60, 52, 44, 36, 63, 55, 47, 39, 31, 23, 15, 7, 62, 54, 46, 38, 30, 22, 14, 6, 61, 53, 45, 37, 29,
 			21, 13, 5, 28, 20, 12, 4 };
 
@@ -67,7 +90,7 @@ public class Feistel {
 	 * rounds from the 56-bit key-schedule state. taken from
 	 * http://en.wikipedia.org/wiki/DES_supplementary_material
 	 */
-	private static int[] PC2 = { 14, 17, 11, 24, 1, 5, 3, 28, 15, 6, 21, 10, 23, 19, 12, 4, 26, 8, 16, 7, 27, 20, 13,
+	static final int[] PC2 = { 14, 17, 11, 24, 1, 5, 3, 28, 15, 6, 21, 10, 23, 19, 12, 4, 26, 8, 16, 7, 27, 20, 13,
 			2, 41, 52, 31, 37, 47, 55, 30, 40, 51, 45, 33, 48, 44, 49, 39, 56, 34, 53, 46, 42, 50, 36, 29, 32 };
 
 	/**
@@ -75,21 +98,29 @@ public class Feistel {
 	 * rotated left.taken from
 	 * http://en.wikipedia.org/wiki/DES_supplementary_material
 	 */
-	private static int[] keyShift = { 1, 1, 2, 2, 2, 2, 2, 2, 1, 2, 2, 2, 2, 2, 2, 1 };
+	static final int[] keyShift = { 1, 1, 2, 2, 2, 2, 2, 2, 1, 2, 2, 2, 2, 2, 2, 1 };
 
 	/**
 	 * This array adds a fixed number to every 3 bit that will later be
 	 * modulo'ed with 3 in-order to determine which of the 3 bit segment to
 	 * remove, and the 2 other bits to will be switched
 	 */
-	private static int[] additionTable = { 1, 2, 1, 0, 2, 1, 1, 2, 2, 0, 1, 0, 2, 0, 1, 2 };
+	static final int[] additionTable = { 1, 2, 1, 0, 2, 1, 1, 2, 2, 0, 1, 0, 2, 0, 1, 2 };
+
+	/**
+	 * The working arrays of the reference block function for every thread, so
+	 * the rounds write into them instead of allocating (see
+	 * <code>Scratch</code>).
+	 */
+	private static final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
 
 	static String plainTextPath; // The path to the plain-text file.
 	static String cipherTextPath; // The path to the cipher-text file.
 	static String keyPath; // The path to the key file.
 	static String configPath; // The path to the configuration file.
 	static byte[] key = new byte[KEY_SIZE]; // The Master 54-bit key.
-	static byte[][] subKeys; // All the sub-keys.
+	static CipherMode mode = CipherMode.CBC; // The mode to encrypt files with.
+	static FileFormat format = FileFormat.BASE64; // The format to write cipher-text files in.
 
 	/**
 	 * This method gets a cipher-text and a plain-text and verify that the
@@ -102,27 +133,164 @@ public class Feistel {
 	 *             In case of base64 translation error
 	 */
 	static boolean verify() throws IOException, IllegalArgumentException {
-		// Read the cipher-text from the file and decipher it.
-		byte[] cipherTextBytes = Files.readAllBytes(Paths.get(cipherTextPath));
-		cipherTextBytes = Base64.getDecoder().decode(cipherTextBytes);
-		byte[] decipheredTextBytes = decrypt(cipherTextBytes, key);
+		return verify(new FileProgress());
+	}
 
-		// Read the plain-text file.
-		byte[] plainTextBytes = Files.readAllBytes(Paths.get(plainTextPath));
+	/**
+	 * This method verifies the files (see <code>verify()</code>) and reports
+	 * its progress through the cipher-text file.
+	 * 
+	 * @param progress
+	 *            The progress of the job, which may cancel it.
+	 * @return Whether or not the deciphered text is the same as the original
+	 *         text.
+	 * @throws FileProgress.CancelledException
+	 *             In case the job was cancelled.
+	 * @throws IllegalArgumentException
+	 *             In case of base64 translation error
+	 */
+	static boolean verify(FileProgress progress) throws IOException, IllegalArgumentException {
+		return verify(FeistelCipher.forKey(key), Paths.get(plainTextPath), Paths.get(cipherTextPath), progress);
+	}
 
-		// Check if the sizes are different.
-		if (plainTextBytes.length != decipheredTextBytes.length) {
+	/**
+	 * This method gets a cipher-text and a plain-text and verify that the
+	 * deciphered text of the cipher-text equals to the plain-text.
+	 * 
+	 * @param cipher
+	 *            The cipher to decipher with.
+	 * @param plainText
+	 *            The path to the plain-text file.
+	 * @param cipherText
+	 *            The path to the cipher-text file.
+	 * @return Whether or not the deciphered text is the same as the original
+	 *         text.
+	 * @throws IOException
+	 *             In case of error while reading the files.
+	 * @throws IllegalArgumentException
+	 *             In case of base64 translation error
+	 */
+	static boolean verify(FeistelCipher cipher, Path plainText, Path cipherText)
+			throws IOException, IllegalArgumentException {
+		return verify(cipher, plainText, cipherText, new FileProgress());
+	}
+
+	/**
+	 * This method verifies the files (see
+	 * <code>verify(FeistelCipher, Path, Path)</code>) and reports its progress
+	 * through the cipher-text file.
+	 * 
+	 * @param cipher
+	 *            The cipher to decipher with.
+	 * @param plainText
+	 *            The path to the plain-text file.
+	 * @param cipherText
+	 *            The path to the cipher-text file.
+	 * @param progress
+	 *            The progress of the job, which may cancel it.
+	 * @return Whether or not the deciphered text is the same as the original
+	 *         text.
+	 * @throws IOException
+	 *             In case of error while reading the files.
+	 * @throws FileProgress.CancelledException
+	 *             In case the job was cancelled.
+	 * @throws IllegalArgumentException
+	 *             In case of base64 translation error
+	 */
+	static boolean verify(FeistelCipher cipher, Path plainText, Path cipherText, FileProgress progress)
+			throws IOException, IllegalArgumentException {
+		progress.start(Files.size(cipherText));
+		long start = CipherMetrics.jobStarted();
+		try (InputStream cipherTextStream = open(cipherText, progress); InputStream plainTextStream = open(plainText)) {
+			return verify(cipher, plainTextStream, Files.size(plainText), cipherTextStream, Files.size(cipherText));
+		} finally {
+			CipherMetrics.jobEnded(CipherMetrics.Operation.VERIFY, start);
+		}
+	}
+
+	/**
+	 * This method deciphers a cipher-text stream and verifies that the result
+	 * equals to a plain-text stream. None of the streams is closed.
+	 * 
+	 * @param cipher
+	 *            The cipher to decipher with.
+	 * @param plainTextStream
+	 *            The stream of the plain-text.
+	 * @param plainTextLength
+	 *            The length of the plain-text.
+	 * @param cipherTextStream
+	 *            A stream of the cipher-text which supports mark/reset.
+	 * @param cipherTextLength
+	 *            The length of the cipher-text.
+	 * @return Whether or not the deciphered text is the same as the original
+	 *         text.
+	 * @throws IOException
+	 *             In case of error while reading the streams.
+	 * @throws IllegalArgumentException
+	 *             In case of base64 translation error
+	 */
+	static boolean verify(FeistelCipher cipher, InputStream plainTextStream, long plainTextLength,
+			InputStream cipherTextStream, long cipherTextLength) throws IOException, IllegalArgumentException {
+		// Texts of lengths that can't match are told apart without deciphering anything.
+		if (!lengthsMatch(cipherTextStream, cipherTextLength, plainTextLength)) {
 			return false;
 		}
 
-		// Check if the deciphered bytes are the same as the plain text bytes.
-		for (int i = 0; i < plainTextBytes.length; i++) {
-			if (plainTextBytes[i] != decipheredTextBytes[i]) {
-				return false;
-			}
+		// Decipher the cipher-text and compare it to the plain-text as we go, up to the first difference.
+		try {
+			decipher(cipher, cipherTextStream, new ComparingOutputStream(plainTextStream));
+		} catch (MismatchException e) {
+			return false;
+		}
+
+		// Check that the plain-text has nothing left.
+		return plainTextStream.read() == -1;
+	}
+
+	/**
+	 * This method checks if a cipher-text file of the given length can hold a
+	 * plain-text of the given length, by the format and mode that are told by
+	 * the start of the file. The stream is left where it was.
+	 * 
+	 * @param cipherTextStream
+	 *            A buffered stream of the cipher-text file.
+	 * @param cipherTextLength
+	 *            The length of the cipher-text file.
+	 * @param plainTextLength
+	 *            The length of the plain-text file.
+	 * @return Whether or not the lengths can match.
+	 * @throws IOException
+	 *             In case of error while reading the file.
+	 * @throws IllegalArgumentException
+	 *             In case the header of a binary file isn't valid.
+	 */
+	private static boolean lengthsMatch(InputStream cipherTextStream, long cipherTextLength, long plainTextLength)
+			throws IOException, IllegalArgumentException {
+		byte[] start = new byte[BinaryContainer.HEADER_SIZE];
+		cipherTextStream.mark(start.length);
+		int count = cipherTextStream.read(start);
+		cipherTextStream.reset();
+
+		if (BinaryContainer.isContainer(start, count)) {
+			cipherTextStream.mark(start.length);
+			BinaryContainer.Header header = BinaryContainer.Header.read(cipherTextStream);
+			cipherTextStream.reset();
+			return header.length == plainTextLength
+					&& BinaryContainer.HEADER_SIZE + header.cipherTextLength() == cipherTextLength;
+		}
+		if (ChunkedFile.isChunked(start, count)) {
+			ChunkedFile.Header header = ChunkedFile.Header.parse(start, count);
+			return header.length == plainTextLength && header.fileLength() == cipherTextLength;
 		}
 
-		return true;
+		// The base64 texts are padded, any other text length is left for the decoder to judge.
+		if (cipherTextLength % 4 != 0) {
+			return true;
+		}
+		if (count >= CTR_MARKER.length && Arrays.equals(Arrays.copyOf(start, CTR_MARKER.length), CTR_MARKER)) {
+			return CTR_MARKER.length + Base64Stage.encodedLength(8 + plainTextLength) == cipherTextLength;
+		}
+		return Base64Stage.encodedLength(plainTextLength / 8 * 8 + 8) == cipherTextLength;
 	}
 
 	/**
@@ -137,19 +305,98 @@ public class Feistel {
 	 *             In case of base64 translation error
 	 */
 	static void decryptFile(RandomAccessFile plainTextFile) throws IOException, IllegalArgumentException {
-		// Load the plain text from the files to the memory.
-		byte[] cipherTextBytes = Files.readAllBytes(Paths.get(cipherTextPath));
+		decryptFile(plainTextFile, new FileProgress());
+	}
 
-		// Convert the resulting byte to base64 text.
-		cipherTextBytes = Base64.getDecoder().decode(cipherTextBytes);
+	/**
+	 * The function decipher the cipher-text file (see
+	 * <code>decryptFile(RandomAccessFile)</code>) and reports its progress
+	 * through the cipher-text file.
+	 * 
+	 * @param plainTextFile
+	 *            The stream to the plain-text file
+	 * @param progress
+	 *            The progress of the job, which may cancel it.
+	 * @throws IOException
+	 *             In case of error while read / write to file.
+	 * @throws FileProgress.CancelledException
+	 *             In case the job was cancelled, the plain-text file is left
+	 *             empty then.
+	 * @throws IllegalArgumentException
+	 *             In case of base64 translation error
+	 */
+	static void decryptFile(RandomAccessFile plainTextFile, FileProgress progress)
+			throws IOException, IllegalArgumentException {
+		decryptFile(FeistelCipher.forKey(key), Paths.get(cipherTextPath), plainTextFile, progress);
+	}
 
-		// Decipher the text.
-		byte[] plainTextBytes = decrypt(cipherTextBytes, key);
+	/**
+	 * The function decipher the cipher-text file and write the result into the
+	 * plain-text file.
+	 * 
+	 * @param cipher
+	 *            The cipher to decipher with.
+	 * @param cipherText
+	 *            The path to the cipher-text file.
+	 * @param plainTextFile
+	 *            The stream to the plain-text file
+	 * @throws IOException
+	 *             In case of error while read / write to file.
+	 * @throws IllegalArgumentException
+	 *             In case of base64 translation error
+	 */
+	static void decryptFile(FeistelCipher cipher, Path cipherText, RandomAccessFile plainTextFile)
+			throws IOException, IllegalArgumentException {
+		decryptFile(cipher, cipherText, plainTextFile, new FileProgress());
+	}
+
+	/**
+	 * The function decipher the cipher-text file (see
+	 * <code>decryptFile(FeistelCipher, Path, RandomAccessFile)</code>) and
+	 * reports its progress through the cipher-text file.
+	 * 
+	 * @param cipher
+	 *            The cipher to decipher with.
+	 * @param cipherText
+	 *            The path to the cipher-text file.
+	 * @param plainTextFile
+	 *            The stream to the plain-text file
+	 * @param progress
+	 *            The progress of the job, which may cancel it.
+	 * @throws IOException
+	 *             In case of error while read / write to file.
+	 * @throws FileProgress.CancelledException
+	 *             In case the job was cancelled, the plain-text file is left
+	 *             empty then.
+	 * @throws IllegalArgumentException
+	 *             In case of base64 translation error
+	 */
+	static void decryptFile(FeistelCipher cipher, Path cipherText, RandomAccessFile plainTextFile,
+			FileProgress progress) throws IOException, IllegalArgumentException {
+		long length = Files.size(cipherText);
+		progress.start(length);
+		long start = CipherMetrics.jobStarted();
+		try {
+			// Big files are deciphered straight between memory-mapped regions.
+			if (length >= MAPPED_THRESHOLD && MappedFiles.decrypt(cipher, cipherText, plainTextFile, progress)) {
+				return;
+			}
 
-		// Write the deciphered result.
-		plainTextFile.seek(0);
-		plainTextFile.write(plainTextBytes);
-		plainTextFile.setLength(plainTextBytes.length);
+			try (InputStream cipherTextStream = open(cipherText, progress)) {
+				// Decode and decipher the text and write the result as it is produced.
+				plainTextFile.seek(0);
+				OutputStream plainTextStream = new BufferedOutputStream(outputStream(plainTextFile), BUFFER_SIZE);
+				decipher(cipher, cipherTextStream, plainTextStream);
+				plainTextStream.flush();
+				plainTextFile.setLength(plainTextFile.getFilePointer());
+			}
+		} catch (FileProgress.CancelledException e) {
+			// Leave no partial plain-text behind.
+			plainTextFile.setLength(0);
+			throw e;
+		} finally {
+			CipherMetrics.jobEnded(CipherMetrics.Operation.DECRYPT_FILE, start);
+		}
 	}
 
 	/**
@@ -164,19 +411,258 @@ public class Feistel {
 	 *             In case of base64 translation error
 	 */
 	static void encryptFile(RandomAccessFile cipherTextFile) throws IOException, IllegalArgumentException {
-		// Load the plain text from the files to the memory.
-		byte[] plainTextBytes = Files.readAllBytes(Paths.get(plainTextPath));
+		encryptFile(cipherTextFile, new FileProgress());
+	}
 
-		// Encrypt the text.
-		byte[] cipherTextBytes = encrypt(plainTextBytes, key);
+	/**
+	 * The function encrypt the plain-text file (see
+	 * <code>encryptFile(RandomAccessFile)</code>) and reports its progress
+	 * through the plain-text file.
+	 * 
+	 * @param cipherTextFile
+	 *            Stream to the cipher-text file.
+	 * @param progress
+	 *            The progress of the job, which may cancel it.
+	 * @throws IOException
+	 *             In case of error while read / write to file.
+	 * @throws FileProgress.CancelledException
+	 *             In case the job was cancelled, the cipher-text file is left
+	 *             empty then.
+	 * @throws IllegalArgumentException
+	 *             In case of base64 translation error
+	 */
+	static void encryptFile(RandomAccessFile cipherTextFile, FileProgress progress)
+			throws IOException, IllegalArgumentException {
+		encryptFile(FeistelCipher.forKey(key), mode, format, Paths.get(plainTextPath), cipherTextFile, progress);
+	}
 
-		// Convert the resulting byte to base64 text.
-		cipherTextBytes = Base64.getEncoder().encode(cipherTextBytes);
+	/**
+	 * The function encrypt the plain-text file and write it to the cipher-text
+	 * file
+	 * 
+	 * @param cipher
+	 *            The cipher to encrypt with.
+	 * @param mode
+	 *            The mode to chain the blocks with.
+	 * @param format
+	 *            The format to write the cipher-text file in.
+	 * @param plainText
+	 *            The path to the plain-text file.
+	 * @param cipherTextFile
+	 *            Stream to the cipher-text file.
+	 * @throws IOException
+	 *             In case of error while read / write to file.
+	 * @throws IllegalArgumentException
+	 *             In case of base64 translation error
+	 */
+	static void encryptFile(FeistelCipher cipher, CipherMode mode, FileFormat format, Path plainText,
+			RandomAccessFile cipherTextFile) throws IOException, IllegalArgumentException {
+		encryptFile(cipher, mode, format, plainText, cipherTextFile, new FileProgress());
+	}
 
-		// Write the encrypted result.
-		cipherTextFile.seek(0);
-		cipherTextFile.write(cipherTextBytes);
-		cipherTextFile.setLength(cipherTextBytes.length);
+	/**
+	 * The function encrypt the plain-text file (see
+	 * <code>encryptFile(FeistelCipher, CipherMode, FileFormat, Path, RandomAccessFile)</code>)
+	 * and reports its progress through the plain-text file.
+	 * 
+	 * @param cipher
+	 *            The cipher to encrypt with.
+	 * @param mode
+	 *            The mode to chain the blocks with.
+	 * @param format
+	 *            The format to write the cipher-text file in.
+	 * @param plainText
+	 *            The path to the plain-text file.
+	 * @param cipherTextFile
+	 *            Stream to the cipher-text file.
+	 * @param progress
+	 *            The progress of the job, which may cancel it.
+	 * @throws IOException
+	 *             In case of error while read / write to file.
+	 * @throws FileProgress.CancelledException
+	 *             In case the job was cancelled, the cipher-text file is left
+	 *             empty then.
+	 * @throws IllegalArgumentException
+	 *             In case of base64 translation error
+	 */
+	static void encryptFile(FeistelCipher cipher, CipherMode mode, FileFormat format, Path plainText,
+			RandomAccessFile cipherTextFile, FileProgress progress) throws IOException, IllegalArgumentException {
+		long length = Files.size(plainText);
+		progress.start(length);
+		long start = CipherMetrics.jobStarted();
+		try {
+			// Big files are encrypted straight between memory-mapped regions.
+			if (mode == CipherMode.CBC && format == FileFormat.BASE64 && length >= MAPPED_THRESHOLD) {
+				MappedFiles.encrypt(cipher, plainText, cipherTextFile, progress);
+				return;
+			}
+
+			try (InputStream plainTextStream = open(plainText, progress)) {
+				// Encrypt the text and write the result as it is produced.
+				cipherTextFile.seek(0);
+				OutputStream cipherTextStream = new BufferedOutputStream(outputStream(cipherTextFile), BUFFER_SIZE);
+				encrypt(cipher, mode, format, length, plainTextStream, cipherTextStream);
+				cipherTextStream.flush();
+				cipherTextFile.setLength(cipherTextFile.getFilePointer());
+			}
+		} catch (FileProgress.CancelledException e) {
+			// Leave no partial cipher-text behind.
+			cipherTextFile.setLength(0);
+			throw e;
+		} finally {
+			CipherMetrics.jobEnded(CipherMetrics.Operation.ENCRYPT_FILE, start);
+		}
+	}
+
+	/**
+	 * This method encrypts a plain-text stream into a cipher-text stream in
+	 * the given format and mode, the result is the content of a cipher-text
+	 * file. None of the streams is closed.
+	 * 
+	 * @param cipher
+	 *            The cipher to encrypt with.
+	 * @param mode
+	 *            The mode to chain the blocks with.
+	 * @param format
+	 *            The format to write the cipher-text in.
+	 * @param length
+	 *            The length of the plain-text.
+	 * @param plainTextStream
+	 *            The stream of the plain-text.
+	 * @param cipherTextStream
+	 *            The stream to write the cipher-text to.
+	 * @throws IOException
+	 *             In case of error while reading or writing.
+	 */
+	static void encrypt(FeistelCipher cipher, CipherMode mode, FileFormat format, long length,
+			InputStream plainTextStream, OutputStream cipherTextStream) throws IOException {
+		if (format == FileFormat.BINARY) {
+			// The binary files get a random IV / nonce of their own.
+			BinaryContainer.encrypt(cipher, mode, random.nextLong(), length, plainTextStream, cipherTextStream);
+		} else if (format == FileFormat.CHUNKED) {
+			ChunkedFile.encrypt(cipher, mode, ChunkedFile.DEFAULT_CHUNK_SIZE, length, plainTextStream,
+					cipherTextStream);
+		} else if (mode == CipherMode.CBC) {
+			cipher.encryptToBase64(plainTextStream, cipherTextStream);
+		} else {
+			cipherTextStream.write(CTR_MARKER);
+			cipher.ctrToBase64(plainTextStream, cipherTextStream, random.nextLong());
+		}
+	}
+
+	/**
+	 * This method deciphers a cipher-text file in the format and mode it was
+	 * written with, which are told by the magic bytes or the marker at its
+	 * start.
+	 * 
+	 * @param cipher
+	 *            The cipher to decipher with.
+	 * @param cipherTextStream
+	 *            A stream of the cipher-text file that supports mark.
+	 * @param plainTextStream
+	 *            The stream to write the plain-text to.
+	 * @throws IOException
+	 *             In case of error while read / write to file.
+	 * @throws IllegalArgumentException
+	 *             In case of base64 translation error
+	 */
+	static void decipher(FeistelCipher cipher, InputStream cipherTextStream, OutputStream plainTextStream)
+			throws IOException, IllegalArgumentException {
+		// Look for the magic bytes of the binary and chunked formats or the CTR marker.
+		byte[] marker = new byte[CTR_MARKER.length];
+		cipherTextStream.mark(marker.length);
+		int count = cipherTextStream.read(marker);
+
+		if (BinaryContainer.isContainer(marker, count)) {
+			cipherTextStream.reset();
+			BinaryContainer.decrypt(cipher, cipherTextStream, plainTextStream);
+		} else if (ChunkedFile.isChunked(marker, count)) {
+			cipherTextStream.reset();
+			ChunkedFile.decrypt(cipher, cipherTextStream, plainTextStream);
+		} else if (count == marker.length && Arrays.equals(marker, CTR_MARKER)) {
+			cipher.ctrFromBase64(cipherTextStream, plainTextStream);
+		} else {
+			cipherTextStream.reset();
+			cipher.decryptFromBase64(cipherTextStream, plainTextStream);
+		}
+	}
+
+	/**
+	 * Open a buffered stream to read the given file.
+	 */
+	private static InputStream open(Path path) throws IOException {
+		return new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE);
+	}
+
+	/**
+	 * Open a buffered stream to read the given file, which reports everything
+	 * that is read to the given progress.
+	 */
+	private static InputStream open(Path path, FileProgress progress) throws IOException {
+		return new BufferedInputStream(progress.track(Files.newInputStream(path)), BUFFER_SIZE);
+	}
+
+	/**
+	 * This method returns a stream that writes to the given file from its
+	 * current position, closing the stream doesn't close the file.
+	 */
+	private static OutputStream outputStream(final RandomAccessFile file) {
+		return new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				file.write(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				file.write(b, off, len);
+			}
+		};
+	}
+
+	/**
+	 * A stream that compares everything written to it with the bytes read from
+	 * another stream, used to verify a deciphered text without holding it. It
+	 * throws a <code>MismatchException</code> at the first difference, which
+	 * stops the deciphering.
+	 */
+	private static final class ComparingOutputStream extends OutputStream {
+		private final InputStream expected; // The stream to compare with.
+		private final byte[] buffer = new byte[BUFFER_SIZE];
+
+		ComparingOutputStream(InputStream expected) {
+			this.expected = expected;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				int count = expected.read(buffer, 0, Math.min(len, buffer.length));
+				if (count == -1) {
+					throw new MismatchException();
+				}
+
+				// Check if the deciphered bytes are the same as the plain text bytes.
+				if (Arrays.mismatch(buffer, 0, count, b, off, off + count) != -1) {
+					throw new MismatchException();
+				}
+				off += count;
+				len -= count;
+			}
+		}
+	}
+
+	/**
+	 * Thrown by <code>ComparingOutputStream</code> at the first byte that
+	 * differs.
+	 */
+	private static final class MismatchException extends IOException {
+		private static final long serialVersionUID = 1L;
 	}
 
 	/**
@@ -188,9 +674,17 @@ public class Feistel {
 	 */
 	private static byte[] twistBox(byte[] input) {
 		byte[] result = new byte[4];
+		twistBox(input, scratch.get().pieces, result);
+		return result;
+	}
 
+	/**
+	 * The twist-box (see <code>twistBox(byte[])</code>) into the given array,
+	 * the 3-bit pieces are split into the given working array.
+	 */
+	private static void twistBox(byte[] input, byte[] threeBitsPieces, byte[] result) {
 		// Splitting the array into 16 parts (bytes).
-		byte[] threeBitsPieces = CoreUtils.splitBytes(input, 16);
+		CoreUtils.splitBytes(input, 16, threeBitsPieces);
 
 		int whichBitToRemove;
 		for (int i = 0; i < 16; i++) {
@@ -218,7 +712,6 @@ public class Feistel {
 				break;
 			}
 		}
-		return result;
 	}
 
 	/**
@@ -246,17 +739,28 @@ public class Feistel {
 	 */
 
 	private static byte[] f_Function(byte[] R, byte[] key) {
-		byte[] result;
-		result = CoreUtils.permutation(R, E);
-		result = CoreUtils.xor(result, key);
-		result = twistBox(result);
-		result = CoreUtils.permutation(result, P);
+		byte[] result = new byte[P.length / 8];
+		f_Function(R, key, result, scratch.get());
 		return result;
 	}
 
+	/**
+	 * The round function (see <code>f_Function(byte[], byte[])</code>) into
+	 * the given array, every step writes into the working arrays of the
+	 * thread.
+	 */
+	private static void f_Function(byte[] R, byte[] key, byte[] result, Scratch s) {
+		CoreUtils.permutation(R, E, s.expanded);
+		CoreUtils.xor(s.expanded, key, s.expanded);
+		twistBox(s.expanded, s.pieces, s.twisted);
+		CoreUtils.permutation(s.twisted, P, result);
+	}
+
 	/**
 	 * The function encrypts/deciphers the given array of bytes with the given
-	 * sub-keys.
+	 * sub-keys. This is the bit-at-a-time reference implementation, the ciphers
+	 * use the word-packed <code>FeistelEngine</code> which gives the same
+	 * results.
 	 * 
 	 * @param block
 	 *            the 64-bit block that we want to handle
@@ -267,29 +771,72 @@ public class Feistel {
 	 *            decrypt (<code>true</code>).
 	 * @return
 	 */
-	private static byte[] blockEncryptDecrypt(byte[] block, byte[][] subkeys, boolean isDecrypt) {
+	static byte[] blockEncryptDecrypt(byte[] block, byte[][] subkeys, boolean isDecrypt) {
 		byte[] result = new byte[block.length];
-		byte[] R = new byte[block.length / 2];
-		byte[] L = new byte[block.length / 2];
+		blockEncryptDecrypt(block, subkeys, isDecrypt, result);
+		return result;
+	}
+
+	/**
+	 * The function encrypts/deciphers the given block into the given array
+	 * (see <code>blockEncryptDecrypt(byte[], byte[][], boolean)</code>). The
+	 * rounds run in the working arrays of the thread, so nothing is
+	 * allocated.
+	 * 
+	 * @param block
+	 *            the 64-bit block that we want to handle
+	 * @param subkeys
+	 *            the 16, 48-bit, generated sub-keys.
+	 * @param isDecrypt
+	 *            decide whether we want to encrypt (<code>false</code>) or
+	 *            decrypt (<code>true</code>).
+	 * @param output
+	 *            The array to write the 64-bit result to, it may be the
+	 *            block itself.
+	 */
+	static void blockEncryptDecrypt(byte[] block, byte[][] subkeys, boolean isDecrypt, byte[] output) {
+		Scratch s = scratch.get();
+		byte[] L = s.left;
+		byte[] R = s.right;
+		byte[] next = s.next;
 
-		result = CoreUtils.permutation(block, IP);
-		L = CoreUtils.getBits(result, 0, IP.length / 2);
-		R = CoreUtils.getBits(result, IP.length / 2, IP.length / 2);
+		CoreUtils.permutation(block, IP, s.permuted);
+		CoreUtils.getBits(s.permuted, 0, IP.length / 2, L);
+		CoreUtils.getBits(s.permuted, IP.length / 2, IP.length / 2, R);
 
 		/**
 		 * Since this is a symmetric cipher all we need to do is change the
 		 * order of the sub-keys to change encryption to decyption.
 		 */
 		for (int i = 0; i < 16; i++) {
-			byte[] tmpR = R;
-			R = f_Function(R, (isDecrypt) ? subkeys[15 - i] : subkeys[i]);
-			R = CoreUtils.xor(L, R);
-			L = tmpR;
+			f_Function(R, (isDecrypt) ? subkeys[15 - i] : subkeys[i], s.f, s);
+			CoreUtils.xor(L, s.f, next);
+
+			// The right half becomes the left one, the array of the left half is reused.
+			byte[] tmpL = L;
+			L = R;
+			R = next;
+			next = tmpL;
 		}
 
-		result = CoreUtils.concatenateBits(R, IP.length / 2, L, IP.length / 2);
-		result = CoreUtils.permutation(result, IPinverse);
-		return result;
+		CoreUtils.concatenateBits(R, IP.length / 2, L, IP.length / 2, s.permuted);
+		CoreUtils.permutation(s.permuted, IPinverse, output);
+	}
+
+	/**
+	 * The Scratch class holds the working arrays of the reference block
+	 * function for a single thread, every step of a round writes into one of
+	 * them.
+	 */
+	private static final class Scratch {
+		final byte[] permuted = new byte[8]; // The block after the initial permutation.
+		final byte[] left = new byte[4]; // The left half.
+		final byte[] right = new byte[4]; // The right half.
+		final byte[] next = new byte[4]; // The next right half.
+		final byte[] expanded = new byte[6]; // The expanded right half, xor'ed with the sub-key.
+		final byte[] pieces = new byte[16]; // The 3-bit pieces of the twist-box.
+		final byte[] twisted = new byte[4]; // The output of the twist-box.
+		final byte[] f = new byte[4]; // The output of the round function.
 	}
 
 	/**
@@ -304,51 +851,7 @@ public class Feistel {
 	 */
 
 	public static byte[] encrypt(byte[] input, byte[] key) {
-		// Initializing variables.
-		byte[] iv = "UUUUUUUU".getBytes(); // IV to be of the form: 010101....
-		int length = 8 - input.length % 8;
-		byte[] result = new byte[input.length + length]; // The result array.
-		byte[] curBlock = new byte[8]; // The current block
-		byte[] padding = new byte[8 - input.length % 8]; // The padding bytes.
-		padding[0] = (byte) 0x80;
-		int i;
-		for (i = 1; i < length; i++) {
-			padding[i] = 0;
-		}
-
-		// Generating 16 sub-keys from the master 54-bit master key.
-		subKeys = CoreUtils.subKeysGenerator(key, PC1, PC2, keyShift);
-
-		// Filling each block.
-		int count = 0;
-		for (i = 0; i < input.length + length; i++) {
-			if (i > 0 && i % 8 == 0) {
-
-				// Xor'ing the current block with the iv.
-				curBlock = CoreUtils.xor(curBlock, iv);
-
-				// updating the iv value for the next block in the chain.
-				iv = blockEncryptDecrypt(curBlock, subKeys, false);
-
-				// Decipher the block.
-				curBlock = blockEncryptDecrypt(curBlock, subKeys, false);
-				System.arraycopy(curBlock, 0, result, i - 8, curBlock.length);
-			}
-
-			// Construct the block bit at a time.
-			if (i < input.length) {
-				curBlock[i % 8] = input[i];
-			} else {
-				curBlock[i % 8] = padding[count % 8];
-				count++;
-			}
-		}
-
-		// Handle the last block.
-		curBlock = CoreUtils.xor(curBlock, iv);
-		curBlock = blockEncryptDecrypt(curBlock, subKeys, false);
-		System.arraycopy(curBlock, 0, result, i - 8, curBlock.length);
-		return result;
+		return FeistelCipher.forKey(key).encrypt(input);
 	}
 
 	/**
@@ -360,43 +863,10 @@ public class Feistel {
 	 * @param key
 	 *            The 56-bit master key (7-byte array) to use while decoding.
 	 * @return The decoded text in a byte array.
+	 * @throws IllegalArgumentException
+	 *             In case the input isn't made of whole 64-bit blocks.
 	 */
 	public static byte[] decrypt(byte[] input, byte[] key) {
-		// Initializing variables.
-		byte[] iv = "UUUUUUUU".getBytes(); // initial iv = 010101....
-		byte[] result = new byte[input.length];// The result array.
-		byte[] cipherTextBlock = new byte[8]; // The current cipher-block
-		byte[] curBlock = new byte[8];// The current block
-		int i;
-
-		// Generating 16 sub-keys from the master 54-bit master key.
-		subKeys = CoreUtils.subKeysGenerator(key, PC1, PC2, keyShift);
-
-		// Filling each block.
-		for (i = 0; i < input.length; i++) {
-			if (i > 0 && i % 8 == 0) {
-				cipherTextBlock = curBlock;
-
-				// Decipher the block.
-				curBlock = blockEncryptDecrypt(curBlock, subKeys, true);
-
-				// Xor'ing the current block with the iv.
-				curBlock = CoreUtils.xor(curBlock, iv);
-
-				// updating the iv value for the next block in the chain.
-				iv = cipherTextBlock;
-				System.arraycopy(curBlock, 0, result, i - 8, curBlock.length);
-			}
-
-			// Construct the block bit at a time.
-			if (i < input.length)
-				curBlock[i % 8] = input[i];
-		}
-		// Handle the last block.
-		curBlock = blockEncryptDecrypt(curBlock, subKeys, true);
-		curBlock = CoreUtils.xor(curBlock, iv);
-		System.arraycopy(curBlock, 0, result, i - 8, curBlock.length);
-		result = CoreUtils.removePadding(result);
-		return result;
+		return FeistelCipher.forKey(key).decrypt(input);
 	}
 }
@@ -0,0 +1,487 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The FeistelBatch class is the headless entry point for running many file
+ * jobs at once, from scripts and cron jobs. It never loads Swing: the results
+ * are told by the exit code and by a JSON summary on the standard output (or
+ * in a file).
+ *
+ * <pre>
+ * java FeistelBatch [-threads N] [-virtual] [-summary FILE] (MANIFEST | DIRECTORY)
+ * </pre>
+ *
+ * A manifest is a text file with a job on each line, its fields separated by
+ * tabs: the action, the plain-text file, the cipher-text file and the key
+ * file. Relative paths are taken from the directory of the manifest, empty
+ * lines and lines starting with '#' are skipped. A directory holds a job in
+ * each of its sub-directories, in the layout of the automatic runner of the
+ * GUI: "p.txt", "c.txt", "k.txt" and "config.txt", whose first line is the
+ * action. The actions are the ones of the automatic runner: encrypt,
+ * encrypt-ctr, encrypt-binary, encrypt-ctr-binary, encrypt-chunked,
+ * encrypt-ctr-chunked, decrypt and verify.
+ *
+ * By default every job runs on a pool of N threads. With "-virtual" every job
+ * runs on a virtual thread of its own and only the cipher work goes through a
+ * pool of N threads (see <code>FilePipeline</code>), which is faster for many
+ * small files. The files per second, the headline of a run, is also written
+ * to the standard error.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+public final class FeistelBatch {
+	// The exit codes.
+	static final int EXIT_OK = 0; // All the jobs succeeded.
+	static final int EXIT_VERIFY_FAILED = 1; // Some files didn't verify, no job had an error.
+	static final int EXIT_ERROR = 2; // Some jobs had an error.
+	static final int EXIT_USAGE = 64; // The command line or the manifest is wrong.
+
+	private static final int KEY_SIZE = 56; // The bytes read from a key file.
+	private static final String PLAIN_TEXT_FILE = "p.txt";
+	private static final String CIPHER_TEXT_FILE = "c.txt";
+	private static final String KEY_FILE = "k.txt";
+	private static final String CONFIG_FILE = "config.txt";
+
+	private FeistelBatch() {
+	}
+
+	public static void main(String[] args) {
+		CipherMetrics.register();
+		System.exit(run(args, System.out, System.err));
+	}
+
+	/**
+	 * This function runs the batch that the given command line describes.
+	 *
+	 * @param args
+	 *            The command line.
+	 * @param out
+	 *            The stream to write the summary to, unless a file is given.
+	 * @param err
+	 *            The stream to write the usage and fatal errors to.
+	 * @return The exit code.
+	 */
+	static int run(String[] args, PrintStream out, PrintStream err) {
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean isVirtual = false;
+		Path summaryPath = null;
+		Path source = null;
+
+		// Read the options.
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-threads") && i + 1 < args.length) {
+					threads = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-virtual")) {
+					isVirtual = true;
+				} else if (args[i].equals("-summary") && i + 1 < args.length) {
+					summaryPath = Paths.get(args[++i]);
+				} else if (source == null && !args[i].startsWith("-")) {
+					source = Paths.get(args[i]);
+				} else {
+					throw new IllegalArgumentException("Unknown argument " + args[i]);
+				}
+			}
+			if (source == null || threads < 1) {
+				throw new IllegalArgumentException("Missing manifest or directory");
+			}
+		} catch (IllegalArgumentException e) {
+			err.println("[Error] " + e.getMessage());
+			err.println("Usage: java FeistelBatch [-threads N] [-virtual] [-summary FILE] (MANIFEST | DIRECTORY)");
+			return EXIT_USAGE;
+		}
+
+		List<Job> jobs;
+		try {
+			jobs = Files.isDirectory(source) ? readDirectory(source) : readManifest(source);
+		} catch (IOException | IllegalArgumentException e) {
+			err.println("[Error] Can't read the jobs of " + source + ": " + e.getMessage());
+			return EXIT_USAGE;
+		}
+
+		// Run all the jobs and write the summary.
+		long start = System.nanoTime();
+		String executor;
+		if (isVirtual) {
+			try (FilePipeline pipeline = new FilePipeline(threads)) {
+				executor = pipeline.isVirtual() ? "virtual" : "platform";
+				for (Job job : jobs) {
+					job.pipeline = pipeline;
+				}
+				runAll(jobs, pipeline.jobs());
+			}
+		} else {
+			executor = "pool";
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+			try {
+				runAll(jobs, pool);
+			} finally {
+				pool.shutdown();
+			}
+		}
+		long nanos = System.nanoTime() - start;
+		String summary = summary(jobs, threads, executor, nanos);
+		err.println(String.format("%d files in %.3f s: %.1f files/sec", jobs.size(), nanos / 1e9,
+				filesPerSecond(jobs.size(), nanos)));
+
+		try {
+			if (summaryPath == null) {
+				out.println(summary);
+			} else {
+				Files.write(summaryPath, summary.getBytes(StandardCharsets.UTF_8));
+			}
+		} catch (IOException e) {
+			err.println("[Error] Can't write the summary: " + e.getMessage());
+			return EXIT_ERROR;
+		}
+		return exitCode(jobs);
+	}
+
+	/**
+	 * This function runs all the jobs on the given pool and waits for them,
+	 * the result of every job is kept in it.
+	 *
+	 * @param jobs
+	 *            The jobs to run.
+	 * @param pool
+	 *            The pool to run them on.
+	 */
+	static void runAll(List<Job> jobs, ExecutorService pool) {
+		List<Future<?>> futures = new ArrayList<Future<?>>(jobs.size());
+		for (Job job : jobs) {
+			futures.add(pool.submit(job));
+		}
+
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				// A job keeps its own errors, nothing should get here.
+			}
+		}
+	}
+
+	/**
+	 * This function returns the exit code for the results of the given jobs.
+	 */
+	static int exitCode(List<Job> jobs) {
+		int code = EXIT_OK;
+		for (Job job : jobs) {
+			if (job.status == Status.ERROR || job.status == Status.PENDING) {
+				return EXIT_ERROR;
+			}
+			if (job.status == Status.FAILED) {
+				code = EXIT_VERIFY_FAILED;
+			}
+		}
+		return code;
+	}
+
+	/**
+	 * This function reads the jobs of a manifest file.
+	 *
+	 * @param manifest
+	 *            The path to the manifest.
+	 * @return The jobs, in the order of their lines.
+	 * @throws IOException
+	 *             In case of error while reading the manifest.
+	 * @throws IllegalArgumentException
+	 *             In case a line isn't a valid job.
+	 */
+	static List<Job> readManifest(Path manifest) throws IOException, IllegalArgumentException {
+		Path base = manifest.toAbsolutePath().getParent();
+		List<Job> jobs = new ArrayList<Job>();
+		int lineNumber = 0;
+
+		for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+			lineNumber++;
+			if (line.trim().isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+
+			String[] fields = line.split("\t");
+			if (fields.length != 4) {
+				throw new IllegalArgumentException("Line " + lineNumber + " must have 4 tab separated fields");
+			}
+			jobs.add(new Job(Action.of(fields[0].trim()), base.resolve(fields[1]), base.resolve(fields[2]),
+					base.resolve(fields[3])));
+		}
+		return jobs;
+	}
+
+	/**
+	 * This function reads the jobs of a directory, one of every sub-directory
+	 * that holds a configuration file.
+	 *
+	 * @param directory
+	 *            The path to the directory.
+	 * @return The jobs, in the order of their directory names.
+	 * @throws IOException
+	 *             In case of error while reading the directory.
+	 * @throws IllegalArgumentException
+	 *             In case a configuration file holds an unknown action.
+	 */
+	static List<Job> readDirectory(Path directory) throws IOException, IllegalArgumentException {
+		List<Path> sets = new ArrayList<Path>();
+		try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+			for (Path child : children) {
+				if (Files.isRegularFile(child.resolve(CONFIG_FILE))) {
+					sets.add(child);
+				}
+			}
+		}
+		Collections.sort(sets);
+
+		List<Job> jobs = new ArrayList<Job>();
+		for (Path set : sets) {
+			List<String> config = Files.readAllLines(set.resolve(CONFIG_FILE), StandardCharsets.UTF_8);
+			String action = config.isEmpty() ? "" : config.get(0).trim().toLowerCase();
+			jobs.add(new Job(Action.of(action), set.resolve(PLAIN_TEXT_FILE), set.resolve(CIPHER_TEXT_FILE),
+					set.resolve(KEY_FILE)));
+		}
+		return jobs;
+	}
+
+	/**
+	 * This function reads a key file the way the automatic runner does: its
+	 * first bytes, padded with zeros.
+	 */
+	static byte[] readKey(Path keyFile) throws IOException {
+		byte[] key = new byte[KEY_SIZE];
+		try (InputStream input = Files.newInputStream(keyFile)) {
+			int count = 0;
+			int read;
+			while (count < KEY_SIZE && (read = input.read(key, count, KEY_SIZE - count)) != -1) {
+				count += read;
+			}
+		}
+		return key;
+	}
+
+	/**
+	 * This function returns the number of files per second of a run.
+	 */
+	static double filesPerSecond(int files, long nanos) {
+		return files / Math.max(nanos / 1e9, 1e-9);
+	}
+
+	/**
+	 * This function returns the JSON summary of the given jobs.
+	 *
+	 * @param jobs
+	 *            The jobs that were run.
+	 * @param threads
+	 *            The number of threads they were run on, or that did their
+	 *            cipher work.
+	 * @param executor
+	 *            What the jobs ran on: "pool", "virtual" or "platform" (in
+	 *            case the virtual threads weren't available).
+	 * @param nanos
+	 *            The time it took to run them all.
+	 * @return The JSON text.
+	 */
+	static String summary(List<Job> jobs, int threads, String executor, long nanos) {
+		int[] counts = new int[Status.values().length];
+		for (Job job : jobs) {
+			counts[job.status.ordinal()]++;
+		}
+		double seconds = nanos / 1e9;
+
+		StringBuilder json = new StringBuilder();
+		json.append("{\"jobs\":").append(jobs.size());
+		json.append(",\"filesPerSecond\":").append(String.format("%.1f", filesPerSecond(jobs.size(), nanos)));
+		json.append(",\"ok\":").append(counts[Status.OK.ordinal()]);
+		json.append(",\"failed\":").append(counts[Status.FAILED.ordinal()]);
+		json.append(",\"errors\":").append(counts[Status.ERROR.ordinal()]);
+		json.append(",\"executor\":").append(quote(executor));
+		json.append(",\"threads\":").append(threads);
+		json.append(",\"seconds\":").append(String.format("%.3f", seconds));
+		json.append(",\"results\":[");
+		for (int i = 0; i < jobs.size(); i++) {
+			Job job = jobs.get(i);
+			json.append((i == 0) ? "" : ",");
+			json.append("{\"action\":").append(quote(job.action.name));
+			json.append(",\"plainText\":").append(quote(job.plainText.toString()));
+			json.append(",\"cipherText\":").append(quote(job.cipherText.toString()));
+			json.append(",\"status\":").append(quote(job.status.name().toLowerCase()));
+			json.append(",\"millis\":").append(job.nanos / 1000000);
+			if (job.error != null) {
+				json.append(",\"error\":").append(quote(job.error));
+			}
+			json.append("}");
+		}
+		return json.append("]}").toString();
+	}
+
+	/**
+	 * Quote the given text as a JSON string.
+	 */
+	private static String quote(String text) {
+		StringBuilder result = new StringBuilder("\"");
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '"' || c == '\\') {
+				result.append('\\').append(c);
+			} else if (c < 0x20) {
+				result.append(String.format("\\u%04x", (int) c));
+			} else {
+				result.append(c);
+			}
+		}
+		return result.append('"').toString();
+	}
+
+	/**
+	 * The actions of a job, named as in the configuration files of the
+	 * automatic runner.
+	 */
+	enum Action {
+		ENCRYPT("encrypt", CipherMode.CBC, FileFormat.BASE64),
+		ENCRYPT_CTR("encrypt-ctr", CipherMode.CTR, FileFormat.BASE64),
+		ENCRYPT_BINARY("encrypt-binary", CipherMode.CBC, FileFormat.BINARY),
+		ENCRYPT_CTR_BINARY("encrypt-ctr-binary", CipherMode.CTR, FileFormat.BINARY),
+		ENCRYPT_CHUNKED("encrypt-chunked", CipherMode.CBC, FileFormat.CHUNKED),
+		ENCRYPT_CTR_CHUNKED("encrypt-ctr-chunked", CipherMode.CTR, FileFormat.CHUNKED),
+		DECRYPT("decrypt", null, null),
+		VERIFY("verify", null, null);
+
+		final String name; // The name in the configuration files.
+		final CipherMode mode; // The mode to encrypt with.
+		final FileFormat format; // The format to write the cipher-text in.
+
+		Action(String name, CipherMode mode, FileFormat format) {
+			this.name = name;
+			this.mode = mode;
+			this.format = format;
+		}
+
+		/**
+		 * This function returns the action of the given name.
+		 *
+		 * @throws IllegalArgumentException
+		 *             In case there is no such action.
+		 */
+		static Action of(String name) throws IllegalArgumentException {
+			for (Action action : values()) {
+				if (action.name.equals(name)) {
+					return action;
+				}
+			}
+			throw new IllegalArgumentException("Unknown action \"" + name + "\", expected one of "
+					+ Arrays.toString(values()).toLowerCase().replace('_', '-'));
+		}
+	}
+
+	/**
+	 * The outcome of a job.
+	 */
+	enum Status {
+		PENDING, OK, FAILED, ERROR
+	}
+
+	/**
+	 * The Job class is a single file job and its result. Every job builds its
+	 * own cipher and opens only the file it writes to, so any number of jobs
+	 * can run at once.
+	 */
+	static final class Job implements Runnable {
+		final Action action; // What to do.
+		final Path plainText; // The path to the plain-text file.
+		final Path cipherText; // The path to the cipher-text file.
+		final Path key; // The path to the key file.
+		volatile Status status = Status.PENDING; // The outcome of the job.
+		volatile String error; // The error the job ended with, if any.
+		volatile long nanos; // The time the job took.
+		FilePipeline pipeline; // The pipeline to do the cipher work on, null to do it on the job's thread.
+
+		Job(Action action, Path plainText, Path cipherText, Path key) {
+			this.action = action;
+			this.plainText = plainText;
+			this.cipherText = cipherText;
+			this.key = key;
+		}
+
+		@Override
+		public void run() {
+			long start = System.nanoTime();
+			try {
+				status = execute(FeistelCipher.forKey(readKey(key))) ? Status.OK : Status.FAILED;
+			} catch (IOException | RuntimeException e) {
+				error = e.getClass().getSimpleName() + ((e.getMessage() == null) ? "" : ": " + e.getMessage());
+				status = Status.ERROR;
+			} finally {
+				nanos = System.nanoTime() - start;
+			}
+		}
+
+		/**
+		 * This function runs the action with the given cipher.
+		 *
+		 * @return Whether or not the job succeeded, only a verification can
+		 *         fail.
+		 */
+		boolean execute(FeistelCipher cipher) throws IOException {
+			if (pipeline != null) {
+				return execute(cipher, pipeline);
+			}
+
+			switch (action) {
+			case DECRYPT:
+				try (RandomAccessFile plainTextFile = new RandomAccessFile(plainText.toFile(), "rw")) {
+					Feistel.decryptFile(cipher, cipherText, plainTextFile);
+				}
+				return true;
+
+			case VERIFY:
+				return Feistel.verify(cipher, plainText, cipherText);
+
+			default:
+				try (RandomAccessFile cipherTextFile = new RandomAccessFile(cipherText.toFile(), "rw")) {
+					Feistel.encryptFile(cipher, action.mode, action.format, plainText, cipherTextFile);
+				}
+				return true;
+			}
+		}
+
+		/**
+		 * This function runs the action with the given cipher on the given
+		 * pipeline, the files are the same as <code>execute</code> writes.
+		 */
+		private boolean execute(FeistelCipher cipher, FilePipeline pipeline) throws IOException {
+			switch (action) {
+			case DECRYPT:
+				pipeline.decryptFile(cipher, cipherText, plainText);
+				return true;
+
+			case VERIFY:
+				return pipeline.verify(cipher, plainText, cipherText);
+
+			default:
+				pipeline.encryptFile(cipher, action.mode, action.format, plainText, cipherText);
+				return true;
+			}
+		}
+	}
+}
@@ -0,0 +1,1131 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The FeistelCipher class is an immutable instance of the Feistel cipher, it
+ * is built once from a master key and holds its sub-keys. It never writes to
+ * any shared state, so any number of threads can use the same instance to
+ * encrypt and decrypt at the same time.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+public final class FeistelCipher {
+	static final int BUFFER_SIZE = 64 * 1024; // The size of the stream buffers.
+	static final int PARALLEL_THRESHOLD = 256 * 1024; // Smaller inputs are handled serially.
+	private static final int PARALLEL_CHUNK_BLOCKS = 4 * 1024; // The blocks of a single task.
+	private static final int CTR_BUFFER_SIZE = 4 * 1024 * 1024; // Big enough to split between cores.
+	private static final int SLICED_MIN_BLOCKS = 24; // Fewer blocks are faster one by one.
+	private final long[] subKeys; // The 16 sub-keys, never modified.
+
+	/**
+	 * A batch of blocks for every thread, the batch functions convert bytes
+	 * into it so they don't allocate.
+	 */
+	private static final ThreadLocal<long[]> batch = ThreadLocal.withInitial(() -> new long[BatchEngines.BEST.lanes()]);
+
+	/**
+	 * Create a cipher for the given master key.
+	 *
+	 * @param key
+	 *            The master key, only its first 8 bytes are used.
+	 * @throws IllegalArgumentException
+	 *             In case the key is shorter than 64 bits.
+	 */
+	public FeistelCipher(byte[] key) {
+		this(FeistelEngine.subKeysGenerator(key));
+	}
+
+	private FeistelCipher(long[] subKeys) {
+		this.subKeys = subKeys;
+	}
+
+	/**
+	 * This function returns a cipher for the given master key, the sub-keys
+	 * are taken from the shared <code>KeyScheduleCache</code>.
+	 *
+	 * @param key
+	 *            The master key, only its first 8 bytes are used.
+	 * @return The cipher of the key.
+	 * @throws IllegalArgumentException
+	 *             In case the key is shorter than 64 bits.
+	 */
+	public static FeistelCipher forKey(byte[] key) {
+		return new FeistelCipher(KeyScheduleCache.SHARED.subKeys(key));
+	}
+
+	/**
+	 * The function encrypts a single 64-bit block.
+	 *
+	 * @param block
+	 *            The block to encrypt.
+	 * @return The encrypted block.
+	 */
+	long encryptBlock(long block) {
+		return FeistelEngine.blockEncryptDecrypt(block, subKeys, false);
+	}
+
+	/**
+	 * The function deciphers a single 64-bit block.
+	 *
+	 * @param block
+	 *            The block to decipher.
+	 * @return The deciphered block.
+	 */
+	long decryptBlock(long block) {
+		return FeistelEngine.blockEncryptDecrypt(block, subKeys, true);
+	}
+
+	/**
+	 * The function encrypts/deciphers independent blocks in place. Whole
+	 * batches go through the fastest <code>BatchEngine</code> (see
+	 * <code>BatchEngines</code>), groups of the rest go through the
+	 * <code>BitslicedEngine</code>, 64 at once, and the few that are left are
+	 * handled one by one.
+	 *
+	 * @param blocks
+	 *            The array holding the 64-bit blocks.
+	 * @param offset
+	 *            The index of the first block.
+	 * @param count
+	 *            The number of blocks.
+	 * @param isDecrypt
+	 *            decide whether we want to encrypt (<code>false</code>) or
+	 *            decrypt (<code>true</code>).
+	 */
+	void encryptDecryptBlocks(long[] blocks, int offset, int count, boolean isDecrypt) {
+		int end = offset + count;
+		BatchEngine engine = BatchEngines.BEST;
+		for (; end - offset >= engine.lanes(); offset += engine.lanes()) {
+			engine.blockEncryptDecrypt(blocks, offset, engine.lanes(), subKeys, isDecrypt);
+		}
+		for (; end - offset >= SLICED_MIN_BLOCKS; offset += BitslicedEngine.LANES) {
+			int lanes = Math.min(BitslicedEngine.LANES, end - offset);
+			BitslicedEngine.blockEncryptDecrypt(blocks, offset, lanes, subKeys, isDecrypt);
+		}
+		for (; offset < end; offset++) {
+			blocks[offset] = FeistelEngine.blockEncryptDecrypt(blocks[offset], subKeys, isDecrypt);
+		}
+	}
+
+	/**
+	 * The function encrypts independent 64-bit blocks, with no chaining and
+	 * no padding. The output may be the input itself. Nothing is allocated.
+	 *
+	 * @param input
+	 *            The array holding the blocks.
+	 * @param offset
+	 *            The index of the first block.
+	 * @param output
+	 *            The array to write the encrypted blocks to.
+	 * @param outputOffset
+	 *            The index to start writing at.
+	 * @param count
+	 *            The number of blocks.
+	 */
+	public void encryptBlocks(long[] input, int offset, long[] output, int outputOffset, int count) {
+		CipherMetrics.processed(CipherMetrics.Mode.ECB, count * 8L);
+		System.arraycopy(input, offset, output, outputOffset, count);
+		encryptDecryptBlocks(output, outputOffset, count, false);
+	}
+
+	/**
+	 * The function deciphers independent 64-bit blocks, see
+	 * <code>encryptBlocks(long[], int, long[], int, int)</code>.
+	 *
+	 * @param input
+	 *            The array holding the blocks.
+	 * @param offset
+	 *            The index of the first block.
+	 * @param output
+	 *            The array to write the deciphered blocks to.
+	 * @param outputOffset
+	 *            The index to start writing at.
+	 * @param count
+	 *            The number of blocks.
+	 */
+	public void decryptBlocks(long[] input, int offset, long[] output, int outputOffset, int count) {
+		CipherMetrics.processed(CipherMetrics.Mode.ECB, count * 8L);
+		System.arraycopy(input, offset, output, outputOffset, count);
+		encryptDecryptBlocks(output, outputOffset, count, true);
+	}
+
+	/**
+	 * The function encrypts 64-bit blocks using CBC, with no padding. The
+	 * returned chaining value is the IV to continue the chain with in the
+	 * next call. The output may be the input itself. Nothing is allocated.
+	 *
+	 * @param input
+	 *            The array holding the blocks.
+	 * @param offset
+	 *            The index of the first block.
+	 * @param output
+	 *            The array to write the encrypted blocks to.
+	 * @param outputOffset
+	 *            The index to start writing at.
+	 * @param count
+	 *            The number of blocks.
+	 * @param iv
+	 *            The initial vector, or the chaining value of the previous
+	 *            call.
+	 * @return The chaining value: the last cipher block.
+	 */
+	public long encryptCbc(long[] input, int offset, long[] output, int outputOffset, int count, long iv) {
+		CipherMetrics.processed(CipherMetrics.Mode.CBC, count * 8L);
+		for (int i = 0; i < count; i++) {
+			iv = encryptBlock(input[offset + i] ^ iv);
+			output[outputOffset + i] = iv;
+		}
+		return iv;
+	}
+
+	/**
+	 * The function deciphers 64-bit blocks using CBC, with no padding. The
+	 * blocks are deciphered in batches, since only the xor depends on the
+	 * previous block. The output may be the input itself. Nothing is
+	 * allocated.
+	 *
+	 * @param input
+	 *            The array holding the blocks.
+	 * @param offset
+	 *            The index of the first block.
+	 * @param output
+	 *            The array to write the deciphered blocks to.
+	 * @param outputOffset
+	 *            The index to start writing at.
+	 * @param count
+	 *            The number of blocks.
+	 * @param iv
+	 *            The initial vector, or the chaining value of the previous
+	 *            call.
+	 * @return The chaining value: the last cipher block.
+	 */
+	public long decryptCbc(long[] input, int offset, long[] output, int outputOffset, int count, long iv) {
+		CipherMetrics.processed(CipherMetrics.Mode.CBC, count * 8L);
+		long[] blocks = batch.get();
+
+		for (int first = 0; first < count; first += blocks.length) {
+			int length = Math.min(blocks.length, count - first);
+			System.arraycopy(input, offset + first, blocks, 0, length);
+			encryptDecryptBlocks(blocks, 0, length, true);
+
+			// Xor each block with the previous cipher block.
+			for (int j = 0; j < length; j++) {
+				long cipherTextBlock = input[offset + first + j];
+				output[outputOffset + first + j] = blocks[j] ^ iv;
+				iv = cipherTextBlock;
+			}
+		}
+		return iv;
+	}
+
+	/**
+	 * The function encrypts independent 64-bit blocks held as bytes, with no
+	 * chaining and no padding. The output may be the input itself. Nothing is
+	 * allocated.
+	 *
+	 * @param input
+	 *            The array holding the blocks.
+	 * @param offset
+	 *            The index of the first byte.
+	 * @param length
+	 *            The number of bytes, a multiple of 8.
+	 * @param output
+	 *            The array to write the encrypted blocks to.
+	 * @param outputOffset
+	 *            The index to start writing at.
+	 * @throws IllegalArgumentException
+	 *             In case the length isn't a whole number of blocks.
+	 */
+	public void encryptBlocks(byte[] input, int offset, int length, byte[] output, int outputOffset) {
+		encryptDecryptBlocks(input, offset, length, output, outputOffset, false);
+	}
+
+	/**
+	 * The function deciphers independent 64-bit blocks held as bytes, see
+	 * <code>encryptBlocks(byte[], int, int, byte[], int)</code>.
+	 *
+	 * @param input
+	 *            The array holding the blocks.
+	 * @param offset
+	 *            The index of the first byte.
+	 * @param length
+	 *            The number of bytes, a multiple of 8.
+	 * @param output
+	 *            The array to write the deciphered blocks to.
+	 * @param outputOffset
+	 *            The index to start writing at.
+	 * @throws IllegalArgumentException
+	 *             In case the length isn't a whole number of blocks.
+	 */
+	public void decryptBlocks(byte[] input, int offset, int length, byte[] output, int outputOffset) {
+		encryptDecryptBlocks(input, offset, length, output, outputOffset, true);
+	}
+
+	/**
+	 * Encrypt/decipher independent blocks held as bytes, a batch at a time.
+	 */
+	private void encryptDecryptBlocks(byte[] input, int offset, int length, byte[] output, int outputOffset,
+			boolean isDecrypt) {
+		checkBlocks(length);
+		CipherMetrics.processed(CipherMetrics.Mode.ECB, length);
+		long[] blocks = batch.get();
+
+		for (int first = 0; first < length; first += blocks.length * 8) {
+			int count = Math.min(blocks.length, (length - first) / 8);
+			for (int j = 0; j < count; j++) {
+				blocks[j] = CoreUtils.bytesToLong(input, offset + first + j * 8);
+			}
+			encryptDecryptBlocks(blocks, 0, count, isDecrypt);
+			for (int j = 0; j < count; j++) {
+				CoreUtils.longToBytes(blocks[j], output, outputOffset + first + j * 8);
+			}
+		}
+	}
+
+	/**
+	 * The function encrypts 64-bit blocks held as bytes using CBC, with no
+	 * padding, see <code>encryptCbc(long[], int, long[], int, int, long)</code>.
+	 *
+	 * @param input
+	 *            The array holding the blocks.
+	 * @param offset
+	 *            The index of the first byte.
+	 * @param length
+	 *            The number of bytes, a multiple of 8.
+	 * @param output
+	 *            The array to write the encrypted blocks to.
+	 * @param outputOffset
+	 *            The index to start writing at.
+	 * @param iv
+	 *            The initial vector, or the chaining value of the previous
+	 *            call.
+	 * @return The chaining value: the last cipher block.
+	 * @throws IllegalArgumentException
+	 *             In case the length isn't a whole number of blocks.
+	 */
+	public long encryptCbc(byte[] input, int offset, int length, byte[] output, int outputOffset, long iv) {
+		checkBlocks(length);
+		CipherMetrics.processed(CipherMetrics.Mode.CBC, length);
+
+		for (int i = 0; i < length; i += 8) {
+			iv = encryptBlock(CoreUtils.bytesToLong(input, offset + i) ^ iv);
+			CoreUtils.longToBytes(iv, output, outputOffset + i);
+		}
+		return iv;
+	}
+
+	/**
+	 * The function deciphers 64-bit blocks held as bytes using CBC, with no
+	 * padding, see <code>decryptCbc(long[], int, long[], int, int, long)</code>.
+	 *
+	 * @param input
+	 *            The array holding the blocks.
+	 * @param offset
+	 *            The index of the first byte.
+	 * @param length
+	 *            The number of bytes, a multiple of 8.
+	 * @param output
+	 *            The array to write the deciphered blocks to.
+	 * @param outputOffset
+	 *            The index to start writing at.
+	 * @param iv
+	 *            The initial vector, or the chaining value of the previous
+	 *            call.
+	 * @return The chaining value: the last cipher block.
+	 * @throws IllegalArgumentException
+	 *             In case the length isn't a whole number of blocks.
+	 */
+	public long decryptCbc(byte[] input, int offset, int length, byte[] output, int outputOffset, long iv) {
+		checkBlocks(length);
+		CipherMetrics.processed(CipherMetrics.Mode.CBC, length);
+		long[] blocks = batch.get();
+
+		for (int first = 0; first < length; first += blocks.length * 8) {
+			int count = Math.min(blocks.length, (length - first) / 8);
+			for (int j = 0; j < count; j++) {
+				blocks[j] = CoreUtils.bytesToLong(input, offset + first + j * 8);
+			}
+			encryptDecryptBlocks(blocks, 0, count, true);
+
+			// Xor each block with the previous cipher block.
+			for (int j = 0; j < count; j++) {
+				long cipherTextBlock = CoreUtils.bytesToLong(input, offset + first + j * 8);
+				CoreUtils.longToBytes(blocks[j] ^ iv, output, outputOffset + first + j * 8);
+				iv = cipherTextBlock;
+			}
+		}
+		return iv;
+	}
+
+	/**
+	 * The function encrypts 64-bit blocks using CBC, with no padding, from a
+	 * buffer into another (heap or direct), see
+	 * <code>encryptCbc(long[], int, long[], int, int, long)</code>. All the
+	 * remaining bytes of the input are encrypted and the positions of both
+	 * buffers are advanced. The blocks are read and written big-endian,
+	 * whatever the byte order of the buffers is. Nothing is allocated.
+	 *
+	 * @param input
+	 *            The buffer to read the blocks from.
+	 * @param output
+	 *            The buffer to write the encrypted blocks to.
+	 * @param iv
+	 *            The initial vector, or the chaining value of the previous
+	 *            call.
+	 * @return The chaining value: the last cipher block.
+	 * @throws IllegalArgumentException
+	 *             In case the input isn't a whole number of blocks.
+	 * @throws BufferOverflowException
+	 *             In case the output has no room for the result, nothing is
+	 *             consumed then.
+	 */
+	public long encryptCbc(ByteBuffer input, ByteBuffer output, long iv) {
+		checkBlocks(input.remaining());
+		if (output.remaining() < input.remaining()) {
+			throw new BufferOverflowException();
+		}
+		CipherMetrics.processed(CipherMetrics.Mode.CBC, input.remaining());
+
+		while (input.hasRemaining()) {
+			iv = encryptBlock(CoreUtils.getLong(input) ^ iv);
+			CoreUtils.putLong(iv, output);
+		}
+		return iv;
+	}
+
+	/**
+	 * The function deciphers 64-bit blocks using CBC, with no padding, from a
+	 * buffer into another (heap or direct), see
+	 * <code>decryptCbc(long[], int, long[], int, int, long)</code>. All the
+	 * remaining bytes of the input are deciphered and the positions of both
+	 * buffers are advanced. The blocks are read and written big-endian,
+	 * whatever the byte order of the buffers is. Nothing is allocated.
+	 *
+	 * @param input
+	 *            The buffer to read the blocks from.
+	 * @param output
+	 *            The buffer to write the deciphered blocks to.
+	 * @param iv
+	 *            The initial vector, or the chaining value of the previous
+	 *            call.
+	 * @return The chaining value: the last cipher block.
+	 * @throws IllegalArgumentException
+	 *             In case the input isn't a whole number of blocks.
+	 * @throws BufferOverflowException
+	 *             In case the output has no room for the result, nothing is
+	 *             consumed then.
+	 */
+	public long decryptCbc(ByteBuffer input, ByteBuffer output, long iv) {
+		checkBlocks(input.remaining());
+		if (output.remaining() < input.remaining()) {
+			throw new BufferOverflowException();
+		}
+		CipherMetrics.processed(CipherMetrics.Mode.CBC, input.remaining());
+		long[] blocks = batch.get();
+
+		while (input.hasRemaining()) {
+			int start = input.position();
+			int count = Math.min(blocks.length, input.remaining() / 8);
+			for (int j = 0; j < count; j++) {
+				blocks[j] = CoreUtils.getLong(input);
+			}
+			encryptDecryptBlocks(blocks, 0, count, true);
+
+			// Xor each block with the previous cipher block.
+			for (int j = 0; j < count; j++) {
+				long cipherTextBlock = CoreUtils.getLong(input, start + j * 8);
+				CoreUtils.putLong(blocks[j] ^ iv, output);
+				iv = cipherTextBlock;
+			}
+		}
+		return iv;
+	}
+
+	/**
+	 * Check that the given length is a whole number of blocks.
+	 */
+	private static void checkBlocks(int length) {
+		if (length % 8 != 0) {
+			throw new IllegalArgumentException("The length must be a whole number of 64-bit blocks");
+		}
+	}
+
+	/**
+	 * The function encrypts the given vector of bytes using CBC, the input is
+	 * padded with 0x80 followed by zeros up to a whole number of blocks.
+	 *
+	 * @param input
+	 *            The input byte array to encode.
+	 * @return The encoded text in a byte array.
+	 */
+	public byte[] encrypt(byte[] input) {
+		long start = CipherMetrics.start();
+
+		// Initializing variables.
+		long iv = Feistel.IV; // IV to be of the form: 010101....
+		int length = 8 - input.length % 8;
+		byte[] result = new byte[input.length + length]; // The result array.
+
+		// Copy the input and add the padding bytes: 0x80 followed by zeros.
+		System.arraycopy(input, 0, result, 0, input.length);
+		result[input.length] = (byte) 0x80;
+
+		// Encrypt each block, xor'ed with the previous cipher block.
+		encryptCbc(result, 0, result.length, result, 0, iv);
+		CipherMetrics.record(CipherMetrics.Operation.ENCRYPT, start);
+		return result;
+	}
+
+	/**
+	 * The function deciphers the given array of bytes using CBC and removes
+	 * the padding. Since every deciphered block depends only on its own
+	 * cipher block and the one before it, inputs of
+	 * <code>PARALLEL_THRESHOLD</code> bytes and more are split into chunks
+	 * that are deciphered on all the cores of the common fork/join pool.
+	 *
+	 * @param input
+	 *            The input byte array to decode.
+	 * @return The decoded text in a byte array.
+	 * @throws IllegalArgumentException
+	 *             In case the input isn't made of whole 64-bit blocks.
+	 */
+	public byte[] decrypt(byte[] input) {
+		if (input.length == 0 || input.length % 8 != 0) {
+			throw new IllegalArgumentException("The cipher-text must be made of whole 64-bit blocks");
+		}
+		long start = CipherMetrics.start();
+
+		byte[] result = new byte[input.length];// The result array.
+		if (input.length < PARALLEL_THRESHOLD) {
+			decryptRange(input, result, 0, input.length / 8);
+		} else {
+			ForkJoinPool.commonPool().invoke(new DecryptTask(input, result, 0, input.length / 8));
+		}
+
+		result = CoreUtils.removePadding(result);
+		CipherMetrics.record(CipherMetrics.Operation.DECRYPT, start);
+		return result;
+	}
+
+	/**
+	 * The function encrypts the remaining bytes of the input buffer using CBC
+	 * and writes the result to the output buffer, the result is the same as
+	 * <code>encrypt(byte[])</code> gives. The buffers may be heap or direct,
+	 * they are read and written in place and their positions are advanced.
+	 *
+	 * @param input
+	 *            The buffer to read the plain-text from.
+	 * @param output
+	 *            The buffer to write the cipher-text to, it must have room
+	 *            for the input padded to a whole number of blocks (1 to 8
+	 *            more bytes).
+	 * @return The number of bytes written.
+	 * @throws BufferOverflowException
+	 *             In case the output has no room for the result, nothing is
+	 *             consumed then.
+	 */
+	public int encrypt(ByteBuffer input, ByteBuffer output) {
+		if (output.remaining() < input.remaining() + 8 - input.remaining() % 8) {
+			throw new BufferOverflowException();
+		}
+
+		long start = CipherMetrics.start();
+		CbcEncryptor encryptor = new CbcEncryptor(this, Feistel.IV);
+		int written = encryptor.update(input, output);
+		written += encryptor.doFinal(output);
+		CipherMetrics.record(CipherMetrics.Operation.ENCRYPT, start);
+		return written;
+	}
+
+	/**
+	 * The function deciphers the remaining bytes of the input buffer using
+	 * CBC and writes the result, without the padding, to the output buffer.
+	 * The result is the same as <code>decrypt(byte[])</code> gives. The
+	 * buffers may be heap or direct, they are read and written in place and
+	 * their positions are advanced.
+	 *
+	 * @param input
+	 *            The buffer to read the cipher-text from.
+	 * @param output
+	 *            The buffer to write the plain-text to, it must have room
+	 *            for the plain-text (at most the input length minus 1).
+	 * @return The number of bytes written.
+	 * @throws IllegalArgumentException
+	 *             In case the input isn't made of whole 64-bit blocks, or its
+	 *             last block holds no padding.
+	 * @throws BufferOverflowException
+	 *             In case the output has no room for the result, nothing is
+	 *             consumed then.
+	 */
+	public int decrypt(ByteBuffer input, ByteBuffer output) {
+		if (input.remaining() == 0 || input.remaining() % 8 != 0) {
+			throw new IllegalArgumentException("The cipher-text must be made of whole 64-bit blocks");
+		}
+
+		// The length of the plain-text is known only at the end, so undo the reading if it doesn't fit.
+		int inputPosition = input.position();
+		int outputPosition = output.position();
+		try {
+			long start = CipherMetrics.start();
+			CbcDecryptor decryptor = new CbcDecryptor(this, Feistel.IV);
+			int written = decryptor.update(input, output);
+			written += decryptor.doFinal(output);
+			CipherMetrics.record(CipherMetrics.Operation.DECRYPT, start);
+			return written;
+		} catch (BufferOverflowException e) {
+			input.position(inputPosition);
+			output.position(outputPosition);
+			throw e;
+		}
+	}
+
+	/**
+	 * The function deciphers a range of blocks of a CBC cipher-text, each
+	 * block is xor'ed with the cipher block before it (or the IV).
+	 *
+	 * @param input
+	 *            The whole cipher-text.
+	 * @param result
+	 *            The array to write the deciphered blocks to.
+	 * @param from
+	 *            The index of the first block to decipher.
+	 * @param to
+	 *            The index after the last block to decipher.
+	 */
+	private void decryptRange(byte[] input, byte[] result, int from, int to) {
+		long iv = (from == 0) ? Feistel.IV : CoreUtils.bytesToLong(input, from * 8 - 8);
+		decryptCbc(input, from * 8, (to - from) * 8, result, from * 8, iv);
+	}
+
+	/**
+	 * A fork/join task that deciphers a range of blocks, it splits itself in
+	 * two until the range is small enough.
+	 */
+	private final class DecryptTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final byte[] input;
+		private final byte[] result;
+		private final int from;
+		private final int to;
+
+		DecryptTask(byte[] input, byte[] result, int from, int to) {
+			this.input = input;
+			this.result = result;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= PARALLEL_CHUNK_BLOCKS) {
+				decryptRange(input, result, from, to);
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new DecryptTask(input, result, from, middle), new DecryptTask(input, result, middle, to));
+			}
+		}
+	}
+
+	/**
+	 * The function encrypts or deciphers (it is the same operation) the given
+	 * bytes in counter mode: block number i is xor'ed with the encryption of
+	 * <code>nonce + i</code>. No padding is needed, the result has the length
+	 * of the input. Inputs of <code>PARALLEL_THRESHOLD</code> bytes and more
+	 * are split between all the cores of the common fork/join pool.
+	 *
+	 * @param input
+	 *            The input byte array.
+	 * @param nonce
+	 *            The counter of the first block, it must never be reused with
+	 *            the same key.
+	 * @return The result byte array.
+	 */
+	public byte[] ctr(byte[] input, long nonce) {
+		byte[] result = new byte[input.length];
+		ctr(input, 0, input.length, result, 0, nonce);
+		return result;
+	}
+
+	/**
+	 * The function handles a part of a counter mode text, see
+	 * <code>ctr(byte[], long)</code>. The output may be the input itself.
+	 *
+	 * @param input
+	 *            The array holding the input bytes.
+	 * @param offset
+	 *            The index of the first input byte, it must start a block of
+	 *            the text.
+	 * @param length
+	 *            The number of input bytes.
+	 * @param output
+	 *            The array to write the result to.
+	 * @param outputOffset
+	 *            The index to start writing at.
+	 * @param counter
+	 *            The counter of the first block.
+	 */
+	void ctr(byte[] input, int offset, int length, byte[] output, int outputOffset, long counter) {
+		CipherMetrics.processed(CipherMetrics.Mode.CTR, length);
+		if (length < PARALLEL_THRESHOLD) {
+			ctrBlocks(input, offset, length, output, outputOffset, counter);
+		} else {
+			ForkJoinPool.commonPool().invoke(new CtrTask(input, offset, length, output, outputOffset, counter));
+		}
+	}
+
+	/**
+	 * The function xor's a range of bytes with the encrypted counters, the
+	 * last block may be partial.
+	 */
+	private void ctrBlocks(byte[] input, int offset, int length, byte[] output, int outputOffset, long counter) {
+		long[] keyStream = batch.get();
+
+		for (int i = 0; i < length; i += keyStream.length * 8) {
+			// Encrypt a batch of counters.
+			int count = Math.min(keyStream.length, (length - i + 7) / 8);
+			for (int j = 0; j < count; j++) {
+				keyStream[j] = counter++;
+			}
+			encryptDecryptBlocks(keyStream, 0, count, false);
+
+			// Xor the whole blocks, and the last block which may be partial.
+			int j = 0;
+			for (; j < count && i + j * 8 + 8 <= length; j++) {
+				int index = i + j * 8;
+				long block = CoreUtils.bytesToLong(input, offset + index) ^ keyStream[j];
+				CoreUtils.longToBytes(block, output, outputOffset + index);
+			}
+			for (int index = i + j * 8; j < count && index < length; index++) {
+				long keyByte = keyStream[j] >>> (56 - 8 * (index & 7));
+				output[outputOffset + index] = (byte) (input[offset + index] ^ keyByte);
+			}
+		}
+	}
+
+	/**
+	 * A fork/join task that handles a range of a counter mode text, it splits
+	 * itself in two until the range is small enough.
+	 */
+	private final class CtrTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final byte[] input;
+		private final int offset;
+		private final int length;
+		private final byte[] output;
+		private final int outputOffset;
+		private final long counter;
+
+		CtrTask(byte[] input, int offset, int length, byte[] output, int outputOffset, long counter) {
+			this.input = input;
+			this.offset = offset;
+			this.length = length;
+			this.output = output;
+			this.outputOffset = outputOffset;
+			this.counter = counter;
+		}
+
+		@Override
+		protected void compute() {
+			if (length <= PARALLEL_CHUNK_BLOCKS * 8) {
+				ctrBlocks(input, offset, length, output, outputOffset, counter);
+			} else {
+				int half = length / 16 * 8;
+				invokeAll(new CtrTask(input, offset, half, output, outputOffset, counter), new CtrTask(input,
+						offset + half, length - half, output, outputOffset + half, counter + half / 8));
+			}
+		}
+	}
+
+	/**
+	 * The function encrypts or deciphers everything that is read from the
+	 * input stream in counter mode (see <code>ctr(byte[], long)</code>) and
+	 * writes it to the output stream. The input is read in big chunks which
+	 * are split between all the cores. None of the streams is closed.
+	 *
+	 * @param input
+	 *            The stream to read from.
+	 * @param output
+	 *            The stream to write the result to.
+	 * @param nonce
+	 *            The counter of the first block.
+	 * @return The number of bytes written.
+	 * @throws IOException
+	 *             In case of error while reading or writing.
+	 */
+	public long ctr(InputStream input, OutputStream output, long nonce) throws IOException {
+		byte[] buffer = new byte[CTR_BUFFER_SIZE];
+		long written = 0;
+		int count;
+
+		while ((count = readFully(input, buffer, 0, buffer.length)) > 0) {
+			ctr(buffer, 0, count, buffer, 0, nonce + written / 8);
+			output.write(buffer, 0, count);
+			written += count;
+		}
+		return written;
+	}
+
+	/**
+	 * The function encrypts everything that is read from the input stream in
+	 * counter mode and writes the base64 text of the nonce (8 bytes) followed
+	 * by the cipher-text to the output stream. None of the streams is closed.
+	 *
+	 * @param input
+	 *            The stream to read the plain-text from.
+	 * @param output
+	 *            The stream to write the base64 text to.
+	 * @param nonce
+	 *            The counter of the first block.
+	 * @return The number of characters written.
+	 * @throws IOException
+	 *             In case of error while reading or writing.
+	 */
+	public long ctrToBase64(InputStream input, OutputStream output, long nonce) throws IOException {
+		long start = CipherMetrics.start();
+		Base64Stage.Encoder encoder = new Base64Stage.Encoder();
+		byte[] buffer = new byte[CTR_BUFFER_SIZE];
+		byte[] text = new byte[(int) Base64Stage.encodedLength(buffer.length + 2)];
+		long written;
+		long length = 0;
+		int count;
+
+		// The nonce comes first.
+		CoreUtils.longToBytes(nonce, buffer, 0);
+		written = encoder.update(buffer, 0, 8, text, 0);
+		output.write(text, 0, (int) written);
+
+		while ((count = readFully(input, buffer, 0, buffer.length)) > 0) {
+			ctr(buffer, 0, count, buffer, 0, nonce + length / 8);
+			length += count;
+			count = encoder.update(buffer, 0, count, text, 0);
+			output.write(text, 0, count);
+			written += count;
+		}
+
+		count = encoder.doFinal(text, 0);
+		output.write(text, 0, count);
+		CipherMetrics.record(CipherMetrics.Operation.ENCRYPT, start);
+		return written + count;
+	}
+
+	/**
+	 * The function decodes the base64 text that is read from the input stream
+	 * (the nonce followed by the cipher-text, as written by
+	 * <code>ctrToBase64</code>) and deciphers it in counter mode. None of the
+	 * streams is closed.
+	 *
+	 * @param input
+	 *            The stream to read the base64 text from.
+	 * @param output
+	 *            The stream to write the plain-text to.
+	 * @return The number of bytes written.
+	 * @throws IOException
+	 *             In case of error while reading or writing.
+	 * @throws IllegalArgumentException
+	 *             In case of base64 translation error, or in case the text is
+	 *             too short to hold the nonce.
+	 */
+	public long ctrFromBase64(InputStream input, OutputStream output) throws IOException {
+		long startTime = CipherMetrics.start();
+		Base64Stage.Decoder decoder = new Base64Stage.Decoder();
+		byte[] text = new byte[CTR_BUFFER_SIZE];
+		byte[] buffer = new byte[decoder.updateSize(text.length + 3) + 8];
+		int pending = 0; // The decoded bytes that don't make a whole block yet.
+		boolean hasNonce = false;
+		long nonce = 0;
+		long written = 0;
+		int count;
+
+		do {
+			count = readFully(input, text, 0, text.length);
+			pending += decoder.update(text, 0, count, buffer, pending);
+			if (count == 0) {
+				pending += decoder.doFinal(buffer, pending);
+			}
+
+			// The nonce comes first.
+			int start = 0;
+			if (!hasNonce && pending >= 8) {
+				nonce = CoreUtils.bytesToLong(buffer, 0);
+				hasNonce = true;
+				start = 8;
+			}
+
+			// Handle all the whole blocks, or everything that is left at the end.
+			if (hasNonce) {
+				int length = (count == 0) ? pending - start : (pending - start) & ~7;
+				ctr(buffer, start, length, buffer, start, nonce + written / 8);
+				output.write(buffer, start, length);
+				written += length;
+				start += length;
+			}
+
+			// Move the rest to the start of the buffer.
+			System.arraycopy(buffer, start, buffer, 0, pending - start);
+			pending -= start;
+		} while (count > 0);
+
+		if (!hasNonce) {
+			throw new IllegalArgumentException("The cipher-text is too short to hold the nonce");
+		}
+		CipherMetrics.record(CipherMetrics.Operation.DECRYPT, startTime);
+		return written;
+	}
+
+	/**
+	 * Read from the stream until the given range is full or the stream ended.
+	 *
+	 * @return The number of bytes read, 0 when the stream ended.
+	 */
+	private static int readFully(InputStream input, byte[] buffer, int offset, int length) throws IOException {
+		int total = 0;
+		int count;
+
+		while (total < length && (count = input.read(buffer, offset + total, length - total)) != -1) {
+			total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * The function encrypts everything that is read from the input stream
+	 * using CBC and writes it to the output stream as it is produced, the
+	 * result is the same as <code>encrypt(byte[])</code> of the whole input.
+	 * Only a fixed size buffer is held, whatever the size of the input. None
+	 * of the streams is closed.
+	 *
+	 * @param input
+	 *            The stream to read the plain-text from.
+	 * @param output
+	 *            The stream to write the cipher-text to.
+	 * @return The number of bytes written.
+	 * @throws IOException
+	 *             In case of error while reading or writing.
+	 */
+	public long encrypt(InputStream input, OutputStream output) throws IOException {
+		return encrypt(input, output, Feistel.IV);
+	}
+
+	/**
+	 * The function encrypts everything that is read from the input stream
+	 * using CBC with the given initial vector, see
+	 * <code>encrypt(InputStream, OutputStream)</code>.
+	 *
+	 * @param input
+	 *            The stream to read the plain-text from.
+	 * @param output
+	 *            The stream to write the cipher-text to.
+	 * @param iv
+	 *            The initial vector of the chain.
+	 * @return The number of bytes written.
+	 * @throws IOException
+	 *             In case of error while reading or writing.
+	 */
+	long encrypt(InputStream input, OutputStream output, long iv) throws IOException {
+		long start = CipherMetrics.start();
+		CbcEncryptor encryptor = new CbcEncryptor(this, iv);
+		byte[] buffer = new byte[BUFFER_SIZE];
+		byte[] result = new byte[BUFFER_SIZE + 8];
+		long written = 0;
+		int count;
+
+		while ((count = input.read(buffer)) != -1) {
+			count = encryptor.update(buffer, 0, count, result, 0);
+			output.write(result, 0, count);
+			written += count;
+		}
+
+		count = encryptor.doFinal(result, 0);
+		output.write(result, 0, count);
+		CipherMetrics.record(CipherMetrics.Operation.ENCRYPT, start);
+		return written + count;
+	}
+
+	/**
+	 * The function deciphers everything that is read from the input stream
+	 * using CBC and writes it to the output stream as it is produced, without
+	 * the padding. Only a fixed size buffer is held, whatever the size of the
+	 * input. None of the streams is closed.
+	 *
+	 * @param input
+	 *            The stream to read the cipher-text from.
+	 * @param output
+	 *            The stream to write the plain-text to.
+	 * @return The number of bytes written.
+	 * @throws IOException
+	 *             In case of error while reading or writing.
+	 * @throws IllegalArgumentException
+	 *             In case the input isn't made of whole 64-bit blocks, or its
+	 *             last block holds no padding.
+	 */
+	public long decrypt(InputStream input, OutputStream output) throws IOException {
+		return decrypt(input, output, Feistel.IV);
+	}
+
+	/**
+	 * The function deciphers everything that is read from the input stream
+	 * using CBC with the given initial vector, see
+	 * <code>decrypt(InputStream, OutputStream)</code>.
+	 *
+	 * @param input
+	 *            The stream to read the cipher-text from.
+	 * @param output
+	 *            The stream to write the plain-text to.
+	 * @param iv
+	 *            The initial vector of the chain.
+	 * @return The number of bytes written.
+	 * @throws IOException
+	 *             In case of error while reading or writing.
+	 * @throws IllegalArgumentException
+	 *             In case the input isn't made of whole 64-bit blocks, or its
+	 *             last block holds no padding.
+	 */
+	long decrypt(InputStream input, OutputStream output, long iv) throws IOException {
+		long start = CipherMetrics.start();
+		CbcDecryptor decryptor = new CbcDecryptor(this, iv);
+		byte[] buffer = new byte[BUFFER_SIZE];
+		byte[] result = new byte[BUFFER_SIZE + 8];
+		long written = 0;
+		int count;
+
+		while ((count = input.read(buffer)) != -1) {
+			count = decryptor.update(buffer, 0, count, result, 0);
+			output.write(result, 0, count);
+			written += count;
+		}
+
+		count = decryptor.doFinal(result, 0);
+		output.write(result, 0, count);
+		CipherMetrics.record(CipherMetrics.Operation.DECRYPT, start);
+		return written + count;
+	}
+
+	/**
+	 * The function encrypts everything that is read from the input stream and
+	 * writes the base64 text of the cipher-text to the output stream. The
+	 * encoding is done in the same pass as the cipher, block after block, the
+	 * text is the same as <code>java.util.Base64</code> gives for the whole
+	 * cipher-text. None of the streams is closed.
+	 *
+	 * @param input
+	 *            The stream to read the plain-text from.
+	 * @param output
+	 *            The stream to write the base64 text to.
+	 * @return The number of characters written.
+	 * @throws IOException
+	 *             In case of error while reading or writing.
+	 */
+	public long encryptToBase64(InputStream input, OutputStream output) throws IOException {
+		long start = CipherMetrics.start();
+		CbcEncryptor encryptor = new CbcEncryptor(this, Feistel.IV);
+		Base64Stage.Encoder encoder = new Base64Stage.Encoder();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		byte[] cipherText = new byte[BUFFER_SIZE + 8];
+		byte[] text = new byte[(int) Base64Stage.encodedLength(cipherText.length + 2)];
+		long written = 0;
+		int count;
+
+		while ((count = input.read(buffer)) != -1) {
+			count = encryptor.update(buffer, 0, count, cipherText, 0);
+			count = encoder.update(cipherText, 0, count, text, 0);
+			output.write(text, 0, count);
+			written += count;
+		}
+
+		count = encryptor.doFinal(cipherText, 0);
+		count = encoder.update(cipherText, 0, count, text, 0);
+		count += encoder.doFinal(text, count);
+		output.write(text, 0, count);
+		CipherMetrics.record(CipherMetrics.Operation.ENCRYPT, start);
+		return written + count;
+	}
+
+	/**
+	 * The function decodes the base64 text that is read from the input stream
+	 * and deciphers it, the decoding is done in the same pass as the cipher.
+	 * None of the streams is closed.
+	 *
+	 * @param input
+	 *            The stream to read the base64 text from.
+	 * @param output
+	 *            The stream to write the plain-text to.
+	 * @return The number of bytes written.
+	 * @throws IOException
+	 *             In case of error while reading or writing.
+	 * @throws IllegalArgumentException
+	 *             In case of base64 translation error, or in case the
+	 *             cipher-text isn't made of whole 64-bit blocks or its last
+	 *             block holds no padding.
+	 */
+	public long decryptFromBase64(InputStream input, OutputStream output) throws IOException {
+		long start = CipherMetrics.start();
+		CbcDecryptor decryptor = new CbcDecryptor(this, Feistel.IV);
+		Base64Stage.Decoder decoder = new Base64Stage.Decoder();
+		byte[] text = new byte[BUFFER_SIZE];
+		byte[] cipherText = new byte[decoder.updateSize(BUFFER_SIZE + 3)];
+		byte[] result = new byte[cipherText.length + 8];
+		long written = 0;
+		int count;
+
+		while ((count = input.read(text)) != -1) {
+			count = decoder.update(text, 0, count, cipherText, 0);
+			count = decryptor.update(cipherText, 0, count, result, 0);
+			output.write(result, 0, count);
+			written += count;
+		}
+
+		count = decoder.doFinal(cipherText, 0);
+		count = decryptor.update(cipherText, 0, count, result, 0);
+		count += decryptor.doFinal(result, count);
+		output.write(result, 0, count);
+		CipherMetrics.record(CipherMetrics.Operation.DECRYPT, start);
+		return written + count;
+	}
+
+	/**
+	 * The function encrypts everything that is read from the input channel,
+	 * see <code>encrypt(InputStream, OutputStream)</code>.
+	 *
+	 * @param input
+	 *            The channel to read the plain-text from.
+	 * @param output
+	 *            The channel to write the cipher-text to.
+	 * @return The number of bytes written.
+	 * @throws IOException
+	 *             In case of error while reading or writing.
+	 */
+	public long encrypt(ReadableByteChannel input, WritableByteChannel output) throws IOException {
+		return encrypt(Channels.newInputStream(input), Channels.newOutputStream(output));
+	}
+
+	/**
+	 * The function deciphers everything that is read from the input channel,
+	 * see <code>decrypt(InputStream, OutputStream)</code>.
+	 *
+	 * @param input
+	 *            The channel to read the cipher-text from.
+	 * @param output
+	 *            The channel to write the plain-text to.
+	 * @return The number of bytes written.
+	 * @throws IOException
+	 *             In case of error while reading or writing.
+	 * @throws IllegalArgumentException
+	 *             In case the input isn't made of whole 64-bit blocks, or its
+	 *             last block holds no padding.
+	 */
+	public long decrypt(ReadableByteChannel input, WritableByteChannel output) throws IOException {
+		return decrypt(Channels.newInputStream(input), Channels.newOutputStream(output));
+	}
+}
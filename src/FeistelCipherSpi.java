@@ -0,0 +1,313 @@
+import java.security.AlgorithmParameters;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.InvalidParameterException;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.ProviderException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.InvalidParameterSpecException;
+import java.util.Arrays;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.CipherSpi;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+
+/**
+ * The FeistelCipherSpi class is the JCA implementation of the Feistel cipher,
+ * which is registered by <code>FeistelProvider</code>. It encrypts in CBC mode
+ * with the 0x80 padding (ISO7816-4Padding), so its output is the same as
+ * <code>FeistelCipher.encrypt</code> gives with the same IV.
+ *
+ * The input may be fed in parts of any size: the state of the chain is kept
+ * by a <code>CbcEncryptor</code> or a <code>CbcDecryptor</code>, so nothing is
+ * gathered into a single buffer before it is processed. Like every
+ * <code>Cipher</code>, an instance must not be shared between threads.
+ *
+ * The key is the raw master key, only its first 8 bytes are used. The IV is
+ * given as an <code>IvParameterSpec</code> of 8 bytes (or as the
+ * <code>AlgorithmParameters</code> that hold one). Encrypting without one
+ * draws a random IV, which <code>getIV</code> and <code>getParameters</code>
+ * give back, and deciphering requires the IV. The fixed IV of the
+ * <code>Feistel</code> class (which <code>FeistelCipher.encrypt</code> uses
+ * when no IV is given) is only used when it is given explicitly.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+public final class FeistelCipherSpi extends CipherSpi {
+	private static final int BLOCK_SIZE = 8; // The size of a block, in bytes.
+	private static final Provider provider = new FeistelProvider(); // The provider of the parameters.
+	private static final SecureRandom defaultRandom = new SecureRandom(); // Used when init is given no random.
+
+	private boolean isDecrypt; // Whether the cipher deciphers or encrypts.
+	private long iv; // The IV every chain starts with.
+	private FeistelCipher cipher; // The cipher of the key, null before init.
+	private CbcEncryptor encryptor; // The state of the encryption chain.
+	private CbcDecryptor decryptor; // The state of the decryption chain.
+	private long length; // The number of bytes fed since the chain started.
+
+	/**
+	 * Create the cipher, it must be initialized before it is used.
+	 */
+	public FeistelCipherSpi() {
+	}
+
+	@Override
+	protected void engineSetMode(String mode) throws NoSuchAlgorithmException {
+		if (!mode.equalsIgnoreCase("CBC")) {
+			throw new NoSuchAlgorithmException("Unsupported mode " + mode);
+		}
+	}
+
+	@Override
+	protected void engineSetPadding(String padding) throws NoSuchPaddingException {
+		if (!padding.equalsIgnoreCase("ISO7816-4Padding")) {
+			throw new NoSuchPaddingException("Unsupported padding " + padding);
+		}
+	}
+
+	@Override
+	protected int engineGetBlockSize() {
+		return BLOCK_SIZE;
+	}
+
+	@Override
+	protected int engineGetKeySize(Key key) throws InvalidKeyException {
+		return 64;
+	}
+
+	@Override
+	protected int engineGetOutputSize(int inputLen) {
+		long total = length + inputLen;
+		if (!isDecrypt) {
+			// The padding adds 1 to 8 bytes.
+			return (int) (total / BLOCK_SIZE * BLOCK_SIZE + BLOCK_SIZE - length / BLOCK_SIZE * BLOCK_SIZE);
+		}
+
+		// The blocks that weren't written yet, the padding takes at least a byte of them.
+		long written = Math.max(0, length / BLOCK_SIZE - 1) * BLOCK_SIZE;
+		return (int) Math.max(0, total / BLOCK_SIZE * BLOCK_SIZE - written - 1);
+	}
+
+	@Override
+	protected byte[] engineGetIV() {
+		if (cipher == null) {
+			return null;
+		}
+
+		byte[] result = new byte[BLOCK_SIZE];
+		CoreUtils.longToBytes(iv, result, 0);
+		return result;
+	}
+
+	@Override
+	protected AlgorithmParameters engineGetParameters() {
+		if (cipher == null) {
+			return null;
+		}
+
+		try {
+			AlgorithmParameters params = AlgorithmParameters.getInstance("Feistel", provider);
+			params.init(new IvParameterSpec(engineGetIV()));
+			return params;
+		} catch (NoSuchAlgorithmException | InvalidParameterSpecException e) {
+			throw new ProviderException("The Feistel parameters aren't available", e);
+		}
+	}
+
+	@Override
+	protected void engineInit(int opmode, Key key, SecureRandom random) throws InvalidKeyException {
+		try {
+			engineInit(opmode, key, (AlgorithmParameterSpec) null, random);
+		} catch (InvalidAlgorithmParameterException e) {
+			throw new InvalidKeyException(e.getMessage(), e);
+		}
+	}
+
+	@Override
+	protected void engineInit(int opmode, Key key, AlgorithmParameterSpec params, SecureRandom random)
+			throws InvalidKeyException, InvalidAlgorithmParameterException {
+		if (opmode != Cipher.ENCRYPT_MODE && opmode != Cipher.DECRYPT_MODE) {
+			throw new InvalidParameterException("Unsupported operation mode " + opmode);
+		}
+
+		// Take the IV from the parameters, or draw a random one to encrypt with.
+		long initialIv;
+		if (params instanceof IvParameterSpec) {
+			byte[] ivBytes = ((IvParameterSpec) params).getIV();
+			if (ivBytes.length != BLOCK_SIZE) {
+				throw new InvalidAlgorithmParameterException("The IV must be 8 bytes long");
+			}
+			initialIv = CoreUtils.bytesToLong(ivBytes, 0);
+		} else if (params != null) {
+			throw new InvalidAlgorithmParameterException("Unsupported parameters " + params.getClass().getName());
+		} else if (opmode == Cipher.DECRYPT_MODE) {
+			throw new InvalidAlgorithmParameterException("Deciphering needs the IV the text was encrypted with");
+		} else {
+			byte[] ivBytes = new byte[BLOCK_SIZE];
+			((random != null) ? random : defaultRandom).nextBytes(ivBytes);
+			initialIv = CoreUtils.bytesToLong(ivBytes, 0);
+		}
+
+		byte[] encoded = (key == null) ? null : key.getEncoded();
+		if (encoded == null) {
+			throw new InvalidKeyException("The key has no raw encoding");
+		}
+		// The sub-keys stay with this cipher, not in the shared cache where they would outlive the key.
+		try {
+			cipher = new FeistelCipher(encoded);
+		} catch (IllegalArgumentException e) {
+			throw new InvalidKeyException(e.getMessage(), e);
+		} finally {
+			Arrays.fill(encoded, (byte) 0);
+		}
+
+		isDecrypt = (opmode == Cipher.DECRYPT_MODE);
+		iv = initialIv;
+		start();
+	}
+
+	@Override
+	protected void engineInit(int opmode, Key key, AlgorithmParameters params, SecureRandom random)
+			throws InvalidKeyException, InvalidAlgorithmParameterException {
+		AlgorithmParameterSpec spec = null;
+		if (params != null) {
+			try {
+				spec = params.getParameterSpec(IvParameterSpec.class);
+			} catch (InvalidParameterSpecException e) {
+				throw new InvalidAlgorithmParameterException(e.getMessage(), e);
+			}
+		}
+		engineInit(opmode, key, spec, random);
+	}
+
+	@Override
+	protected byte[] engineUpdate(byte[] input, int inputOffset, int inputLen) {
+		checkInitialized();
+		byte[] result = new byte[updateSize(inputLen)];
+		int written = update(input, inputOffset, inputLen, result, 0);
+		return (written == result.length) ? result : Arrays.copyOf(result, written);
+	}
+
+	@Override
+	protected int engineUpdate(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset)
+			throws ShortBufferException {
+		checkInitialized();
+		if (output.length - outputOffset < updateSize(inputLen)) {
+			throw new ShortBufferException("The output needs " + updateSize(inputLen) + " bytes");
+		}
+		return update(input, inputOffset, inputLen, output, outputOffset);
+	}
+
+	@Override
+	protected byte[] engineDoFinal(byte[] input, int inputOffset, int inputLen)
+			throws IllegalBlockSizeException, BadPaddingException {
+		checkInitialized();
+		byte[] result = new byte[engineGetOutputSize(inputLen)];
+		int written = doFinal(input, inputOffset, inputLen, result, 0);
+		return (written == result.length) ? result : Arrays.copyOf(result, written);
+	}
+
+	@Override
+	protected int engineDoFinal(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset)
+			throws ShortBufferException, IllegalBlockSizeException, BadPaddingException {
+		checkInitialized();
+		if (output.length - outputOffset < engineGetOutputSize(inputLen)) {
+			throw new ShortBufferException("The output needs " + engineGetOutputSize(inputLen) + " bytes");
+		}
+		return doFinal(input, inputOffset, inputLen, output, outputOffset);
+	}
+
+	/**
+	 * Start a new chain with the IV of the last init.
+	 */
+	private void start() {
+		encryptor = (isDecrypt) ? null : new CbcEncryptor(cipher, iv);
+		decryptor = (isDecrypt) ? new CbcDecryptor(cipher, iv) : null;
+		length = 0;
+	}
+
+	/**
+	 * Check that the cipher was initialized.
+	 */
+	private void checkInitialized() {
+		if (cipher == null) {
+			throw new IllegalStateException("The cipher wasn't initialized");
+		}
+	}
+
+	/**
+	 * This function returns the number of bytes an update of the given length
+	 * writes, the decryption holds its last block back.
+	 */
+	private int updateSize(int inputLen) {
+		int blocks = (int) ((length % BLOCK_SIZE + inputLen) / BLOCK_SIZE);
+		if (isDecrypt && blocks > 0 && length < BLOCK_SIZE) {
+			blocks--;
+		}
+		return blocks * BLOCK_SIZE;
+	}
+
+	/**
+	 * Feed the input to the chain, the input and the output may be the same
+	 * array.
+	 *
+	 * @return The number of bytes written.
+	 */
+	private int update(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset) {
+		if (inputLen == 0) {
+			return 0; // The input may even be null then.
+		}
+
+		// The chain writes whole blocks before it read all the input, so overlapping input is copied first.
+		if (input == output) {
+			input = Arrays.copyOfRange(input, inputOffset, inputOffset + inputLen);
+			inputOffset = 0;
+		}
+
+		length += inputLen;
+		if (isDecrypt) {
+			return decryptor.update(input, inputOffset, inputLen, output, outputOffset);
+		}
+		return encryptor.update(input, inputOffset, inputLen, output, outputOffset);
+	}
+
+	/**
+	 * Feed the last input to the chain and end it, a new chain is started in
+	 * any case.
+	 *
+	 * @return The number of bytes written.
+	 * @throws IllegalBlockSizeException
+	 *             In case the cipher-text isn't made of whole 64-bit blocks.
+	 * @throws BadPaddingException
+	 *             In case the last block of the cipher-text holds no padding.
+	 */
+	private int doFinal(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset)
+			throws IllegalBlockSizeException, BadPaddingException {
+		try {
+			if (isDecrypt && ((length + inputLen) % BLOCK_SIZE != 0 || length + inputLen == 0)) {
+				throw new IllegalBlockSizeException("The cipher-text must be made of whole 64-bit blocks");
+			}
+
+			int written = update(input, inputOffset, inputLen, output, outputOffset);
+			if (!isDecrypt) {
+				return written + encryptor.doFinal(output, outputOffset + written);
+			}
+			try {
+				return written + decryptor.doFinal(output, outputOffset + written);
+			} catch (IllegalArgumentException e) {
+				throw new BadPaddingException(e.getMessage());
+			}
+		} finally {
+			start();
+		}
+	}
+}
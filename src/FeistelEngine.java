@@ -0,0 +1,184 @@
+/**
+ * The FeistelEngine class is a word-packed implementation of the Feistel
+ * network, the 64-bit block is kept in a <code>long</code> and its two halves
+ * in <code>int</code>s, so a whole round is done in registers without
+ * allocating any arrays. It produces exactly the same output as the
+ * bit-at-a-time <code>Feistel.blockEncryptDecrypt</code>.
+ *
+ * The permutation tables are compiled once into byte-indexed lookup tables
+ * (see <code>PermutationTable</code>), they keep their 1-based meaning: bit
+ * number 1 is the most significant bit of the word, just like the first bit
+ * of the first byte in the byte array version.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+final class FeistelEngine {
+
+	// The permutations of the Feistel class, compiled once into lookup tables.
+	private static final PermutationTable IP = new PermutationTable(Feistel.IP, 64);
+	private static final PermutationTable IPinverse = new PermutationTable(Feistel.IPinverse, 64);
+	private static final PermutationTable E = new PermutationTable(Feistel.E, 32);
+	private static final PermutationTable P = new PermutationTable(Feistel.P, 32);
+	private static final PermutationTable PC1 = new PermutationTable(Feistel.PC1, 64);
+	private static final PermutationTable PC2 = new PermutationTable(Feistel.PC2, 56);
+
+	/**
+	 * The twist-box fused with the P-box. The 48-bit word is split into eight
+	 * 6-bit groups (two pieces of the twist-box each), every group is looked
+	 * up together with the first piece (which decides the values of the kept
+	 * bits) and gives its P-permuted contribution to the 32-bit result. The
+	 * index of a lookup is <code>firstPiece << 6 | group</code>.
+	 */
+	private static final int[][] SP = new int[8][512];
+
+	static {
+		for (int group = 0; group < 8; group++) {
+			for (int firstPiece = 0; firstPiece < 8; firstPiece++) {
+				for (int val = 0; val < 64; val++) {
+					// The first group holds the first piece itself.
+					long word = (long) val << (42 - 6 * group);
+					if (group != 0) {
+						word |= (long) firstPiece << 45;
+					}
+
+					// Keep only the 4 bits of the group and permute them.
+					int twisted = twistBox(word) & (0xF0000000 >>> (4 * group));
+					SP[group][firstPiece << 6 | val] = (int) P.apply(twisted & 0xFFFFFFFFL);
+				}
+			}
+		}
+	}
+
+	private FeistelEngine() {
+	}
+
+	/**
+	 * The twist-box of the round function (see <code>Feistel.twistBox</code>)
+	 * working on a 48-bit word. Each of the sixteen 3-bit pieces is added with
+	 * its number from the <code>additionTable</code> and modulo'ed with 3 to
+	 * select which pair of bits to keep, the kept bits are always taken from
+	 * the first piece, exactly as the reference implementation does.
+	 *
+	 * @param word
+	 *            The 48-bit word (after the expansion and the key mixing).
+	 * @return The 32-bit result.
+	 */
+	static int twistBox(long word) {
+		int[] additionTable = Feistel.additionTable;
+		int firstPiece = ((int) (word >>> 45) & 7) + additionTable[0];
+		int bit5 = (firstPiece >>> 2) & 1;
+		int bit6 = (firstPiece >>> 1) & 1;
+		int bit7 = firstPiece & 1;
+		int result = 0;
+
+		for (int i = 0; i < 16; i++) {
+			int piece = ((int) (word >>> (45 - 3 * i)) & 7) + additionTable[i];
+
+			switch (piece % 3) {
+			case 0:
+				result |= (bit7 << (31 - 2 * i)) | (bit6 << (30 - 2 * i));
+				break;
+
+			case 1:
+				result |= (bit7 << (31 - 2 * i)) | (bit5 << (30 - 2 * i));
+				break;
+
+			case 2:
+				result |= (bit6 << (31 - 2 * i)) | (bit5 << (30 - 2 * i));
+				break;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The round function: expansion, key mixing, twist-box and the P-box (see
+	 * <code>Feistel.f_Function</code>), the last two are done together with
+	 * the <code>SP</code> tables.
+	 *
+	 * @param R
+	 *            The 32-bit right half of the block.
+	 * @param subKey
+	 *            The 48-bit sub-key of the round.
+	 * @return The 32-bit result.
+	 */
+	static int f_Function(int R, long subKey) {
+		long word = E.apply(R & 0xFFFFFFFFL) ^ subKey;
+		int firstPiece = (int) (word >>> 39) & 0x1C0;
+
+		// The twist-box and the P-box, one lookup for each 6-bit group.
+		return SP[0][firstPiece | (int) (word >>> 42) & 0x3F] | SP[1][firstPiece | (int) (word >>> 36) & 0x3F]
+				| SP[2][firstPiece | (int) (word >>> 30) & 0x3F] | SP[3][firstPiece | (int) (word >>> 24) & 0x3F]
+				| SP[4][firstPiece | (int) (word >>> 18) & 0x3F] | SP[5][firstPiece | (int) (word >>> 12) & 0x3F]
+				| SP[6][firstPiece | (int) (word >>> 6) & 0x3F] | SP[7][firstPiece | (int) word & 0x3F];
+	}
+
+	/**
+	 * The function encrypts/deciphers a single 64-bit block with the given
+	 * sub-keys.
+	 *
+	 * @param block
+	 *            The 64-bit block that we want to handle.
+	 * @param subKeys
+	 *            The 16, 48-bit, sub-keys generated by
+	 *            <code>subKeysGenerator</code>.
+	 * @param isDecrypt
+	 *            decide whether we want to encrypt (<code>false</code>) or
+	 *            decrypt (<code>true</code>).
+	 * @return The handled block.
+	 */
+	static long blockEncryptDecrypt(long block, long[] subKeys, boolean isDecrypt) {
+		long result = IP.apply(block);
+		int L = (int) (result >>> 32);
+		int R = (int) result;
+
+		for (int i = 0; i < 16; i++) {
+			int tmpR = R;
+			R = L ^ f_Function(R, (isDecrypt) ? subKeys[15 - i] : subKeys[i]);
+			L = tmpR;
+		}
+
+		result = ((long) R << 32) | (L & 0xFFFFFFFFL);
+		return IPinverse.apply(result);
+	}
+
+	/**
+	 * This function generates 16 sub-keys from a given 64-bit master key, the
+	 * same way <code>CoreUtils.subKeysGenerator</code> does.
+	 *
+	 * @param key
+	 *            The master key, only its first 8 bytes are used.
+	 * @return The 16, 48-bit, sub-keys.
+	 * @throws IllegalArgumentException
+	 *             In case the key is shorter than 64 bits.
+	 */
+	static long[] subKeysGenerator(byte[] key) {
+		if (key.length < 8) {
+			throw new IllegalArgumentException("The key must be at least 64 bits long");
+		}
+		long start = CipherMetrics.start();
+
+		long[] subKeys = new long[16];
+		long tmp = PC1.apply(CoreUtils.bytesToLong(key, 0));
+		int C = (int) (tmp >>> 28) & 0x0FFFFFFF;
+		int D = (int) tmp & 0x0FFFFFFF;
+
+		for (int i = 0; i < 16; i++) {
+			C = leftRotation(C, Feistel.keyShift[i]);
+			D = leftRotation(D, Feistel.keyShift[i]);
+			subKeys[i] = PC2.apply(((long) C << 28) | D);
+		}
+		CipherMetrics.keySchedule(start);
+		return subKeys;
+	}
+
+	/**
+	 * This function rotates a 28-bit half of the key-schedule state to the
+	 * left.
+	 */
+	private static int leftRotation(int half, int timesToRotate) {
+		return ((half << timesToRotate) | (half >>> (28 - timesToRotate))) & 0x0FFFFFFF;
+	}
+}
@@ -1,12 +1,16 @@
 import java.util.Base64;
 import java.util.Random;
 import java.util.LinkedList;
+import java.util.concurrent.ExecutionException;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.FileNotFoundException;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 import java.awt.Font;
 import java.awt.Color;
 import java.awt.Insets;
@@ -26,6 +30,9 @@ import javax.swing.JTextArea;
 import javax.swing.JComponent;
 import javax.swing.JTextField;
 import javax.swing.JScrollPane;
+import javax.swing.JProgressBar;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
 import javax.swing.border.LineBorder;
 import javax.swing.border.EmptyBorder;
 import javax.swing.event.DocumentEvent;
@@ -57,7 +64,16 @@ public class FeistelMainGui extends JFrame {
 	static JTextField plainTextField;
 	static JTextField cipherTextField;
 	static JTextField keyField;
-	static Dimension viewASize = new Dimension(435, 235);
+	static JProgressBar progressBar;
+	static JButton cancelButton;
+	static Dimension viewASize = new Dimension(435, 270);
+
+	// The file jobs run in the background, one at a time.
+	static final int ENCRYPT_JOB = 0;
+	static final int DECRYPT_JOB = 1;
+	static final int VERIFY_JOB = 2;
+	static final int PROGRESS_DELAY = 200; // The time between progress updates, in ms.
+	static FileProgress jobProgress; // The progress of the running job, null when idle.
 
 	// ViewB GUI components.
 	static JButton OTFplainTextButton;
@@ -69,6 +85,12 @@ public class FeistelMainGui extends JFrame {
 	static JScrollPane OTFPlainTextFrame;
 	static Dimension viewBSize = new Dimension(445, 245);
 
+	// The LIVE view encrypts in the background, once the typing paused.
+	static final int LIVE_DELAY = 150; // The pause before encrypting, in ms.
+	static LiveEncoder liveEncoder = new LiveEncoder();
+	static Timer liveTimer;
+	static int liveGeneration; // Counts the encryptions, older results are dropped.
+
 	// The fields for the view switching setting.
 	static boolean isViewA = false;
 	static JButton viewSwitcherButton;
@@ -86,6 +108,7 @@ public class FeistelMainGui extends JFrame {
 
 	@SuppressWarnings("unused")
 	public static void main(String[] args) {
+		CipherMetrics.register();
 		Feistel.plainTextPath = "p.txt";
 		Feistel.cipherTextPath = "c.txt";
 		Feistel.keyPath = "k.txt";
@@ -141,6 +164,33 @@ public class FeistelMainGui extends JFrame {
 				Feistel.encryptFile(cipherTextRFA);
 				GuiUtils.PopUpMessages.encMsg(true);
 				break;
+			case "encrypt-ctr":
+				Feistel.mode = CipherMode.CTR;
+				Feistel.encryptFile(cipherTextRFA);
+				GuiUtils.PopUpMessages.encMsg(true);
+				break;
+			case "encrypt-binary":
+				Feistel.format = FileFormat.BINARY;
+				Feistel.encryptFile(cipherTextRFA);
+				GuiUtils.PopUpMessages.encMsg(true);
+				break;
+			case "encrypt-ctr-binary":
+				Feistel.mode = CipherMode.CTR;
+				Feistel.format = FileFormat.BINARY;
+				Feistel.encryptFile(cipherTextRFA);
+				GuiUtils.PopUpMessages.encMsg(true);
+				break;
+			case "encrypt-chunked":
+				Feistel.format = FileFormat.CHUNKED;
+				Feistel.encryptFile(cipherTextRFA);
+				GuiUtils.PopUpMessages.encMsg(true);
+				break;
+			case "encrypt-ctr-chunked":
+				Feistel.mode = CipherMode.CTR;
+				Feistel.format = FileFormat.CHUNKED;
+				Feistel.encryptFile(cipherTextRFA);
+				GuiUtils.PopUpMessages.encMsg(true);
+				break;
 			case "decrypt":
 				Feistel.decryptFile(plainTextRAF);
 				GuiUtils.PopUpMessages.decMsg(true);
@@ -284,6 +334,10 @@ public class FeistelMainGui extends JFrame {
 		cipherTextField.setVisible(isViewA);
 		viewA.add(keyField);
 		keyField.setVisible(isViewA);
+		viewA.add(progressBar);
+		progressBar.setVisible(isViewA);
+		viewA.add(cancelButton);
+		cancelButton.setVisible(isViewA);
 
 		// Add all viewB components.
 		viewB.add(OTFPlainTextFrame);
@@ -431,6 +485,27 @@ public class FeistelMainGui extends JFrame {
 			}
 		});
 
+		// Setting the progress bar of the running job.
+		progressBar = new JProgressBar(0, 100);
+		progressBar.setLocation(10, 210);
+		progressBar.setSize(280, 25);
+		progressBar.setStringPainted(true);
+		progressBar.setString("");
+
+		// Setting the CANCEL button.
+		cancelButton = new JButton("CANCEL");
+		cancelButton.setLocation(300, 210);
+		cancelButton.setSize(120, 25);
+		cancelButton.setEnabled(false);
+		cancelButton.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent event) {
+				if (jobProgress != null) {
+					jobProgress.cancel();
+					cancelButton.setEnabled(false);
+				}
+			}
+		});
+
 		// Adding all the buttons & fields.
 		add(plainTextButton);
 		add(cipherTextButton);
@@ -441,6 +516,8 @@ public class FeistelMainGui extends JFrame {
 		add(plainTextField);
 		add(cipherTextField);
 		add(keyField);
+		add(progressBar);
+		add(cancelButton);
 
 	}
 
@@ -481,21 +558,9 @@ public class FeistelMainGui extends JFrame {
 				byte[] randomBytes = new byte[6];
 				rnd.nextBytes(randomBytes);
 
-				try {
-					randomBytes = Base64.getEncoder().encode(randomBytes);
-					OTFKeyText.setText(new String(randomBytes));
-					if (OTFPlainText.getText().isEmpty()) {
-						OTFCipherText.setText("");
-					} else {
-						String result = onTheFlyEncoding(OTFPlainText.getText(), OTFKeyText.getText());
-						OTFCipherText.setText(result);
-						result = null;
-					}
-				} catch (IllegalArgumentException e) {
-					GuiUtils.PopUpMessages.errorMsg("Can't translate cipher-text to radix64");
-				} catch (Exception e) {
-					GuiUtils.PopUpMessages.errorMsg("ERROR (103): " + e.getMessage());
-				}
+				randomBytes = Base64.getEncoder().encode(randomBytes);
+				OTFKeyText.setText(new String(randomBytes));
+				startLiveEncoding();
 			}
 		});
 
@@ -542,37 +607,25 @@ public class FeistelMainGui extends JFrame {
 			}
 
 		});
-		OTFPlainText.getDocument().addDocumentListener(new DocumentListener() {
-			private void update() {
-				try {
-					String result = onTheFlyEncoding(OTFPlainText.getText(), OTFKeyText.getText());
-					OTFCipherText.setText(result);
-					result = null;
-				} catch (IllegalArgumentException e) {
-					GuiUtils.PopUpMessages.errorMsg("Can't translate cipher-text to radix64");
-				} catch (Exception e) {
-					GuiUtils.PopUpMessages.errorMsg("ERROR (104): " + e.getMessage());
-				}
-			}
 
+		// Every edit restarts the timer, the text is encrypted once it runs out.
+		liveTimer = new Timer(LIVE_DELAY, new ActionListener() {
+			public void actionPerformed(ActionEvent event) {
+				startLiveEncoding();
+			}
+		});
+		liveTimer.setRepeats(false);
+		OTFPlainText.getDocument().addDocumentListener(new DocumentListener() {
 			public void insertUpdate(DocumentEvent e) {
-				update();
+				liveTimer.restart();
 			}
 
 			public void removeUpdate(DocumentEvent e) {
-				if (OTFPlainText.getText().isEmpty()) {
-					OTFCipherText.setText("");
-				} else {
-					update();
-				}
+				liveTimer.restart();
 			}
 
 			public void changedUpdate(DocumentEvent e) {
-				if (OTFPlainText.getText().length() == 0) {
-					OTFCipherText.setText("");
-				} else {
-					update();
-				}
+				liveTimer.restart();
 			}
 		});
 
@@ -586,18 +639,8 @@ public class FeistelMainGui extends JFrame {
 					if (OTFKeyText.getText().toCharArray().length > 8) {
 						OTFKeyText.setText(OTFKeyText.getText(0, 8));
 					}
-					if (OTFPlainText.getText().isEmpty()) {
-						OTFCipherText.setText("");
-					} else {
-						String result = onTheFlyEncoding(OTFPlainText.getText(), OTFKeyText.getText());
-						OTFCipherText.setText(result);
-						result = null;
-					}
+					startLiveEncoding();
 				} catch (BadLocationException e) {
-				} catch (IllegalArgumentException e) {
-					GuiUtils.PopUpMessages.errorMsg("Can't translate cipher-text to radix64");
-				} catch (Exception e) {
-					GuiUtils.PopUpMessages.errorMsg("ERROR (105): " + e.getMessage());
 				}
 			}
 		});
@@ -629,77 +672,147 @@ public class FeistelMainGui extends JFrame {
 	}
 
 	private void encrypt() {
-		try {
-			updateFeistelFields();
-			Feistel.encryptFile(cipherTextRFA);
-			GuiUtils.PopUpMessages.encMsg(true);
+		startFileJob(ENCRYPT_JOB);
+	}
 
-		} catch (FileNotFoundException e) {
-			GuiUtils.PopUpMessages.errorMsg("Some file(s) doesn't exist");
-		} catch (IOException e) {
-			GuiUtils.PopUpMessages.errorMsg("Can't read from file");
-		} catch (NullPointerException e) {
-			GuiUtils.PopUpMessages.errorMsg("Your file(s) are empty");
-		} catch (IllegalArgumentException e) {
-			GuiUtils.PopUpMessages.errorMsg("Can't translate cipher-text to radix64");
-		} catch (Exception e) {
-			GuiUtils.PopUpMessages.errorMsg("ERROR (100): " + e.getMessage());
-		} finally {
-			try {
-				closingStreams();
-			} catch (IOException e) {
-				GuiUtils.PopUpMessages.errorMsg("Can't read from file");
+	private void decrypt() {
+		startFileJob(DECRYPT_JOB);
+	}
+
+	private void verify() {
+		startFileJob(VERIFY_JOB);
+	}
+
+	/**
+	 * Run the given file job in the background. While it runs the progress bar
+	 * shows how much of the input was handled and at what rate, and the job
+	 * may be cancelled, which leaves the output file empty.
+	 */
+	private void startFileJob(final int job) {
+		// The job gets its own copy of the settings, the fields may change while it runs.
+		final FeistelCipher cipher;
+		final CipherMode mode = Feistel.mode;
+		final FileFormat format = Feistel.format;
+		final Path plainText;
+		final Path cipherText;
+		try {
+			if (job != VERIFY_JOB) {
+				updateFeistelFields();
 			}
+			cipher = FeistelCipher.forKey(Feistel.key);
+			plainText = Paths.get(Feistel.plainTextPath);
+			cipherText = Paths.get(Feistel.cipherTextPath);
+		} catch (Exception e) {
+			showFileJobError(e, job);
+			closeFiles();
+			return;
 		}
+		final RandomAccessFile plainTextFile = plainTextRAF;
+		final RandomAccessFile cipherTextFile = cipherTextRFA;
+
+		final FileProgress progress = new FileProgress();
+		final long startTime = System.nanoTime();
+		final Timer progressTimer = new Timer(PROGRESS_DELAY, new ActionListener() {
+			public void actionPerformed(ActionEvent event) {
+				showProgress(progress, startTime);
+			}
+		});
+		jobProgress = progress;
+		setFileJobRunning(true);
+		progressTimer.start();
+
+		new SwingWorker<Boolean, Void>() {
+			protected Boolean doInBackground() throws IOException {
+				switch (job) {
+				case ENCRYPT_JOB:
+					Feistel.encryptFile(cipher, mode, format, plainText, cipherTextFile, progress);
+					return true;
+				case DECRYPT_JOB:
+					Feistel.decryptFile(cipher, cipherText, plainTextFile, progress);
+					return true;
+				default:
+					return Feistel.verify(cipher, plainText, cipherText, progress);
+				}
+			}
+
+			protected void done() {
+				progressTimer.stop();
+				showProgress(progress, startTime);
+				jobProgress = null;
+				setFileJobRunning(false);
+				closeFiles();
+
+				try {
+					boolean result = get();
+					if (job == ENCRYPT_JOB) {
+						GuiUtils.PopUpMessages.encMsg(true);
+					} else if (job == DECRYPT_JOB) {
+						GuiUtils.PopUpMessages.decMsg(true);
+					} else {
+						GuiUtils.PopUpMessages.verifyMsg(result);
+					}
+				} catch (InterruptedException e) {
+				} catch (ExecutionException e) {
+					showFileJobError(e.getCause(), job);
+				}
+			}
+		}.execute();
 	}
 
-	private void decrypt() {
-		try {
-			updateFeistelFields();
-			Feistel.decryptFile(plainTextRAF);
-			GuiUtils.PopUpMessages.decMsg(true);
+	/**
+	 * Show how much of the input of the job was handled and at what rate.
+	 */
+	private static void showProgress(FileProgress progress, long startTime) {
+		long total = progress.total();
+		long done = progress.done();
+		int percent = (total == 0) ? 100 : (int) (100 * done / total);
+		double seconds = Math.max(System.nanoTime() - startTime, 1) / 1e9;
+		progressBar.setValue(percent);
+		progressBar.setString(String.format("%d%%  -  %.1f MB/s", percent, done / seconds / 1e6));
+	}
 
-		} catch (FileNotFoundException e) {
+	/**
+	 * Enable the CANCEL button while a job runs, and the job buttons and the
+	 * file pickers and fields while none does.
+	 */
+	private static void setFileJobRunning(boolean isRunning) {
+		encryptButton.setEnabled(!isRunning);
+		decryptButton.setEnabled(!isRunning);
+		verifyButton.setEnabled(!isRunning);
+		plainTextButton.setEnabled(!isRunning);
+		cipherTextButton.setEnabled(!isRunning);
+		keyButton.setEnabled(!isRunning);
+		plainTextField.setEnabled(!isRunning);
+		cipherTextField.setEnabled(!isRunning);
+		keyField.setEnabled(!isRunning);
+		cancelButton.setEnabled(isRunning);
+	}
+
+	/**
+	 * Show the error a file job ended with.
+	 */
+	private static void showFileJobError(Throwable e, int job) {
+		if (e instanceof FileProgress.CancelledException) {
+			GuiUtils.PopUpMessages.cancelMsg(job != VERIFY_JOB);
+		} else if (e instanceof FileNotFoundException) {
 			GuiUtils.PopUpMessages.errorMsg("Some file(s) doesn't exist");
-		} catch (IOException e) {
+		} else if (e instanceof IOException) {
 			GuiUtils.PopUpMessages.errorMsg("Can't read from file");
-		} catch (NullPointerException e) {
+		} else if (e instanceof NullPointerException) {
 			GuiUtils.PopUpMessages.errorMsg("Your file(s) are empty");
-		} catch (IllegalArgumentException e) {
+		} else if (e instanceof IllegalArgumentException) {
 			GuiUtils.PopUpMessages.errorMsg("Can't translate cipher-text to radix64");
-		} catch (Exception e) {
-			GuiUtils.PopUpMessages.errorMsg("ERROR (101): " + e.getMessage());
-		} finally {
-			try {
-				closingStreams();
-			} catch (IOException e) {
-				GuiUtils.PopUpMessages.errorMsg("Can't read from file");
-			}
+		} else {
+			// If we still have an unknown error this should catch it.
+			GuiUtils.PopUpMessages.errorMsg("ERROR (" + (100 + job) + "): " + e.getMessage());
 		}
 	}
 
-	private void verify() {
+	private void closeFiles() {
 		try {
-			boolean result = Feistel.verify();
-			GuiUtils.PopUpMessages.verifyMsg(result);
-
-		} catch (FileNotFoundException e) {
-			GuiUtils.PopUpMessages.errorMsg("Some file(s) doesn't exist");
+			closingStreams();
 		} catch (IOException e) {
 			GuiUtils.PopUpMessages.errorMsg("Can't read from file");
-		} catch (NullPointerException e) {
-			GuiUtils.PopUpMessages.errorMsg("Your file(s) are empty");
-		} catch (IllegalArgumentException e) {
-			GuiUtils.PopUpMessages.errorMsg("Can't translate cipher-text to radix64");
-		} catch (Exception e) {
-			// If we still have an unknown error this should catch it.
-			GuiUtils.PopUpMessages.errorMsg("ERROR (102): " + e.getMessage());
-		} finally {
-			try {
-				closingStreams();
-			} catch (IOException e) {
-				GuiUtils.PopUpMessages.errorMsg("Can't read from file");
-			}
 		}
 	}
 
@@ -727,23 +840,39 @@ public class FeistelMainGui extends JFrame {
 		}
 	}
 
-	private static String onTheFlyEncoding(String input, String key) {
-		byte[] plainTextBytes = input.getBytes();
-		byte[] keyBytes = key.getBytes();
-
-		// In case the key is less than 64 bits long.
-		if (keyBytes.length < 8) {
-			keyBytes = new byte[8];
-			System.arraycopy(key.getBytes(), 0, keyBytes, 0, key.getBytes().length);
-		}
-
-		// Encrypt the text.
-		byte[] cipherTextBytes = Feistel.encrypt(plainTextBytes, keyBytes);
-
-		// Convert the resulting byte to base64 text.
-		cipherTextBytes = Base64.getEncoder().encode(cipherTextBytes);
+	/**
+	 * Encrypt the text of the LIVE view in the background, only the blocks
+	 * from the first edited one onward are encrypted again (see
+	 * <code>LiveEncoder</code>). The result is shown unless a newer encryption
+	 * was started meanwhile.
+	 */
+	private static void startLiveEncoding() {
+		liveTimer.stop();
+		final int generation = ++liveGeneration;
+		final String text = OTFPlainText.getText();
+		final String key = OTFKeyText.getText();
+
+		new SwingWorker<String, Void>() {
+			protected String doInBackground() {
+				return liveEncoder.encode(text, key);
+			}
 
-		return new String(cipherTextBytes);
+			protected void done() {
+				if (generation != liveGeneration) {
+					return;
+				}
+				try {
+					OTFCipherText.setText(get());
+				} catch (InterruptedException e) {
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IllegalArgumentException) {
+						GuiUtils.PopUpMessages.errorMsg("Can't translate cipher-text to radix64");
+					} else {
+						GuiUtils.PopUpMessages.errorMsg("ERROR (104): " + e.getCause().getMessage());
+					}
+				}
+			}
+		}.execute();
 	}
 
 	private static String onTheFlyDecoding(String input, String key) throws IllegalArgumentException {
@@ -0,0 +1,96 @@
+import java.io.IOException;
+import java.security.AlgorithmParametersSpi;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.InvalidParameterSpecException;
+import java.util.Arrays;
+
+import javax.crypto.spec.IvParameterSpec;
+
+/**
+ * The FeistelParameters class holds the parameters of the Feistel cipher,
+ * which are just its IV of 8 bytes, as <code>Cipher.getParameters</code>
+ * gives them. It is registered by <code>FeistelProvider</code> as the
+ * "Feistel" <code>AlgorithmParameters</code>. The encoded form is the IV as
+ * an ASN.1 OCTET STRING, like the IV parameters of the other block ciphers.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+public final class FeistelParameters extends AlgorithmParametersSpi {
+	private static final int IV_SIZE = 8; // The size of the IV, in bytes.
+	private static final byte OCTET_STRING = 0x04; // The ASN.1 tag of an OCTET STRING.
+
+	private byte[] iv; // The IV, null before init.
+
+	/**
+	 * Create the parameters, they must be initialized before they are used.
+	 */
+	public FeistelParameters() {
+	}
+
+	@Override
+	protected void engineInit(AlgorithmParameterSpec paramSpec) throws InvalidParameterSpecException {
+		if (!(paramSpec instanceof IvParameterSpec)) {
+			throw new InvalidParameterSpecException("Only an IvParameterSpec is supported");
+		}
+
+		byte[] bytes = ((IvParameterSpec) paramSpec).getIV();
+		if (bytes.length != IV_SIZE) {
+			throw new InvalidParameterSpecException("The IV must be 8 bytes long");
+		}
+		iv = bytes;
+	}
+
+	@Override
+	protected void engineInit(byte[] params) throws IOException {
+		if (params.length != IV_SIZE + 2 || params[0] != OCTET_STRING || params[1] != IV_SIZE) {
+			throw new IOException("The parameters aren't an OCTET STRING of 8 bytes");
+		}
+		iv = Arrays.copyOfRange(params, 2, params.length);
+	}
+
+	@Override
+	protected void engineInit(byte[] params, String format) throws IOException {
+		checkFormat(format);
+		engineInit(params);
+	}
+
+	@Override
+	protected <T extends AlgorithmParameterSpec> T engineGetParameterSpec(Class<T> paramSpec)
+			throws InvalidParameterSpecException {
+		if (!paramSpec.isAssignableFrom(IvParameterSpec.class)) {
+			throw new InvalidParameterSpecException("Only an IvParameterSpec is supported");
+		}
+		return paramSpec.cast(new IvParameterSpec(iv));
+	}
+
+	@Override
+	protected byte[] engineGetEncoded() {
+		byte[] result = new byte[IV_SIZE + 2];
+		result[0] = OCTET_STRING;
+		result[1] = IV_SIZE;
+		System.arraycopy(iv, 0, result, 2, IV_SIZE);
+		return result;
+	}
+
+	@Override
+	protected byte[] engineGetEncoded(String format) throws IOException {
+		checkFormat(format);
+		return engineGetEncoded();
+	}
+
+	@Override
+	protected String engineToString() {
+		return String.format("Feistel IV: %016X", CoreUtils.bytesToLong(iv, 0));
+	}
+
+	/**
+	 * Check that the given encoding format is ASN.1, the only one there is.
+	 */
+	private static void checkFormat(String format) throws IOException {
+		if (format != null && !format.equalsIgnoreCase("ASN.1")) {
+			throw new IOException("Unsupported format " + format);
+		}
+	}
+}
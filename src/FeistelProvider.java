@@ -0,0 +1,44 @@
+import java.security.Provider;
+
+/**
+ * The FeistelProvider class makes the Feistel cipher available through the
+ * Java Cryptography Architecture, as the "Feistel" cipher in CBC mode with
+ * the 0x80 padding of <code>FeistelCipher.encrypt</code>, which is the
+ * "ISO7816-4Padding" of the standard names:
+ *
+ * <pre>
+ * Security.addProvider(new FeistelProvider());
+ * Cipher cipher = Cipher.getInstance("Feistel/CBC/ISO7816-4Padding");
+ * cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "Feistel"));
+ * byte[] cipherText = cipher.doFinal(plainText);
+ * byte[] iv = cipher.getIV(); // A random IV, deciphering needs it.
+ * </pre>
+ *
+ * The cipher can then be used with <code>CipherInputStream</code>,
+ * <code>CipherOutputStream</code> and any number of <code>update</code>
+ * calls, see <code>FeistelCipherSpi</code>.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+public final class FeistelProvider extends Provider {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The name of the provider.
+	 */
+	public static final String NAME = "Feistel";
+
+	/**
+	 * Create the provider.
+	 */
+	public FeistelProvider() {
+		super(NAME, "1.0", "Feistel twist-box cipher (Feistel/CBC/ISO7816-4Padding)");
+		put("Cipher.Feistel", FeistelCipherSpi.class.getName());
+		put("Cipher.Feistel SupportedModes", "CBC");
+		put("Cipher.Feistel SupportedPaddings", "ISO7816-4PADDING");
+		put("Cipher.Feistel SupportedKeyFormats", "RAW");
+		put("AlgorithmParameters.Feistel", FeistelParameters.class.getName());
+	}
+}
@@ -0,0 +1,28 @@
+/**
+ * The formats the cipher-text files can be written in.
+ * 
+ * Happy cow says: "Muuuuuuu.."
+ * 
+ * @author Ben Sabah.
+ */
+enum FileFormat {
+	/**
+	 * The base64 text of the cipher-text, which can be pasted anywhere a text
+	 * can. This is the default format.
+	 */
+	BASE64,
+
+	/**
+	 * A small header followed by the raw cipher-text, see
+	 * <code>BinaryContainer</code>. It is a third smaller than the text and
+	 * needs no encoding pass.
+	 */
+	BINARY,
+
+	/**
+	 * A header and a chunk index followed by fixed-size chunks that are
+	 * chained on their own, see <code>ChunkedFile</code>. A range of the
+	 * plain-text can be read or rewritten by touching only its chunks.
+	 */
+	CHUNKED
+}
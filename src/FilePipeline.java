@@ -0,0 +1,306 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+
+import java.lang.reflect.Method;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The FilePipeline class runs many small file jobs with little overhead per
+ * file: every job runs on a thread of its own, a virtual thread when the JVM
+ * has them (Java 21 and later), which blocks on the file I/O without holding a
+ * CPU, while the cipher work is handed to a bounded pool with a thread for
+ * every core. So the files are read and written with as much concurrency as
+ * the disk takes, and the CPU is never oversubscribed.
+ *
+ * A small file is read whole on the job's thread, encrypted or deciphered
+ * in memory on the CPU pool (by the same code as <code>Feistel.encryptFile</code>
+ * and <code>Feistel.decryptFile</code>, so the files are the same) and then
+ * written whole. A bigger file is streamed by <code>Feistel</code> itself,
+ * which does its I/O and its cipher work together, so it runs on a bounded
+ * pool of its own: a few big files can't hold the CPU pool while they wait
+ * for the disk, and the small files keep flowing past them. At most twice
+ * as many threads as cores do cipher work then.
+ *
+ * The project is built for Java 11, so the virtual threads are looked up by
+ * reflection. Without them a fixed pool of platform threads is used instead.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+final class FilePipeline implements AutoCloseable {
+	static final int SMALL_FILE = 4 * 1024 * 1024; // Bigger files aren't read whole.
+	private static final int PLATFORM_THREADS_PER_CORE = 8; // The I/O threads without virtual threads.
+
+	private final ExecutorService jobs; // The threads the jobs run on.
+	private final ExecutorService cpu; // The bounded pool of the cipher work.
+	private final ExecutorService bigFiles; // The bounded pool of the big files, with their I/O.
+	private final boolean isVirtual; // Whether or not the jobs run on virtual threads.
+
+	/**
+	 * Create a pipeline.
+	 *
+	 * @param cpuThreads
+	 *            The number of threads of the cipher work, usually the number
+	 *            of cores.
+	 */
+	FilePipeline(int cpuThreads) {
+		ExecutorService virtual = newVirtualThreadExecutor();
+		isVirtual = (virtual != null);
+		jobs = isVirtual ? virtual : Executors.newFixedThreadPool(PLATFORM_THREADS_PER_CORE * cpuThreads);
+		cpu = newDaemonPool(cpuThreads, "feistel-cpu-");
+		bigFiles = newDaemonPool(cpuThreads, "feistel-big-");
+	}
+
+	/**
+	 * This function returns a fixed pool of daemon threads, named by the
+	 * given prefix and their number.
+	 */
+	private static ExecutorService newDaemonPool(int threads, final String name) {
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, name + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * This function returns an executor that starts a virtual thread for
+	 * every task, or <code>null</code> in case the JVM has no virtual threads
+	 * (or they are a preview feature that isn't enabled).
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException | UnsupportedOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Whether or not the jobs run on virtual threads.
+	 */
+	boolean isVirtual() {
+		return isVirtual;
+	}
+
+	/**
+	 * The executor to run the jobs on, a thread of it may block on I/O.
+	 */
+	ExecutorService jobs() {
+		return jobs;
+	}
+
+	/**
+	 * This function runs the given cipher work on the CPU pool and waits for
+	 * its result.
+	 *
+	 * @param work
+	 *            The cipher work.
+	 * @return The result of the work.
+	 * @throws IOException
+	 *             In case the work failed with it.
+	 */
+	<T> T compute(Callable<T> work) throws IOException {
+		return await(cpu, work);
+	}
+
+	/**
+	 * This function runs the given job of a big file on the pool of the big
+	 * files and waits for its result.
+	 */
+	private <T> T streamBigFile(Callable<T> job) throws IOException {
+		return await(bigFiles, job);
+	}
+
+	/**
+	 * This function runs the given task on the given pool and waits for its
+	 * result, the failure of the task is thrown as it is.
+	 */
+	private static <T> T await(ExecutorService pool, Callable<T> task) throws IOException {
+		try {
+			return pool.submit(task).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the work");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * The function encrypts the plain-text file into the cipher-text file, the
+	 * result is the same as <code>Feistel.encryptFile</code> gives.
+	 *
+	 * @param cipher
+	 *            The cipher to encrypt with.
+	 * @param mode
+	 *            The mode to chain the blocks with.
+	 * @param format
+	 *            The format to write the cipher-text file in.
+	 * @param plainText
+	 *            The path to the plain-text file.
+	 * @param cipherText
+	 *            The path to the cipher-text file.
+	 * @throws IOException
+	 *             In case of error while read / write to file.
+	 */
+	void encryptFile(final FeistelCipher cipher, final CipherMode mode, final FileFormat format, final Path plainText,
+			final Path cipherText) throws IOException {
+		if (Files.size(plainText) > SMALL_FILE) {
+			streamBigFile(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					try (RandomAccessFile file = new RandomAccessFile(cipherText.toFile(), "rw")) {
+						Feistel.encryptFile(cipher, mode, format, plainText, file);
+					}
+					return null;
+				}
+			});
+			return;
+		}
+
+		long start = CipherMetrics.jobStarted();
+		try {
+			final byte[] input = Files.readAllBytes(plainText);
+			ByteArrayOutputStream output = compute(new Callable<ByteArrayOutputStream>() {
+				@Override
+				public ByteArrayOutputStream call() throws IOException {
+					ByteArrayOutputStream result = new ByteArrayOutputStream(input.length / 3 * 4 + 64);
+					Feistel.encrypt(cipher, mode, format, input.length, new ByteArrayInputStream(input), result);
+					return result;
+				}
+			});
+			Files.write(cipherText, output.toByteArray());
+		} finally {
+			CipherMetrics.jobEnded(CipherMetrics.Operation.ENCRYPT_FILE, start);
+		}
+	}
+
+	/**
+	 * The function deciphers the cipher-text file into the plain-text file,
+	 * the result is the same as <code>Feistel.decryptFile</code> gives.
+	 *
+	 * @param cipher
+	 *            The cipher to decipher with.
+	 * @param cipherText
+	 *            The path to the cipher-text file.
+	 * @param plainText
+	 *            The path to the plain-text file.
+	 * @throws IOException
+	 *             In case of error while read / write to file.
+	 * @throws IllegalArgumentException
+	 *             In case of base64 translation error
+	 */
+	void decryptFile(final FeistelCipher cipher, final Path cipherText, final Path plainText)
+			throws IOException, IllegalArgumentException {
+		if (Files.size(cipherText) > SMALL_FILE) {
+			streamBigFile(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					try (RandomAccessFile file = new RandomAccessFile(plainText.toFile(), "rw")) {
+						Feistel.decryptFile(cipher, cipherText, file);
+					}
+					return null;
+				}
+			});
+			return;
+		}
+
+		long start = CipherMetrics.jobStarted();
+		try {
+			final byte[] input = Files.readAllBytes(cipherText);
+			ByteArrayOutputStream output = compute(new Callable<ByteArrayOutputStream>() {
+				@Override
+				public ByteArrayOutputStream call() throws IOException {
+					ByteArrayOutputStream result = new ByteArrayOutputStream(input.length);
+					Feistel.decipher(cipher, new ByteArrayInputStream(input), result);
+					return result;
+				}
+			});
+			Files.write(plainText, output.toByteArray());
+		} finally {
+			CipherMetrics.jobEnded(CipherMetrics.Operation.DECRYPT_FILE, start);
+		}
+	}
+
+	/**
+	 * This method verifies that the cipher-text file deciphers to the
+	 * plain-text file, see <code>Feistel.verify</code>.
+	 *
+	 * @param cipher
+	 *            The cipher to decipher with.
+	 * @param plainText
+	 *            The path to the plain-text file.
+	 * @param cipherText
+	 *            The path to the cipher-text file.
+	 * @return Whether or not the deciphered text is the same as the original
+	 *         text.
+	 * @throws IOException
+	 *             In case of error while reading the files.
+	 * @throws IllegalArgumentException
+	 *             In case of base64 translation error
+	 */
+	boolean verify(final FeistelCipher cipher, final Path plainText, final Path cipherText)
+			throws IOException, IllegalArgumentException {
+		if (Files.size(cipherText) > SMALL_FILE || Files.size(plainText) > SMALL_FILE) {
+			return streamBigFile(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws IOException {
+					return Feistel.verify(cipher, plainText, cipherText);
+				}
+			});
+		}
+
+		long start = CipherMetrics.jobStarted();
+		try {
+			final byte[] plainTextBytes = Files.readAllBytes(plainText);
+			final byte[] cipherTextBytes = Files.readAllBytes(cipherText);
+			return compute(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws IOException {
+					return Feistel.verify(cipher, new ByteArrayInputStream(plainTextBytes), plainTextBytes.length,
+							new ByteArrayInputStream(cipherTextBytes), cipherTextBytes.length);
+				}
+			});
+		} finally {
+			CipherMetrics.jobEnded(CipherMetrics.Operation.VERIFY, start);
+		}
+	}
+
+	/**
+	 * Stop the threads, after the jobs that were given already.
+	 */
+	@Override
+	public void close() {
+		jobs.shutdown();
+		cpu.shutdown();
+		bigFiles.shutdown();
+	}
+}
@@ -0,0 +1,123 @@
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * The FileProgress class tracks a file job that runs on another thread: the
+ * job reports the bytes of its input file as it reads them, and another
+ * thread (the GUI) reads the progress and may cancel the job. A cancelled job
+ * throws a <code>CancelledException</code> the next time it reports, which is
+ * at least every 64KB of input.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+final class FileProgress {
+	private volatile long total; // The length of the input file.
+	private volatile long done; // The bytes handled so far, written by the job only.
+	private volatile boolean cancelled; // Whether or not the job was cancelled.
+
+	/**
+	 * This function is called by the job when it starts.
+	 *
+	 * @param total
+	 *            The number of bytes the job is going to read.
+	 */
+	void start(long total) {
+		this.total = total;
+		this.done = 0;
+	}
+
+	/**
+	 * This function is called by the job after it handled some bytes.
+	 *
+	 * @param bytes
+	 *            The number of bytes that were handled.
+	 * @throws CancelledException
+	 *             In case the job was cancelled.
+	 */
+	void advance(long bytes) throws CancelledException {
+		if (cancelled) {
+			throw new CancelledException();
+		}
+		done += bytes;
+	}
+
+	/**
+	 * Cancel the job, it stops the next time it reports its progress.
+	 */
+	void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Whether or not the job was cancelled.
+	 */
+	boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * The number of bytes the job is going to read.
+	 */
+	long total() {
+		return total;
+	}
+
+	/**
+	 * The number of bytes the job handled so far.
+	 */
+	long done() {
+		return done;
+	}
+
+	/**
+	 * This function returns a stream that reports everything that is read
+	 * from the given stream.
+	 *
+	 * @param input
+	 *            The stream to track.
+	 * @return The tracking stream.
+	 */
+	InputStream track(InputStream input) {
+		return new FilterInputStream(input) {
+			@Override
+			public int read() throws IOException {
+				int b = super.read();
+				if (b != -1) {
+					advance(1);
+				}
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int count = super.read(b, off, len);
+				if (count > 0) {
+					advance(count);
+				}
+				return count;
+			}
+
+			@Override
+			public long skip(long n) throws IOException {
+				long count = super.skip(n);
+				advance(count);
+				return count;
+			}
+		};
+	}
+
+	/**
+	 * Thrown by the job once it was cancelled.
+	 */
+	static final class CancelledException extends InterruptedIOException {
+		private static final long serialVersionUID = 1L;
+
+		CancelledException() {
+			super("The job was cancelled");
+		}
+	}
+}
@@ -100,6 +100,11 @@ class GuiUtils {
 			String msg = (isSuccessful) ? "Verification Passed." : "Verification failed.";
 			rawMsg(msg, "Verification:", (isSuccessful) ? SUCCESS : FAIL);
 		}
+
+		static void cancelMsg(boolean hasOutput) {
+			String msg = (hasOutput) ? "Cancelled, the output file was left empty." : "Cancelled.";
+			rawMsg(msg, "Cancelled:", FAIL);
+		}
 	}
 
 	/**
@@ -0,0 +1,167 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The KeyScheduleCache class keeps the sub-keys of the most recently used
+ * master keys, so encrypting many short messages under a small set of keys
+ * doesn't repeat the key expansion every time. Only the first 64 bits of a
+ * master key are used by the key schedule, so these are what the cache is
+ * keyed by.
+ *
+ * Lookups don't lock, a hit only marks its key as used. When the cache is
+ * full a miss evicts a key that wasn't used lately, the way the CLOCK page
+ * replacement does: the keys sit in a ring, and a hand goes around it,
+ * giving every used key a second chance (it is unmarked and skipped) until
+ * it finds an unused one. So the eviction is close to LRU, and a miss takes
+ * a short lock rather than a scan of the whole cache.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+final class KeyScheduleCache {
+	static final int DEFAULT_CAPACITY = 64;
+
+	/**
+	 * The cache used by the <code>Feistel</code> class.
+	 */
+	static final KeyScheduleCache SHARED = new KeyScheduleCache(DEFAULT_CAPACITY);
+
+	private final Map<Long, Entry> entries = new ConcurrentHashMap<Long, Entry>();
+	private final Entry[] ring; // The cached keys, in the order the hand visits them.
+	private int count; // The number of keys in the ring.
+	private int hand; // The slot of the ring to look at next.
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * A cached key schedule and whether it was used since the hand last
+	 * passed it.
+	 */
+	private static final class Entry {
+		final Long id;
+		final long[] subKeys;
+		volatile boolean isUsed;
+
+		Entry(Long id, long[] subKeys) {
+			this.id = id;
+			this.subKeys = subKeys;
+		}
+	}
+
+	/**
+	 * Create a new cache.
+	 *
+	 * @param capacity
+	 *            The maximal number of keys to keep.
+	 * @throws IllegalArgumentException
+	 *             In case the capacity isn't positive.
+	 */
+	KeyScheduleCache(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("The cache capacity must be positive");
+		}
+		ring = new Entry[capacity];
+	}
+
+	/**
+	 * This function returns the 16 sub-keys of the given master key, they are
+	 * generated only if the key isn't in the cache already. The returned array
+	 * is shared and must not be modified.
+	 *
+	 * @param key
+	 *            The master key, only its first 8 bytes are used.
+	 * @return The 16, 48-bit, sub-keys.
+	 * @throws IllegalArgumentException
+	 *             In case the key is shorter than 64 bits.
+	 */
+	long[] subKeys(byte[] key) {
+		if (key.length < 8) {
+			throw new IllegalArgumentException("The key must be at least 64 bits long");
+		}
+
+		Long id = CoreUtils.bytesToLong(key, 0);
+		Entry entry = entries.get(id);
+		if (entry != null) {
+			// Only the first hit since the hand passed writes to the entry.
+			if (!entry.isUsed) {
+				entry.isUsed = true;
+			}
+			hits.increment();
+			return entry.subKeys;
+		}
+
+		// Generate the sub-keys outside the lock, then make room for them.
+		misses.increment();
+		entry = new Entry(id, FeistelEngine.subKeysGenerator(key));
+		add(entry);
+		return entry.subKeys;
+	}
+
+	/**
+	 * Add the entry to the cache, in place of an entry that wasn't used
+	 * lately if the cache is full.
+	 */
+	private synchronized void add(Entry entry) {
+		// Another thread may have added the same key since the lookup.
+		if (entries.containsKey(entry.id)) {
+			return;
+		}
+
+		if (count < ring.length) {
+			ring[count++] = entry;
+		} else {
+			// Give the used keys a second chance, a turn of the ring at most.
+			for (int i = 0; i < ring.length && ring[hand].isUsed; i++) {
+				ring[hand].isUsed = false;
+				hand = (hand + 1) % ring.length;
+			}
+			entries.remove(ring[hand].id);
+			evictions.increment();
+			ring[hand] = entry;
+			hand = (hand + 1) % ring.length;
+		}
+		entries.put(entry.id, entry);
+	}
+
+	/**
+	 * Remove all the keys from the cache, the counters are kept.
+	 */
+	synchronized void clear() {
+		entries.clear();
+		Arrays.fill(ring, null);
+		count = 0;
+		hand = 0;
+	}
+
+	/**
+	 * @return The number of cached keys.
+	 */
+	int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return The number of lookups that found their key in the cache.
+	 */
+	long hits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return The number of lookups that had to generate the sub-keys.
+	 */
+	long misses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return The number of keys that were evicted to keep the capacity.
+	 */
+	long evictions() {
+		return evictions.sum();
+	}
+}
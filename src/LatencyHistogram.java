@@ -0,0 +1,136 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The LatencyHistogram class counts durations in buckets of 4 per power of
+ * two, so every percentile it tells is within 25% of the real one. A record
+ * is a few <code>LongAdder</code> increments with no lock, so any number of
+ * threads can record at once and the histogram can be left on.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+final class LatencyHistogram {
+	private static final int SUB_BUCKETS = 4; // The buckets of every power of two.
+	private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+	private final LongAdder count = new LongAdder();
+	private final LongAdder total = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Create an empty histogram.
+	 */
+	LatencyHistogram() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Record a duration.
+	 *
+	 * @param nanos
+	 *            The duration, in nanoseconds. Negative durations count as 0.
+	 */
+	void record(long nanos) {
+		nanos = Math.max(0, nanos);
+		buckets[bucket(nanos)].increment();
+		count.increment();
+		total.add(nanos);
+
+		// The maximum rarely changes, so this is almost always a single read.
+		long current;
+		while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos)) {
+		}
+	}
+
+	/**
+	 * This function returns the bucket of the given duration: the exact value
+	 * below 4, then 4 buckets for every power of two.
+	 */
+	private static int bucket(long nanos) {
+		if (nanos < SUB_BUCKETS) {
+			return (int) nanos;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		int sub = (int) (nanos >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+		return exponent * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * This function returns the largest duration of the given bucket.
+	 */
+	private static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS;
+		long next = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS + 1) << (exponent - 2);
+		return (next < 0) ? Long.MAX_VALUE : next - 1;
+	}
+
+	/**
+	 * @return The number of recorded durations.
+	 */
+	long count() {
+		return count.sum();
+	}
+
+	/**
+	 * @return The sum of all the recorded durations, in nanoseconds.
+	 */
+	long total() {
+		return total.sum();
+	}
+
+	/**
+	 * @return The longest recorded duration, in nanoseconds.
+	 */
+	long max() {
+		return max.get();
+	}
+
+	/**
+	 * This function returns the given percentile of the recorded durations.
+	 * The durations that are recorded while it runs may or may not be taken.
+	 *
+	 * @param percentile
+	 *            The percentile, between 0 and 100.
+	 * @return The duration, in nanoseconds, rounded up to its bucket (but no
+	 *         more than the maximum). 0 when nothing was recorded.
+	 */
+	long percentile(double percentile) {
+		long[] counts = new long[BUCKETS];
+		long all = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets[i].sum();
+			all += counts[i];
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(all * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS && all > 0; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(upperBound(i), max());
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Forget all the recorded durations, the durations that are recorded
+	 * while it runs may or may not be kept.
+	 */
+	void reset() {
+		for (LongAdder bucket : buckets) {
+			bucket.reset();
+		}
+		count.reset();
+		total.reset();
+		max.set(0);
+	}
+}
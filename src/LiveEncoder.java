@@ -0,0 +1,103 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The LiveEncoder class encrypts the text of the LIVE view as it is edited.
+ * It keeps the plain-text, the cipher-text and the base64 text of the last
+ * call, so an edit at offset k re-encrypts only from the CBC block holding k
+ * onward: every block before it depends only on the blocks before it, so the
+ * cipher blocks and the base64 characters of the unchanged prefix are reused.
+ *
+ * The result is always the same as <code>Feistel.encrypt</code> of the whole
+ * text, in base64. The calls are synchronized, so it can be used from any
+ * background thread.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+final class LiveEncoder {
+	private byte[] key = new byte[0]; // The key of the cached text.
+	private FeistelCipher cipher; // The cipher of the key.
+	private byte[] plainText = new byte[0]; // The last plain-text.
+	private byte[] cipherText = new byte[0]; // Its padded cipher-text.
+	private int cipherLength; // The number of bytes in the cipher-text.
+	private byte[] base64Text = new byte[0]; // The base64 text of the cipher-text.
+	private int base64Length; // The number of characters in the base64 text.
+
+	/**
+	 * This function encrypts the given text with the given key and returns
+	 * the base64 text of the result.
+	 *
+	 * @param text
+	 *            The plain-text, it is encoded with the platform's charset.
+	 * @param keyText
+	 *            The key, padded with zeros in case it is shorter than 64
+	 *            bits.
+	 * @return The base64 text of the cipher-text, empty for an empty text.
+	 */
+	synchronized String encode(String text, String keyText) {
+		byte[] input = text.getBytes();
+		if (input.length == 0) {
+			return "";
+		}
+
+		// A new key changes every block.
+		byte[] keyBytes = Arrays.copyOf(keyText.getBytes(), Math.max(8, keyText.getBytes().length));
+		if (!Arrays.equals(keyBytes, key)) {
+			key = keyBytes;
+			cipher = FeistelCipher.forKey(keyBytes);
+			plainText = new byte[0];
+		}
+
+		// Find the first block that changed, the last block of the cached text holds the padding.
+		int changed = Arrays.mismatch(plainText, input);
+		if (changed == -1) {
+			return new String(base64Text, 0, base64Length, StandardCharsets.US_ASCII);
+		}
+		int firstBlock = changed / 8;
+		encryptFrom(input, firstBlock);
+		encodeFrom(firstBlock * 8);
+		plainText = input;
+		return new String(base64Text, 0, base64Length, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Re-encrypt the given plain-text from the given block onward, the cipher
+	 * blocks before it are kept.
+	 */
+	private void encryptFrom(byte[] input, int firstBlock) {
+		int start = firstBlock * 8;
+		int length = input.length + 8 - input.length % 8;
+		if (cipherText.length < length) {
+			cipherText = Arrays.copyOf(cipherText, Math.max(length, 2 * cipherText.length));
+		}
+
+		// Copy the rest of the input and add the padding bytes: 0x80 followed by zeros.
+		byte[] tail = new byte[length - start];
+		System.arraycopy(input, start, tail, 0, input.length - start);
+		tail[input.length - start] = (byte) 0x80;
+
+		// Continue the chain from the last unchanged cipher block.
+		long iv = (firstBlock == 0) ? Feistel.IV : CoreUtils.bytesToLong(cipherText, start - 8);
+		cipher.encryptCbc(tail, 0, tail.length, cipherText, start, iv);
+		cipherLength = length;
+	}
+
+	/**
+	 * Re-encode the cipher-text from the given byte onward, the characters of
+	 * the whole triplets before it are kept.
+	 */
+	private void encodeFrom(int start) {
+		int triplets = start / 3; // The unchanged triplets.
+		int textLength = (int) Base64Stage.encodedLength(cipherLength);
+		if (base64Text.length < textLength) {
+			base64Text = Arrays.copyOf(base64Text, Math.max(textLength, 2 * base64Text.length));
+		}
+
+		Base64Stage.Encoder encoder = new Base64Stage.Encoder();
+		int written = encoder.update(cipherText, triplets * 3, cipherLength - triplets * 3, base64Text, triplets * 4);
+		written += encoder.doFinal(base64Text, triplets * 4 + written);
+		base64Length = triplets * 4 + written;
+	}
+}
@@ -0,0 +1,238 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The MappedFiles class encrypts and deciphers big files in CBC mode straight
+ * between memory-mapped regions of the plain-text and the cipher-text files,
+ * so nothing is copied through the heap. The files are mapped window after
+ * window, which lets them grow beyond 2GB.
+ *
+ * Every 24 bytes (3 blocks) of cipher-text are exactly 32 base64 characters,
+ * so the windows are made of such groups. Only the last group, which holds
+ * the padding, goes through the heap.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+final class MappedFiles {
+	private static final int GROUP_BYTES = 24; // The bytes of 3 blocks.
+	private static final int GROUP_CHARS = 32; // The base64 text of 3 blocks.
+	private static final int WINDOW_GROUPS = 2 * 1024 * 1024; // The groups mapped at once.
+	private static final int PROGRESS_GROUPS = 4 * 1024; // The groups between progress reports.
+
+	private MappedFiles() {
+	}
+
+	/**
+	 * The function encrypts the plain-text file and writes its base64 text to
+	 * the cipher-text file, the result is the same as
+	 * <code>Feistel.encryptFile</code> gives in CBC mode.
+	 *
+	 * @param cipher
+	 *            The cipher to encrypt with.
+	 * @param plainText
+	 *            The path to the plain-text file.
+	 * @param cipherTextFile
+	 *            The cipher-text file, opened for reading and writing.
+	 * @param progress
+	 *            The progress of the job, the plain-text bytes are reported.
+	 * @throws IOException
+	 *             In case of error while read / write to file.
+	 * @throws FileProgress.CancelledException
+	 *             In case the job was cancelled.
+	 */
+	static void encrypt(FeistelCipher cipher, Path plainText, RandomAccessFile cipherTextFile, FileProgress progress)
+			throws IOException {
+		try (FileChannel input = FileChannel.open(plainText, StandardOpenOption.READ)) {
+			long length = input.size();
+			long body = length / GROUP_BYTES * GROUP_BYTES; // The bytes of the whole groups.
+			long iv = Feistel.IV;
+
+			// The size of the text is known in advance: the padding adds 1 to 8 bytes.
+			cipherTextFile.setLength(Base64Stage.encodedLength(length + 8 - length % 8));
+			FileChannel output = cipherTextFile.getChannel();
+
+			for (long position = 0; position < body; position += (long) WINDOW_GROUPS * GROUP_BYTES) {
+				int size = (int) Math.min((long) WINDOW_GROUPS * GROUP_BYTES, body - position);
+				MappedByteBuffer in = input.map(MapMode.READ_ONLY, position, size);
+				MappedByteBuffer out = output.map(MapMode.READ_WRITE, position / 3 * 4, size / 3 * 4);
+
+				// Encrypt each block, xor'ed with the previous cipher block.
+				for (int i = 0, j = 0; i < size; i += GROUP_BYTES, j += GROUP_CHARS) {
+					if (i % (PROGRESS_GROUPS * GROUP_BYTES) == 0) {
+						progress.advance(Math.min(PROGRESS_GROUPS * GROUP_BYTES, size - i));
+					}
+					long a = cipher.encryptBlock(in.getLong(i) ^ iv);
+					long b = cipher.encryptBlock(in.getLong(i + 8) ^ a);
+					iv = cipher.encryptBlock(in.getLong(i + 16) ^ b);
+					encodeGroup(a, b, iv, out, j);
+				}
+				CipherMetrics.processed(CipherMetrics.Mode.CBC, size);
+			}
+
+			// The rest of the plain-text and the padding.
+			byte[] tail = new byte[(int) (length - body)];
+			readFully(input, tail, body);
+			progress.advance(tail.length);
+			CbcEncryptor encryptor = new CbcEncryptor(cipher, iv);
+			byte[] cipherText = new byte[GROUP_BYTES + 8];
+			int count = encryptor.update(tail, 0, tail.length, cipherText, 0);
+			count += encryptor.doFinal(cipherText, count);
+
+			Base64Stage.Encoder encoder = new Base64Stage.Encoder();
+			byte[] text = new byte[GROUP_CHARS + 12];
+			int textLength = encoder.update(cipherText, 0, count, text, 0);
+			textLength += encoder.doFinal(text, textLength);
+			writeFully(output, text, textLength, body / 3 * 4);
+		}
+	}
+
+	/**
+	 * The function decodes and deciphers the cipher-text file and writes the
+	 * result to the plain-text file. Only padded base64 texts of CBC
+	 * cipher-texts can be deciphered this way, for any other file (CTR or
+	 * binary) nothing is written and <code>false</code> is returned.
+	 *
+	 * @param cipher
+	 *            The cipher to decipher with.
+	 * @param cipherText
+	 *            The path to the cipher-text file.
+	 * @param plainTextFile
+	 *            The plain-text file, opened for reading and writing.
+	 * @param progress
+	 *            The progress of the job, the cipher-text bytes are reported.
+	 * @return Whether or not the file was deciphered.
+	 * @throws IOException
+	 *             In case of error while read / write to file.
+	 * @throws FileProgress.CancelledException
+	 *             In case the job was cancelled.
+	 * @throws IllegalArgumentException
+	 *             In case of base64 translation error, or in case the
+	 *             cipher-text isn't made of whole 64-bit blocks or its last
+	 *             block holds no padding.
+	 */
+	static boolean decrypt(FeistelCipher cipher, Path cipherText, RandomAccessFile plainTextFile,
+			FileProgress progress) throws IOException, IllegalArgumentException {
+		try (FileChannel input = FileChannel.open(cipherText, StandardOpenOption.READ)) {
+			long textLength = input.size();
+			if (textLength == 0 || textLength % 4 != 0) {
+				return false;
+			}
+
+			// Look for the CTR marker (':' isn't a base64 character) or the binary and chunked magic.
+			byte[] marker = new byte[4];
+			readFully(input, marker, 0);
+			if (marker[3] == ':' || BinaryContainer.isContainer(marker, marker.length)
+					|| ChunkedFile.isChunked(marker, marker.length)) {
+				return false;
+			}
+
+			// The last group (which may be partial) goes through the heap, with the group before it.
+			int tailChars = (textLength % GROUP_CHARS == 0) ? GROUP_CHARS : (int) (textLength % GROUP_CHARS);
+			long body = textLength - tailChars; // The characters of the whole groups.
+			byte[] text = new byte[(int) Math.min(textLength, tailChars + GROUP_CHARS)];
+			readFully(input, text, textLength - text.length);
+
+			Base64Stage.Decoder decoder = new Base64Stage.Decoder();
+			byte[] last = new byte[decoder.updateSize(text.length)];
+			int lastLength = decoder.update(text, 0, text.length, last, 0);
+			lastLength += decoder.doFinal(last, lastLength);
+			if (lastLength % 8 != 0) {
+				throw new IllegalArgumentException("The cipher-text must be made of whole 64-bit blocks");
+			}
+
+			// Decipher the last blocks first, they tell the length of the plain-text.
+			int tailStart = (body > 0) ? GROUP_BYTES : 0;
+			long tailIv = (body > 0) ? CoreUtils.bytesToLong(last, tailStart - 8) : Feistel.IV;
+			CbcDecryptor decryptor = new CbcDecryptor(cipher, tailIv);
+			byte[] tail = new byte[GROUP_BYTES + 8];
+			int tailLength = decryptor.update(last, tailStart, lastLength - tailStart, tail, 0);
+			tailLength += decryptor.doFinal(tail, tailLength);
+
+			long bodyBytes = body / 4 * 3;
+			plainTextFile.setLength(bodyBytes + tailLength);
+			FileChannel output = plainTextFile.getChannel();
+			long iv = Feistel.IV;
+
+			for (long position = 0; position < body; position += (long) WINDOW_GROUPS * GROUP_CHARS) {
+				int size = (int) Math.min((long) WINDOW_GROUPS * GROUP_CHARS, body - position);
+				MappedByteBuffer in = input.map(MapMode.READ_ONLY, position, size);
+				MappedByteBuffer out = output.map(MapMode.READ_WRITE, position / 4 * 3, size / 4 * 3);
+
+				// Decipher each block and xor it with the previous cipher block.
+				for (int i = 0, j = 0; i < size; i += GROUP_CHARS, j += GROUP_BYTES) {
+					if (i % (PROGRESS_GROUPS * GROUP_CHARS) == 0) {
+						progress.advance(Math.min(PROGRESS_GROUPS * GROUP_CHARS, size - i));
+					}
+					long t0 = Base64Stage.decodeQuartet(in.getInt(i));
+					long t1 = Base64Stage.decodeQuartet(in.getInt(i + 4));
+					long t2 = Base64Stage.decodeQuartet(in.getInt(i + 8));
+					long t3 = Base64Stage.decodeQuartet(in.getInt(i + 12));
+					long t4 = Base64Stage.decodeQuartet(in.getInt(i + 16));
+					long t5 = Base64Stage.decodeQuartet(in.getInt(i + 20));
+					long t6 = Base64Stage.decodeQuartet(in.getInt(i + 24));
+					long t7 = Base64Stage.decodeQuartet(in.getInt(i + 28));
+					long a = t0 << 40 | t1 << 16 | t2 >>> 8;
+					long b = t2 << 56 | t3 << 32 | t4 << 8 | t5 >>> 16;
+					long c = t5 << 48 | t6 << 24 | t7;
+
+					out.putLong(j, cipher.decryptBlock(a) ^ iv);
+					out.putLong(j + 8, cipher.decryptBlock(b) ^ a);
+					out.putLong(j + 16, cipher.decryptBlock(c) ^ b);
+					iv = c;
+				}
+				CipherMetrics.processed(CipherMetrics.Mode.CBC, size / 4 * 3);
+			}
+
+			writeFully(output, tail, tailLength, bodyBytes);
+			progress.advance(tailChars);
+			return true;
+		}
+	}
+
+	/**
+	 * Encode 3 blocks (24 bytes) into 32 base64 characters.
+	 */
+	private static void encodeGroup(long a, long b, long c, ByteBuffer out, int index) {
+		out.putInt(index, Base64Stage.encodeTriplet((int) (a >>> 40)));
+		out.putInt(index + 4, Base64Stage.encodeTriplet((int) (a >>> 16)));
+		out.putInt(index + 8, Base64Stage.encodeTriplet((int) (a << 8 | b >>> 56)));
+		out.putInt(index + 12, Base64Stage.encodeTriplet((int) (b >>> 32)));
+		out.putInt(index + 16, Base64Stage.encodeTriplet((int) (b >>> 8)));
+		out.putInt(index + 20, Base64Stage.encodeTriplet((int) (b << 16 | c >>> 48)));
+		out.putInt(index + 24, Base64Stage.encodeTriplet((int) (c >>> 24)));
+		out.putInt(index + 28, Base64Stage.encodeTriplet((int) c));
+	}
+
+	/**
+	 * Read the given array from the channel, starting at the given position.
+	 */
+	private static void readFully(FileChannel channel, byte[] array, long position) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(array);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) == -1) {
+				throw new IOException("Unexpected end of file");
+			}
+		}
+	}
+
+	/**
+	 * Write the given bytes to the channel, starting at the given position.
+	 */
+	private static void writeFully(FileChannel channel, byte[] array, int length, long position)
+			throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(array, 0, length);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, position + buffer.position());
+		}
+	}
+}
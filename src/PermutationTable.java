@@ -0,0 +1,76 @@
+/**
+ * The PermutationTable class compiles one of the indexing-tables of the
+ * Feistel class (IP, IPinverse, E, P, PC1, PC2...) into byte-indexed lookup
+ * tables. Applying the permutation is then one lookup for every byte of the
+ * input word, all the results are or'ed together.
+ *
+ * The table keeps its 1-based meaning: the first bit of the output is taken
+ * from the <code>table[0]</code>th bit of the input, where bit number 1 is the
+ * most significant of the <code>inputLength</code> relevant bits.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+final class PermutationTable {
+	private final int inputLength; // The number of relevant input bits.
+	private final long[][] lookup; // The result of every value of every byte.
+
+	/**
+	 * Compile the given indexing-table.
+	 *
+	 * @param table
+	 *            The indexing table, as used by
+	 *            <code>CoreUtils.permutation</code>.
+	 * @param inputLength
+	 *            The number of bits of the words that will be permuted.
+	 * @throws IllegalArgumentException
+	 *             In case the table doesn't fit in a 64-bit word, or points
+	 *             outside of the input.
+	 */
+	PermutationTable(int[] table, int inputLength) {
+		if (table.length > 64 || inputLength < 1 || inputLength > 64) {
+			throw new IllegalArgumentException("Permutations are limited to 64-bit words");
+		}
+
+		this.inputLength = inputLength;
+		lookup = new long[(inputLength - 1) / 8 + 1][256];
+
+		for (int i = 0; i < table.length; i++) {
+			if (table[i] < 1 || table[i] > inputLength) {
+				throw new IllegalArgumentException("Bad index " + table[i] + " in a table of " + inputLength + " bits");
+			}
+
+			// Mark the output bit on every value of the byte holding its input.
+			int whichByte = (table[i] - 1) / 8;
+			int whichBit = (table[i] - 1) % 8;
+			long outputBit = 1L << (table.length - 1 - i);
+			for (int val = 0; val < 256; val++) {
+				if ((val >> (7 - whichBit) & 1) != 0) {
+					lookup[whichByte][val] |= outputBit;
+				}
+			}
+		}
+	}
+
+	/**
+	 * This function applies the permutation on a word.
+	 *
+	 * @param word
+	 *            The word to rearrange, its relevant bits are the lowest
+	 *            <code>inputLength</code> bits.
+	 * @return The permutation of the word (the lowest <code>table.length</code>
+	 *         bits).
+	 */
+	long apply(long word) {
+		long result = 0;
+
+		// Align the first relevant bit to the top, byte i is then at 56 - 8i.
+		word <<= 64 - inputLength;
+		for (int i = 0; i < lookup.length; i++) {
+			result |= lookup[i][(int) (word >>> (56 - 8 * i)) & 0xFF];
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,123 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the SIMD engine gives exactly the blocks of the reference
+ * <code>Feistel.blockEncryptDecrypt</code>, on block counts that don't fill
+ * its vectors, and that <code>feistel.vector=false</code> falls back to the
+ * scalar engine. It is compiled and run by the "vector" build profile only.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+class VectorEngineTest {
+	private final Random random = new Random(15);
+	private VectorEngine engine;
+
+	@BeforeEach
+	void createEngine() {
+		try {
+			engine = new VectorEngine();
+		} catch (UnsupportedOperationException e) {
+			assumeTrue(false, "No SIMD vectors on this CPU");
+		}
+	}
+
+	@Test
+	void matchesTheReference() {
+		int lanes = engine.lanes();
+		int[] counts = { 1, 7, 63, 64, 65, lanes - 1, lanes + 1, 2 * lanes + 37, 3 * lanes - 5 };
+
+		for (int count : counts) {
+			for (boolean isDecrypt : new boolean[] { false, true }) {
+				byte[] key = randomKey();
+				long[] subKeys = FeistelEngine.subKeysGenerator(key);
+				byte[][] referenceSubKeys = CoreUtils.subKeysGenerator(key, Feistel.PC1, Feistel.PC2,
+						Feistel.keyShift);
+				int offset = 1 + 2 * random.nextInt(4);
+				long[] blocks = randomBlocks(offset + count + 3);
+				long[] original = blocks.clone();
+
+				// Whole vectors first, then the partial one.
+				for (int first = 0; first < count; first += lanes) {
+					engine.blockEncryptDecrypt(blocks, offset + first, Math.min(lanes, count - first), subKeys,
+							isDecrypt);
+				}
+
+				for (int i = 0; i < blocks.length; i++) {
+					long expected = original[i];
+					if (i >= offset && i < offset + count) {
+						expected = reference(original[i], referenceSubKeys, isDecrypt);
+					}
+					assertEquals(expected, blocks[i], "Block " + i + " of " + count);
+				}
+			}
+		}
+	}
+
+	@Test
+	void cipherUsesTheVectorEngine() {
+		assertTrue(BatchEngines.BEST instanceof VectorEngine, "The best engine is " + BatchEngines.BEST);
+
+		byte[] key = randomKey();
+		FeistelCipher cipher = FeistelCipher.forKey(key);
+		byte[][] referenceSubKeys = CoreUtils.subKeysGenerator(key, Feistel.PC1, Feistel.PC2, Feistel.keyShift);
+		int count = 2 * engine.lanes() + 41;
+		long[] input = randomBlocks(count);
+		long[] output = new long[count];
+
+		cipher.encryptBlocks(input, 0, output, 0, count);
+		for (int i = 0; i < count; i++) {
+			assertEquals(reference(input[i], referenceSubKeys, false), output[i], "Block " + i);
+		}
+	}
+
+	@Test
+	void propertyFallsBackToTheScalarEngine() {
+		String previous = System.getProperty("feistel.vector");
+		try {
+			System.setProperty("feistel.vector", "false");
+			assertSame(BatchEngines.SLICED, BatchEngines.best());
+
+			System.clearProperty("feistel.vector");
+			assertTrue(BatchEngines.best() instanceof VectorEngine);
+		} finally {
+			if (previous == null) {
+				System.clearProperty("feistel.vector");
+			} else {
+				System.setProperty("feistel.vector", previous);
+			}
+		}
+	}
+
+	/**
+	 * This function runs a block through the reference block function.
+	 */
+	private static long reference(long block, byte[][] subKeys, boolean isDecrypt) {
+		byte[] bytes = new byte[8];
+		CoreUtils.longToBytes(block, bytes, 0);
+		return CoreUtils.bytesToLong(Feistel.blockEncryptDecrypt(bytes, subKeys, isDecrypt), 0);
+	}
+
+	private byte[] randomKey() {
+		byte[] key = new byte[8];
+		random.nextBytes(key);
+		return key;
+	}
+
+	private long[] randomBlocks(int count) {
+		long[] blocks = new long[count];
+		for (int i = 0; i < count; i++) {
+			blocks[i] = random.nextLong();
+		}
+		return blocks;
+	}
+}
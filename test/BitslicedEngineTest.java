@@ -0,0 +1,117 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the bitsliced engine gives exactly the blocks of the reference
+ * <code>Feistel.blockEncryptDecrypt</code>, on random keys, for batches of 1
+ * to 200 blocks at odd offsets, and that deciphering gives the blocks back.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+class BitslicedEngineTest {
+	private static final int TRIALS = 200;
+	private static final int MAX_BLOCKS = 200;
+
+	private final Random random = new Random(14);
+
+	@Test
+	void matchesTheReference() {
+		for (int trial = 0; trial < TRIALS; trial++) {
+			byte[] key = randomKey();
+			long[] subKeys = FeistelEngine.subKeysGenerator(key);
+			byte[][] referenceSubKeys = CoreUtils.subKeysGenerator(key, Feistel.PC1, Feistel.PC2, Feistel.keyShift);
+			int count = 1 + random.nextInt(MAX_BLOCKS);
+			int offset = 1 + 2 * random.nextInt(4);
+			boolean isDecrypt = random.nextBoolean();
+
+			long[] blocks = randomBlocks(offset + count + 3);
+			long[] original = blocks.clone();
+			runBatches(blocks, offset, count, subKeys, isDecrypt);
+
+			// The blocks around the batch are left alone.
+			for (int i = 0; i < blocks.length; i++) {
+				long expected = original[i];
+				if (i >= offset && i < offset + count) {
+					expected = reference(original[i], referenceSubKeys, isDecrypt);
+				}
+				assertEquals(expected, blocks[i], "Trial " + trial + ", block " + i + " of " + count);
+			}
+		}
+	}
+
+	@Test
+	void decryptGivesTheBlocksBack() {
+		for (int count = 1; count <= MAX_BLOCKS; count++) {
+			long[] subKeys = FeistelEngine.subKeysGenerator(randomKey());
+			int offset = 1 + 2 * random.nextInt(4);
+			long[] blocks = randomBlocks(offset + count);
+			long[] original = blocks.clone();
+
+			runBatches(blocks, offset, count, subKeys, false);
+			runBatches(blocks, offset, count, subKeys, true);
+			assertArrayEquals(original, blocks, count + " blocks");
+		}
+	}
+
+	@Test
+	void cipherBatchesMatchTheReference() {
+		for (int count = 1; count <= MAX_BLOCKS; count++) {
+			byte[] key = randomKey();
+			FeistelCipher cipher = FeistelCipher.forKey(key);
+			byte[][] referenceSubKeys = CoreUtils.subKeysGenerator(key, Feistel.PC1, Feistel.PC2, Feistel.keyShift);
+			int offset = 1 + 2 * random.nextInt(4);
+			long[] input = randomBlocks(offset + count);
+			long[] output = new long[count + 1];
+
+			cipher.encryptBlocks(input, offset, output, 1, count);
+			for (int i = 0; i < count; i++) {
+				assertEquals(reference(input[offset + i], referenceSubKeys, false), output[1 + i],
+						"Block " + i + " of " + count);
+			}
+			cipher.decryptBlocks(output, 1, output, 1, count);
+			for (int i = 0; i < count; i++) {
+				assertEquals(input[offset + i], output[1 + i], "Block " + i + " of " + count);
+			}
+		}
+	}
+
+	/**
+	 * Run the blocks through the engine, a whole batch at a time and then the
+	 * rest.
+	 */
+	private static void runBatches(long[] blocks, int offset, int count, long[] subKeys, boolean isDecrypt) {
+		for (int first = 0; first < count; first += BitslicedEngine.LANES) {
+			int lanes = Math.min(BitslicedEngine.LANES, count - first);
+			BitslicedEngine.blockEncryptDecrypt(blocks, offset + first, lanes, subKeys, isDecrypt);
+		}
+	}
+
+	/**
+	 * This function runs a block through the reference block function.
+	 */
+	private static long reference(long block, byte[][] subKeys, boolean isDecrypt) {
+		byte[] bytes = new byte[8];
+		CoreUtils.longToBytes(block, bytes, 0);
+		return CoreUtils.bytesToLong(Feistel.blockEncryptDecrypt(bytes, subKeys, isDecrypt), 0);
+	}
+
+	private byte[] randomKey() {
+		byte[] key = new byte[8];
+		random.nextBytes(key);
+		return key;
+	}
+
+	private long[] randomBlocks(int count) {
+		long[] blocks = new long[count];
+		for (int i = 0; i < count; i++) {
+			blocks[i] = random.nextLong();
+		}
+		return blocks;
+	}
+}
@@ -0,0 +1,191 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the CBC chains that are fed in parts, <code>CbcEncryptor</code> and
+ * <code>CbcDecryptor</code>: the text is split at random points into parts
+ * of 0, 1, 7, 8 and 9 bytes, through arrays and through buffers, and the
+ * result must be exactly that of <code>FeistelCipher.encrypt</code> /
+ * <code>decrypt</code> on the whole text, chain after chain. A cipher-text
+ * that isn't made of whole blocks, or whose last block holds no padding, is
+ * rejected.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+class CbcChainTest {
+	private static final int[] LENGTHS = { 0, 1, 7, 8, 9, 15, 16, 17, 63, 64, 65, 1000 };
+	private static final int[] PARTS = { 0, 1, 7, 8, 9 };
+	private static final int CHAINS = 5;
+
+	private final FeistelCipher cipher = new FeistelCipher("ch41n3d!".getBytes());
+	private final Random random = new Random(6);
+
+	@Test
+	void arraysMatchTheCipher() {
+		CbcEncryptor encryptor = new CbcEncryptor(cipher, Feistel.IV);
+		CbcDecryptor decryptor = new CbcDecryptor(cipher, Feistel.IV);
+
+		// The same chains are used again and again, doFinal starts new ones.
+		for (int chain = 0; chain < CHAINS; chain++) {
+			for (int length : LENGTHS) {
+				byte[] plainText = randomBytes(length);
+				byte[] cipherText = cipher.encrypt(plainText);
+
+				assertArrayEquals(cipherText, encrypt(encryptor, plainText), length + " bytes");
+				assertArrayEquals(plainText, decrypt(decryptor, cipherText), length + " bytes");
+				assertArrayEquals(plainText, cipher.decrypt(cipherText), length + " bytes");
+			}
+		}
+	}
+
+	@Test
+	void buffersMatchTheCipher() {
+		CbcEncryptor encryptor = new CbcEncryptor(cipher, Feistel.IV);
+		CbcDecryptor decryptor = new CbcDecryptor(cipher, Feistel.IV);
+
+		for (int chain = 0; chain < CHAINS; chain++) {
+			for (int length : LENGTHS) {
+				byte[] plainText = randomBytes(length);
+				byte[] cipherText = cipher.encrypt(plainText);
+				boolean isDirect = random.nextBoolean();
+
+				assertArrayEquals(cipherText, encrypt(encryptor, plainText, isDirect), length + " bytes");
+				assertArrayEquals(plainText, decrypt(decryptor, cipherText, isDirect), length + " bytes");
+			}
+		}
+	}
+
+	@Test
+	void partialBlocksAreRejected() {
+		CbcDecryptor decryptor = new CbcDecryptor(cipher, Feistel.IV);
+		byte[] cipherText = cipher.encrypt(randomBytes(20));
+
+		for (int length : new int[] { 0, 1, 7, 9, cipherText.length - 1 }) {
+			IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+					() -> decrypt(decryptor, Arrays.copyOf(cipherText, length)), length + " bytes");
+			assertEquals("The cipher-text must be made of whole 64-bit blocks", e.getMessage());
+		}
+
+		// The chain was started again.
+		assertEquals(20, decrypt(decryptor, cipherText).length);
+	}
+
+	@Test
+	void missingPaddingIsRejected() {
+		CbcDecryptor decryptor = new CbcDecryptor(cipher, Feistel.IV);
+
+		// Blocks of zeros, and blocks whose last non-zero byte isn't 0x80.
+		byte[] zeros = new byte[16];
+		byte[] noMarker = randomBytes(16);
+		noMarker[15] = 0x7F;
+		for (byte[] plainText : new byte[][] { zeros, noMarker }) {
+			byte[] cipherText = new byte[plainText.length];
+			cipher.encryptCbc(plainText, 0, plainText.length, cipherText, 0, Feistel.IV);
+
+			IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+					() -> decrypt(decryptor, cipherText));
+			assertEquals("The last block of the cipher-text holds no padding", e.getMessage());
+			assertThrows(IllegalArgumentException.class, () -> decrypt(decryptor, cipherText, true));
+		}
+
+		byte[] plainText = randomBytes(30);
+		assertArrayEquals(plainText, decrypt(decryptor, cipher.encrypt(plainText)));
+	}
+
+	/**
+	 * Run the text through the encryptor in random parts.
+	 */
+	private byte[] encrypt(CbcEncryptor encryptor, byte[] input) {
+		byte[] output = new byte[input.length + 8];
+		int written = 0;
+		for (int i = 0; i < input.length;) {
+			int count = nextPart(input.length - i);
+			written += encryptor.update(input, i, count, output, written);
+			i += count;
+		}
+		written += encryptor.doFinal(output, written);
+		return Arrays.copyOf(output, written);
+	}
+
+	/**
+	 * Run the text through the decryptor in random parts.
+	 */
+	private byte[] decrypt(CbcDecryptor decryptor, byte[] input) {
+		byte[] output = new byte[input.length + 8];
+		int written = 0;
+		for (int i = 0; i < input.length;) {
+			int count = nextPart(input.length - i);
+			written += decryptor.update(input, i, count, output, written);
+			i += count;
+		}
+		written += decryptor.doFinal(output, written);
+		return Arrays.copyOf(output, written);
+	}
+
+	/**
+	 * Run the text through the encryptor in random parts, from a buffer into
+	 * another.
+	 */
+	private byte[] encrypt(CbcEncryptor encryptor, byte[] input, boolean isDirect) {
+		ByteBuffer output = allocate(input.length + 8, isDirect);
+		for (int i = 0; i < input.length;) {
+			int count = nextPart(input.length - i);
+			ByteBuffer part = allocate(count, isDirect).put(input, i, count).flip();
+			encryptor.update(part, output);
+			assertEquals(0, part.remaining());
+			i += count;
+		}
+		encryptor.doFinal(output);
+		return toBytes(output);
+	}
+
+	/**
+	 * Run the text through the decryptor in random parts, from a buffer into
+	 * another.
+	 */
+	private byte[] decrypt(CbcDecryptor decryptor, byte[] input, boolean isDirect) {
+		ByteBuffer output = allocate(input.length + 8, isDirect);
+		for (int i = 0; i < input.length;) {
+			int count = nextPart(input.length - i);
+			ByteBuffer part = allocate(count, isDirect).put(input, i, count).flip();
+			decryptor.update(part, output);
+			assertEquals(0, part.remaining());
+			i += count;
+		}
+		decryptor.doFinal(output);
+		return toBytes(output);
+	}
+
+	/**
+	 * This function returns the size of the next part, at most the given
+	 * number of bytes that are left.
+	 */
+	private int nextPart(int left) {
+		return Math.min(PARTS[random.nextInt(PARTS.length)], left);
+	}
+
+	private static ByteBuffer allocate(int capacity, boolean isDirect) {
+		return (isDirect) ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+
+	private static byte[] toBytes(ByteBuffer buffer) {
+		byte[] result = new byte[buffer.flip().remaining()];
+		buffer.get(result);
+		return result;
+	}
+
+	private byte[] randomBytes(int length) {
+		byte[] result = new byte[length];
+		random.nextBytes(result);
+		return result;
+	}
+}
@@ -0,0 +1,193 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests the random access to chunked files: random reads and rewrites, most
+ * of them across chunk boundaries, are checked against a copy of the
+ * plain-text in memory, and the file is deciphered as a stream at the end.
+ * A rewrite that was torn by a crash must leave the old or the new chunk.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+class ChunkedFileTest {
+	private static final int STEPS = 300;
+
+	private final FeistelCipher cipher = FeistelCipher.forKey("k3y-fe15".getBytes());
+	private final Random random = new Random(25);
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void readsAndRewritesMatchTheModel() throws IOException {
+		for (CipherMode mode : CipherMode.values()) {
+			for (int chunkSize : new int[] { 8, 4096 }) {
+				for (int length : new int[] { 0, 1, chunkSize - 1, chunkSize, chunkSize + 1, 5 * chunkSize + 3 }) {
+					checkRandomAccess(mode, chunkSize, length);
+				}
+			}
+		}
+	}
+
+	@Test
+	void tornRewriteLeavesTheNewChunk() throws IOException {
+		byte[] plainText = randomBytes(5 * 4096);
+		Path file = create(CipherMode.CBC, 4096, plainText);
+		byte[] original = Files.readAllBytes(file);
+
+		// Rewrite a range of chunk 1 and keep the journal that it left behind.
+		byte[] update = randomBytes(100);
+		byte[] updated;
+		try (ChunkedFile chunked = ChunkedFile.open(cipher, file, true)) {
+			chunked.write(5000, update, 0, update.length);
+			updated = Files.readAllBytes(file);
+		}
+		System.arraycopy(update, 0, plainText, 5000, update.length);
+
+		// The crash came after the flag was set, half-way through overwriting the chunk.
+		byte[] torn = Arrays.copyOf(original, updated.length);
+		System.arraycopy(updated, original.length, torn, original.length, updated.length - original.length);
+		System.arraycopy(updated, chunkOffset(5, 4096, 1), torn, chunkOffset(5, 4096, 1), 2048);
+		torn[6] = 1;
+		Files.write(file, torn);
+
+		assertThrows(IllegalArgumentException.class, () -> ChunkedFile.open(cipher, file, false));
+		assertThrows(IllegalArgumentException.class, () -> decrypt(file));
+		try (ChunkedFile chunked = ChunkedFile.open(cipher, file, true)) {
+			assertArrayEquals(plainText, readAll(chunked));
+		}
+		assertEquals(original.length, Files.size(file));
+		assertArrayEquals(plainText, decrypt(file));
+	}
+
+	@Test
+	void tornJournalLeavesTheOldChunk() throws IOException {
+		byte[] plainText = randomBytes(5 * 4096);
+		Path file = create(CipherMode.CTR, 4096, plainText);
+
+		// The crash came while the journal was written, before the flag was set.
+		byte[] torn = Arrays.copyOf(Files.readAllBytes(file), (int) Files.size(file) + 1000);
+		Arrays.fill(torn, torn.length - 1000, torn.length, (byte) 0x5A);
+		Files.write(file, torn);
+
+		try (ChunkedFile chunked = ChunkedFile.open(cipher, file, false)) {
+			assertArrayEquals(plainText, readAll(chunked));
+		}
+		assertArrayEquals(plainText, decrypt(file));
+	}
+
+	@Test
+	void rangesAreChecked() throws IOException {
+		Path file = create(CipherMode.CBC, 8, randomBytes(20));
+
+		try (ChunkedFile chunked = ChunkedFile.open(cipher, file, true)) {
+			byte[] buffer = new byte[10];
+			assertThrows(IndexOutOfBoundsException.class, () -> chunked.read(0, buffer, 0, -1));
+			assertThrows(IndexOutOfBoundsException.class, () -> chunked.read(0, buffer, 5, 6));
+			assertThrows(IllegalArgumentException.class, () -> chunked.read(-1, buffer, 0, 1));
+			assertThrows(IndexOutOfBoundsException.class, () -> chunked.write(0, buffer, -1, 2));
+			assertThrows(IllegalArgumentException.class, () -> chunked.write(15, buffer, 0, 6));
+			assertEquals(-1, chunked.read(20, buffer, 0, 1));
+			assertEquals(0, chunked.read(0, buffer, 0, 0));
+		}
+	}
+
+	/**
+	 * Run random reads and rewrites on a new file and compare them to the
+	 * plain-text in memory.
+	 */
+	private void checkRandomAccess(CipherMode mode, int chunkSize, int length) throws IOException {
+		String name = mode + " chunk " + chunkSize + " length " + length;
+		byte[] model = randomBytes(length);
+		Path file = create(mode, chunkSize, model);
+		long fileLength = Files.size(file);
+
+		try (ChunkedFile chunked = ChunkedFile.open(cipher, file, true)) {
+			assertEquals(length, chunked.length(), name);
+			for (int step = 0; step < STEPS; step++) {
+				// The ranges start anywhere and may cover a few chunks.
+				int position = random.nextInt(length + 1);
+				int count = random.nextInt(3 * chunkSize + 2);
+
+				if (random.nextBoolean()) {
+					byte[] buffer = new byte[count + 2];
+					int read = chunked.read(position, buffer, 1, count);
+					int expected = Math.min(count, length - position);
+					if (position == length && count > 0) {
+						assertEquals(-1, read, name);
+					} else {
+						assertEquals(expected, read, name);
+						assertArrayEquals(Arrays.copyOfRange(model, position, position + expected),
+								Arrays.copyOfRange(buffer, 1, 1 + read), name);
+					}
+				} else {
+					count = Math.min(count, length - position);
+					byte[] update = randomBytes(count);
+					chunked.write(position, update, 0, count);
+					System.arraycopy(update, 0, model, position, count);
+				}
+			}
+			assertArrayEquals(model, readAll(chunked), name);
+		}
+
+		assertEquals(fileLength, Files.size(file), name);
+		assertArrayEquals(model, decrypt(file), name);
+	}
+
+	/**
+	 * Write a chunked file of the given plain-text.
+	 */
+	private Path create(CipherMode mode, int chunkSize, byte[] plainText) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ChunkedFile.encrypt(cipher, mode, chunkSize, plainText.length, new ByteArrayInputStream(plainText), output);
+		return Files.write(Files.createTempFile(directory, "chunked", ".bin"), output.toByteArray());
+	}
+
+	/**
+	 * Decipher the file as a stream.
+	 */
+	private byte[] decrypt(Path file) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ChunkedFile.decrypt(cipher, new ByteArrayInputStream(Files.readAllBytes(file)), output);
+		return output.toByteArray();
+	}
+
+	/**
+	 * Read the whole plain-text through random access.
+	 */
+	private static byte[] readAll(ChunkedFile chunked) throws IOException {
+		byte[] result = new byte[(int) chunked.length()];
+		if (result.length > 0) {
+			assertEquals(result.length, chunked.read(0, result, 0, result.length));
+		}
+		return result;
+	}
+
+	/**
+	 * This function returns the position of the given chunk in a file of the
+	 * given number of chunks.
+	 */
+	private static int chunkOffset(int chunkCount, int chunkSize, int i) {
+		return ChunkedFile.HEADER_SIZE + chunkCount * 8 + i * chunkSize;
+	}
+
+	private byte[] randomBytes(int length) {
+		byte[] result = new byte[length];
+		random.nextBytes(result);
+		return result;
+	}
+}
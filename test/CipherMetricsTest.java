@@ -0,0 +1,130 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the CBC byte and block counters see every block once, whichever
+ * way the text goes through the chain: the buffers, the streams and the JCA
+ * cipher fed a few bytes at a time, so that most blocks are completed from
+ * the bytes kept by the previous call.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+class CipherMetricsTest {
+	private static final int[] LENGTHS = { 0, 1, 7, 8, 9, 63, 64, 65, 100003 };
+
+	private final byte[] key = "m3tr1c5!".getBytes();
+	private final FeistelCipher cipher = new FeistelCipher(key);
+	private final Random random = new Random(23);
+
+	@Test
+	void buffersAreCounted() {
+		for (int length : LENGTHS) {
+			byte[] plainText = randomBytes(length);
+			ByteBuffer cipherText = ByteBuffer.allocateDirect(padded(length));
+			ByteBuffer result = ByteBuffer.allocate(padded(length));
+
+			long bytes = CipherMetrics.INSTANCE.getCbcBytes();
+			long blocks = CipherMetrics.INSTANCE.getCbcBlocks();
+			cipher.encrypt(ByteBuffer.wrap(plainText), cipherText);
+			cipherText.flip();
+			cipher.decrypt(cipherText, result);
+
+			assertArrayEquals(plainText, Arrays.copyOf(result.array(), result.position()), length + " bytes");
+			checkCounted(length, bytes, blocks);
+		}
+	}
+
+	@Test
+	void streamsAreCounted() throws IOException {
+		for (int length : LENGTHS) {
+			byte[] plainText = randomBytes(length);
+			ByteArrayOutputStream cipherText = new ByteArrayOutputStream();
+			ByteArrayOutputStream result = new ByteArrayOutputStream();
+
+			long bytes = CipherMetrics.INSTANCE.getCbcBytes();
+			long blocks = CipherMetrics.INSTANCE.getCbcBlocks();
+			cipher.encrypt(new ByteArrayInputStream(plainText), cipherText);
+			cipher.decrypt(new ByteArrayInputStream(cipherText.toByteArray()), result);
+
+			assertArrayEquals(plainText, result.toByteArray(), length + " bytes");
+			checkCounted(length, bytes, blocks);
+		}
+	}
+
+	@Test
+	void providerIsCounted() throws GeneralSecurityException {
+		Cipher jca = Cipher.getInstance("Feistel", new FeistelProvider());
+		SecretKeySpec secretKey = new SecretKeySpec(key, "Feistel");
+
+		for (int length : LENGTHS) {
+			byte[] plainText = randomBytes(length);
+
+			long bytes = CipherMetrics.INSTANCE.getCbcBytes();
+			long blocks = CipherMetrics.INSTANCE.getCbcBlocks();
+			jca.init(Cipher.ENCRYPT_MODE, secretKey);
+			byte[] cipherText = updateInSmallSteps(jca, plainText);
+			jca.init(Cipher.DECRYPT_MODE, secretKey, new IvParameterSpec(jca.getIV()));
+			byte[] result = updateInSmallSteps(jca, cipherText);
+
+			assertArrayEquals(plainText, result, length + " bytes");
+			checkCounted(length, bytes, blocks);
+		}
+	}
+
+	/**
+	 * Check that a text of the given length was counted twice, once encrypted
+	 * and once deciphered, since the counters were read.
+	 */
+	private static void checkCounted(int length, long bytes, long blocks) {
+		assertEquals(2L * padded(length), CipherMetrics.INSTANCE.getCbcBytes() - bytes, length + " bytes");
+		assertEquals(2L * padded(length) / 8, CipherMetrics.INSTANCE.getCbcBlocks() - blocks, length + " bytes");
+	}
+
+	/**
+	 * Run the text through the cipher 1 to 7 bytes at a time.
+	 */
+	private byte[] updateInSmallSteps(Cipher jca, byte[] input) throws GeneralSecurityException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		for (int i = 0; i < input.length;) {
+			int count = Math.min(1 + random.nextInt(7), input.length - i);
+			byte[] part = jca.update(input, i, count);
+			if (part != null) {
+				output.write(part, 0, part.length);
+			}
+			i += count;
+		}
+		byte[] last = jca.doFinal();
+		output.write(last, 0, last.length);
+		return output.toByteArray();
+	}
+
+	/**
+	 * This function returns the length of the cipher-text of a plain-text of
+	 * the given length.
+	 */
+	private static int padded(int length) {
+		return (length / 8 + 1) * 8;
+	}
+
+	private byte[] randomBytes(int length) {
+		byte[] result = new byte[length];
+		random.nextBytes(result);
+		return result;
+	}
+}
@@ -0,0 +1,189 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests the batch runner on manifests in a temporary directory, on a pool and
+ * on virtual threads: the exit code and the counts of the JSON summary for
+ * jobs that succeed, a verification that fails and a missing file, the usage
+ * errors, and the parsing of the manifests (the number of fields, the
+ * comments and the relative paths).
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+class FeistelBatchTest {
+	private static final String[][] EXECUTORS = { {}, { "-virtual" } };
+
+	private final Random random = new Random(21);
+	private String summary; // The summary of the last run.
+	private String errors; // The standard error of the last run.
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void jobsThatSucceedExitWithOk() throws IOException {
+		for (String[] executor : EXECUTORS) {
+			byte[] plainText = createFiles();
+
+			assertEquals(FeistelBatch.EXIT_OK, run(executor, "# Encrypt in every format.",
+					"encrypt\tp.txt\tc.txt\tk.txt",
+					"",
+					"encrypt-ctr-binary\tp.txt\tc-ctr.bin\tk.txt",
+					"encrypt-chunked\tp.txt\tc.chunked\tk.txt"));
+			checkCounts(3, 0, 0);
+
+			assertEquals(FeistelBatch.EXIT_OK, run(executor, "decrypt\tcopy.txt\tc.txt\tk.txt",
+					"decrypt\tcopy-ctr.txt\tc-ctr.bin\tk.txt",
+					"verify\tp.txt\tc.chunked\tk.txt"));
+			checkCounts(3, 0, 0);
+			assertArrayEquals(plainText, Files.readAllBytes(directory.resolve("copy.txt")));
+			assertArrayEquals(plainText, Files.readAllBytes(directory.resolve("copy-ctr.txt")));
+		}
+	}
+
+	@Test
+	void failedVerificationExitsWithVerifyFailed() throws IOException {
+		for (String[] executor : EXECUTORS) {
+			createFiles();
+			assertEquals(FeistelBatch.EXIT_OK, run(executor, "encrypt\tp.txt\tc.txt\tk.txt"));
+
+			assertEquals(FeistelBatch.EXIT_VERIFY_FAILED, run(executor, "verify\tp.txt\tc.txt\tk.txt",
+					"verify\tother.txt\tc.txt\tk.txt"));
+			checkCounts(1, 1, 0);
+		}
+	}
+
+	@Test
+	void missingFileExitsWithError() throws IOException {
+		for (String[] executor : EXECUTORS) {
+			createFiles();
+			assertEquals(FeistelBatch.EXIT_OK, run(executor, "encrypt\tp.txt\tc.txt\tk.txt"));
+
+			assertEquals(FeistelBatch.EXIT_ERROR, run(executor, "encrypt-binary\tp.txt\tc.bin\tk.txt",
+					"decrypt\tcopy.txt\tc.txt\tk.txt",
+					"verify\tother.txt\tc.txt\tk.txt",
+					"encrypt\tmissing.txt\tc-missing.txt\tk.txt"));
+			checkCounts(2, 1, 1);
+			assertTrue(summary.contains("\"status\":\"error\",\"millis\":"), summary);
+			assertTrue(summary.contains("NoSuchFileException"), summary);
+		}
+	}
+
+	@Test
+	void usageErrorsExitWithUsage() throws IOException {
+		createFiles();
+
+		assertEquals(FeistelBatch.EXIT_USAGE, run(new String[0], "shred\tp.txt\tc.txt\tk.txt"));
+		assertTrue(errors.contains("Unknown action \"shred\""), errors);
+		assertEquals(FeistelBatch.EXIT_USAGE, run(new String[0], "encrypt\tp.txt\tc.txt"));
+		assertTrue(errors.contains("Line 1 must have 4 tab separated fields"), errors);
+		assertEquals(FeistelBatch.EXIT_USAGE, run(new String[0], "encrypt p.txt c.txt k.txt"));
+
+		assertEquals(FeistelBatch.EXIT_USAGE, run(new String[0], new PrintStream(new ByteArrayOutputStream())));
+		assertEquals(FeistelBatch.EXIT_USAGE, run(new String[] { "-threads", "0", directory.toString() },
+				new PrintStream(new ByteArrayOutputStream())));
+		assertEquals(FeistelBatch.EXIT_USAGE, run(new String[] { "-unknown", directory.toString() },
+				new PrintStream(new ByteArrayOutputStream())));
+		assertEquals("", summary);
+	}
+
+	@Test
+	void manifestIsParsed() throws IOException {
+		Path manifest = Files.createDirectories(directory.resolve("jobs")).resolve("manifest.txt");
+		Path absolute = directory.resolve("key.txt").toAbsolutePath();
+		Files.write(manifest, Arrays.asList("# A comment\tthat has\ttabs\tin it",
+				"   ",
+				"encrypt-ctr\tin/p.txt\t../c.txt\t" + absolute,
+				" verify \tp.txt\tc.txt\tk.txt"), StandardCharsets.UTF_8);
+
+		List<FeistelBatch.Job> jobs = FeistelBatch.readManifest(manifest);
+		assertEquals(2, jobs.size());
+
+		Path base = manifest.toAbsolutePath().getParent();
+		FeistelBatch.Job job = jobs.get(0);
+		assertEquals(FeistelBatch.Action.ENCRYPT_CTR, job.action);
+		assertEquals(base.resolve("in/p.txt"), job.plainText);
+		assertEquals(base.resolve("../c.txt"), job.cipherText);
+		assertEquals(absolute, job.key);
+		assertEquals(FeistelBatch.Action.VERIFY, jobs.get(1).action);
+
+		Files.write(manifest, Arrays.asList("verify\tp.txt\tc.txt\tk.txt", "verify\tp.txt\tc.txt\tk.txt\textra"),
+				StandardCharsets.UTF_8);
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+				() -> FeistelBatch.readManifest(manifest));
+		assertEquals("Line 2 must have 4 tab separated fields", e.getMessage());
+	}
+
+	/**
+	 * Write the plain-text, another file of the same length and the key file.
+	 *
+	 * @return The plain-text.
+	 */
+	private byte[] createFiles() throws IOException {
+		byte[] plainText = new byte[10000 + random.nextInt(1000)];
+		random.nextBytes(plainText);
+		byte[] other = plainText.clone();
+		other[random.nextInt(other.length)] ^= 1;
+
+		Files.write(directory.resolve("p.txt"), plainText);
+		Files.write(directory.resolve("other.txt"), other);
+		Files.write(directory.resolve("k.txt"), "b4tchk3y".getBytes(StandardCharsets.UTF_8));
+		return plainText;
+	}
+
+	/**
+	 * Run the given manifest lines, the files are in the temporary directory.
+	 *
+	 * @return The exit code.
+	 */
+	private int run(String[] options, String... lines) throws IOException {
+		Path manifest = Files.write(directory.resolve("manifest.txt"), Arrays.asList(lines), StandardCharsets.UTF_8);
+		String[] args = Arrays.copyOf(options, options.length + 3);
+		args[options.length] = "-threads";
+		args[options.length + 1] = "2";
+		args[options.length + 2] = manifest.toString();
+
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		int code = run(args, new PrintStream(err, true, "UTF-8"));
+		errors = new String(err.toByteArray(), StandardCharsets.UTF_8);
+		return code;
+	}
+
+	/**
+	 * Run the batch with the given command line.
+	 *
+	 * @return The exit code.
+	 */
+	private int run(String[] args, PrintStream err) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int code = FeistelBatch.run(args, new PrintStream(out, true, "UTF-8"), err);
+		summary = new String(out.toByteArray(), StandardCharsets.UTF_8).trim();
+		return code;
+	}
+
+	/**
+	 * Check the counts of the summary of the last run.
+	 */
+	private void checkCounts(int ok, int failed, int errorCount) {
+		assertTrue(summary.startsWith("{\"jobs\":" + (ok + failed + errorCount) + ","), summary);
+		assertTrue(summary.contains(",\"ok\":" + ok + ",\"failed\":" + failed + ",\"errors\":" + errorCount + ","),
+				summary);
+	}
+}
@@ -0,0 +1,95 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the word-packed engine, with its SP tables, against the reference
+ * byte path: single blocks on random keys, and <code>Feistel.encrypt</code>
+ * / <code>decrypt</code> against CBC built on the reference
+ * <code>Feistel.blockEncryptDecrypt</code>, on short texts, on texts ending
+ * in zeros and on texts above the parallel threshold.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+class FeistelEngineTest {
+	private static final int[] LENGTHS = { 0, 1, 7, 8, 9, 63, 64, 65, FeistelCipher.PARALLEL_THRESHOLD + 9 };
+
+	private final Random random = new Random(1);
+
+	@Test
+	void blocksMatchTheReference() {
+		for (int trial = 0; trial < 100; trial++) {
+			byte[] key = randomBytes(8);
+			long[] subKeys = FeistelEngine.subKeysGenerator(key);
+			byte[][] referenceSubKeys = CoreUtils.subKeysGenerator(key, Feistel.PC1, Feistel.PC2, Feistel.keyShift);
+
+			for (int i = 0; i < 50; i++) {
+				byte[] block = randomBytes(8);
+				boolean isDecrypt = random.nextBoolean();
+				assertEquals(CoreUtils.bytesToLong(Feistel.blockEncryptDecrypt(block, referenceSubKeys, isDecrypt), 0),
+						FeistelEngine.blockEncryptDecrypt(CoreUtils.bytesToLong(block, 0), subKeys, isDecrypt));
+			}
+		}
+	}
+
+	@Test
+	void encryptMatchesTheReference() {
+		for (int length : LENGTHS) {
+			byte[] key = randomBytes(8);
+			byte[] plainText = randomBytes(length);
+			byte[] cipherText = Feistel.encrypt(plainText, key);
+
+			assertArrayEquals(referenceEncrypt(plainText, key), cipherText, length + " bytes");
+			assertArrayEquals(plainText, Feistel.decrypt(cipherText, key), length + " bytes");
+		}
+	}
+
+	@Test
+	void textsEndingInZerosComeBack() {
+		for (int length : LENGTHS) {
+			for (int zeros = 1; zeros <= Math.min(length, 9); zeros += 4) {
+				byte[] key = randomBytes(8);
+				byte[] plainText = randomBytes(length);
+				for (int i = length - zeros; i < length; i++) {
+					plainText[i] = 0;
+				}
+
+				byte[] cipherText = Feistel.encrypt(plainText, key);
+				assertArrayEquals(referenceEncrypt(plainText, key), cipherText, length + " bytes");
+				assertArrayEquals(plainText, Feistel.decrypt(cipherText, key), length + " bytes");
+			}
+		}
+	}
+
+	/**
+	 * This function pads the text and encrypts it with CBC, a block at a time
+	 * through the reference block function.
+	 */
+	private static byte[] referenceEncrypt(byte[] plainText, byte[] key) {
+		byte[][] subKeys = CoreUtils.subKeysGenerator(key, Feistel.PC1, Feistel.PC2, Feistel.keyShift);
+		byte[] result = new byte[(plainText.length / 8 + 1) * 8];
+		System.arraycopy(plainText, 0, result, 0, plainText.length);
+		result[plainText.length] = (byte) 0x80;
+
+		byte[] iv = new byte[8];
+		CoreUtils.longToBytes(Feistel.IV, iv, 0);
+		byte[] block = new byte[8];
+		for (int i = 0; i < result.length; i += 8) {
+			System.arraycopy(result, i, block, 0, 8);
+			iv = Feistel.blockEncryptDecrypt(CoreUtils.xor(block, iv), subKeys, false);
+			System.arraycopy(iv, 0, result, i, 8);
+		}
+		return result;
+	}
+
+	private byte[] randomBytes(int length) {
+		byte[] result = new byte[length];
+		random.nextBytes(result);
+		return result;
+	}
+}
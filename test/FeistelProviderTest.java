@@ -0,0 +1,136 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the cipher of <code>FeistelProvider</code> through the JCA: with the
+ * fixed IV it must give exactly the cipher-text of
+ * <code>FeistelCipher.encrypt</code> however the text is split between the
+ * calls to <code>update</code>, it must work under
+ * <code>CipherInputStream</code> and <code>CipherOutputStream</code>, and
+ * deciphering with the wrong key must fail on the padding.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+class FeistelProviderTest {
+	private static final int[] LENGTHS = { 0, 1, 7, 8, 9, 63, 64, 65, 4099 };
+	private static final int[] SPLITS = { 1, 3, 5, 7, 9, 13, 17 };
+
+	private final byte[] key = "pr0v1d3r".getBytes();
+	private final SecretKeySpec secretKey = new SecretKeySpec(key, "Feistel");
+	private final IvParameterSpec fixedIv = new IvParameterSpec(longToBytes(Feistel.IV));
+	private final Random random = new Random(18);
+
+	@Test
+	void oddSplitsMatchTheCipher() throws GeneralSecurityException {
+		FeistelCipher cipher = new FeistelCipher(key);
+		for (String transformation : new String[] { "Feistel", "Feistel/CBC/ISO7816-4Padding" }) {
+			Cipher jca = Cipher.getInstance(transformation, new FeistelProvider());
+
+			for (int length : LENGTHS) {
+				for (int split : SPLITS) {
+					String name = transformation + ", " + length + " bytes split by " + split;
+					byte[] plainText = randomBytes(length);
+
+					jca.init(Cipher.ENCRYPT_MODE, secretKey, fixedIv);
+					byte[] cipherText = update(jca, plainText, split);
+					assertArrayEquals(cipher.encrypt(plainText), cipherText, name);
+
+					jca.init(Cipher.DECRYPT_MODE, secretKey, fixedIv);
+					assertArrayEquals(plainText, update(jca, cipherText, split), name);
+				}
+			}
+		}
+	}
+
+	@Test
+	void streamsRoundTrip() throws GeneralSecurityException, IOException {
+		Cipher jca = Cipher.getInstance("Feistel", new FeistelProvider());
+
+		for (int length : LENGTHS) {
+			byte[] plainText = randomBytes(length);
+
+			jca.init(Cipher.ENCRYPT_MODE, secretKey);
+			ByteArrayOutputStream cipherText = new ByteArrayOutputStream();
+			try (OutputStream output = new CipherOutputStream(cipherText, jca)) {
+				write(output, plainText);
+			}
+
+			jca.init(Cipher.DECRYPT_MODE, secretKey, new IvParameterSpec(jca.getIV()));
+			try (InputStream input = new CipherInputStream(new ByteArrayInputStream(cipherText.toByteArray()), jca)) {
+				assertArrayEquals(plainText, input.readAllBytes(), length + " bytes");
+			}
+		}
+	}
+
+	@Test
+	void wrongKeyIsBadPadding() throws GeneralSecurityException {
+		Cipher jca = Cipher.getInstance("Feistel", new FeistelProvider());
+		SecretKeySpec wrongKey = new SecretKeySpec("wr0ngk3y".getBytes(), "Feistel");
+
+		for (int length : LENGTHS) {
+			jca.init(Cipher.ENCRYPT_MODE, secretKey, fixedIv);
+			byte[] cipherText = jca.doFinal(randomBytes(length));
+
+			jca.init(Cipher.DECRYPT_MODE, wrongKey, fixedIv);
+			assertThrows(BadPaddingException.class, () -> jca.doFinal(cipherText), length + " bytes");
+		}
+	}
+
+	/**
+	 * Run the text through the cipher in parts of the given size.
+	 */
+	private static byte[] update(Cipher jca, byte[] input, int split) throws GeneralSecurityException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		for (int i = 0; i < input.length; i += split) {
+			byte[] part = jca.update(input, i, Math.min(split, input.length - i));
+			if (part != null) {
+				output.write(part, 0, part.length);
+			}
+		}
+		byte[] last = jca.doFinal();
+		output.write(last, 0, last.length);
+		return output.toByteArray();
+	}
+
+	/**
+	 * Write the text to the stream in parts of random sizes.
+	 */
+	private void write(OutputStream output, byte[] input) throws IOException {
+		for (int i = 0; i < input.length;) {
+			int count = Math.min(1 + random.nextInt(20), input.length - i);
+			output.write(input, i, count);
+			i += count;
+		}
+	}
+
+	private static byte[] longToBytes(long value) {
+		byte[] result = new byte[8];
+		CoreUtils.longToBytes(value, result, 0);
+		return result;
+	}
+
+	private byte[] randomBytes(int length) {
+		byte[] result = new byte[length];
+		random.nextBytes(result);
+		return result;
+	}
+}
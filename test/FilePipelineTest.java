@@ -0,0 +1,104 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests that the pipeline writes the same files as <code>Feistel</code>, for
+ * every format and mode, on files below the small file size, which are
+ * worked on in memory, and above it, which are streamed. The files with a
+ * random IV or nonce can't be the same byte for byte, so they must have the
+ * same length and decipher and verify the same way with either code, the
+ * base64 CBC files must be exactly the same.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+class FilePipelineTest {
+	private static final int[] LENGTHS = { 0, 1, 7, 8, 4099, FilePipeline.SMALL_FILE / 4 * 3 - 5,
+			FilePipeline.SMALL_FILE + 9 };
+
+	private final FeistelCipher cipher = new FeistelCipher("p1p3l1n3".getBytes());
+	private final Random random = new Random(22);
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void filesAreTheSameAsFeistel() throws IOException {
+		try (FilePipeline pipeline = new FilePipeline(2)) {
+			for (int length : LENGTHS) {
+				Path plainText = write("plain.txt", randomBytes(length));
+				Path other = write("other.txt", randomBytes(length + 1));
+
+				for (FileFormat format : FileFormat.values()) {
+					for (CipherMode mode : CipherMode.values()) {
+						checkSameFiles(pipeline, format, mode, plainText, other);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Encrypt, decipher and verify the plain-text with the pipeline and with
+	 * <code>Feistel</code>, and compare the files.
+	 */
+	private void checkSameFiles(FilePipeline pipeline, FileFormat format, CipherMode mode, Path plainText, Path other)
+			throws IOException {
+		String name = format + " " + mode + ", " + Files.size(plainText) + " bytes";
+		byte[] expected = Files.readAllBytes(plainText);
+
+		Path reference = directory.resolve("reference.enc");
+		try (RandomAccessFile file = new RandomAccessFile(reference.toFile(), "rw")) {
+			file.setLength(0);
+			Feistel.encryptFile(cipher, mode, format, plainText, file);
+		}
+		Path piped = directory.resolve("piped.enc");
+		pipeline.encryptFile(cipher, mode, format, plainText, piped);
+
+		assertEquals(Files.size(reference), Files.size(piped), name);
+		if (format == FileFormat.BASE64 && mode == CipherMode.CBC) {
+			assertArrayEquals(Files.readAllBytes(reference), Files.readAllBytes(piped), name);
+		}
+
+		// Each deciphers the other's file, and the pipeline deciphers as Feistel does.
+		for (Path cipherText : new Path[] { reference, piped }) {
+			Path decrypted = directory.resolve("decrypted.txt");
+			try (RandomAccessFile file = new RandomAccessFile(decrypted.toFile(), "rw")) {
+				file.setLength(0);
+				Feistel.decryptFile(cipher, cipherText, file);
+			}
+			assertArrayEquals(expected, Files.readAllBytes(decrypted), name);
+
+			Files.delete(decrypted);
+			pipeline.decryptFile(cipher, cipherText, decrypted);
+			assertArrayEquals(expected, Files.readAllBytes(decrypted), name);
+
+			assertTrue(pipeline.verify(cipher, plainText, cipherText), name);
+			assertTrue(Feistel.verify(cipher, plainText, cipherText), name);
+			assertFalse(pipeline.verify(cipher, other, cipherText), name);
+			assertFalse(Feistel.verify(cipher, other, cipherText), name);
+		}
+	}
+
+	private Path write(String fileName, byte[] content) throws IOException {
+		return Files.write(directory.resolve(fileName), content);
+	}
+
+	private byte[] randomBytes(int length) {
+		byte[] result = new byte[length];
+		random.nextBytes(result);
+		return result;
+	}
+}
@@ -0,0 +1,131 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the key schedule cache: hits give the cached sub-keys, the cache
+ * never holds more keys than its capacity, a key that was used since the
+ * hand last passed it gets a second chance, and many threads looking up
+ * keys at once always get the right sub-keys.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+class KeyScheduleCacheTest {
+	private final Random random = new Random(4);
+
+	@Test
+	void hitsGiveTheCachedSubKeys() {
+		KeyScheduleCache cache = new KeyScheduleCache(4);
+		byte[] key = key(1);
+		long[] subKeys = cache.subKeys(key);
+
+		assertArrayEquals(FeistelEngine.subKeysGenerator(key), subKeys);
+		assertSame(subKeys, cache.subKeys(key));
+
+		// Only the first 64 bits are the key.
+		byte[] longKey = new byte[56];
+		System.arraycopy(key, 0, longKey, 0, 8);
+		longKey[40] = 1;
+		assertSame(subKeys, cache.subKeys(longKey));
+		assertEquals(2, cache.hits());
+		assertEquals(1, cache.misses());
+
+		assertThrows(IllegalArgumentException.class, () -> cache.subKeys(new byte[7]));
+		assertThrows(IllegalArgumentException.class, () -> new KeyScheduleCache(0));
+	}
+
+	@Test
+	void capacityIsKept() {
+		KeyScheduleCache cache = new KeyScheduleCache(8);
+		for (int i = 0; i < 1000; i++) {
+			byte[] key = key(random.nextInt(20));
+			assertArrayEquals(FeistelEngine.subKeysGenerator(key), cache.subKeys(key));
+			assertTrue(cache.size() <= 8);
+		}
+		assertEquals(1000, cache.hits() + cache.misses());
+		assertEquals(cache.misses() - cache.size(), cache.evictions());
+
+		cache.clear();
+		assertEquals(0, cache.size());
+		cache.subKeys(key(1));
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	void usedKeysGetASecondChance() {
+		KeyScheduleCache cache = new KeyScheduleCache(4);
+		for (int i = 0; i < 4; i++) {
+			cache.subKeys(key(i));
+		}
+
+		// Keys 0 and 2 are used, so the new keys take the places of 1 and 3.
+		cache.subKeys(key(0));
+		cache.subKeys(key(2));
+		cache.subKeys(key(4));
+		cache.subKeys(key(5));
+		assertEquals(2, cache.evictions());
+
+		long hits = cache.hits();
+		for (int i : new int[] { 0, 2, 4, 5 }) {
+			cache.subKeys(key(i));
+		}
+		assertEquals(hits + 4, cache.hits());
+		assertEquals(2, cache.evictions());
+	}
+
+	@Test
+	void threadsGetTheRightSubKeys() throws InterruptedException, ExecutionException {
+		final int keys = 32;
+		final long[][] expected = new long[keys][];
+		for (int i = 0; i < keys; i++) {
+			expected[i] = FeistelEngine.subKeysGenerator(key(i));
+		}
+
+		final KeyScheduleCache cache = new KeyScheduleCache(keys / 4);
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int t = 0; t < 8; t++) {
+				final Random threadRandom = new Random(t);
+				futures.add(pool.submit(() -> {
+					for (int i = 0; i < 20000; i++) {
+						int k = threadRandom.nextInt(keys);
+						assertArrayEquals(expected[k], cache.subKeys(key(k)));
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		assertEquals(8 * 20000, cache.hits() + cache.misses());
+		assertTrue(cache.size() <= keys / 4);
+	}
+
+	/**
+	 * This function returns the key of the given number.
+	 */
+	private static byte[] key(int number) {
+		byte[] key = new byte[8];
+		key[0] = 0x4B;
+		key[7] = (byte) number;
+		return key;
+	}
+}
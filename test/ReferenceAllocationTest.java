@@ -0,0 +1,95 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the reference block function runs in the working arrays of its
+ * thread: once they exist, encrypting and deciphering blocks into a given
+ * array allocates nothing, as told by the allocated bytes of the thread.
+ *
+ * Happy cow says: "Muuuuuuu.."
+ *
+ * @author Ben Sabah.
+ */
+class ReferenceAllocationTest {
+	private static final int BLOCKS = 20000;
+
+	private final byte[][] subKeys = CoreUtils.subKeysGenerator("k3y-fe15".getBytes(), Feistel.PC1, Feistel.PC2,
+			Feistel.keyShift);
+
+	@Test
+	void blocksAllocateNothing() {
+		com.sun.management.ThreadMXBean threads = threadBean();
+		byte[] block = new byte[8];
+		byte[] output = new byte[8];
+		new Random(7).nextBytes(block);
+
+		// The first blocks create the working arrays of the thread.
+		runBlocks(block, output, BLOCKS);
+
+		long id = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(id);
+		runBlocks(block, output, BLOCKS);
+		long allocated = threads.getThreadAllocatedBytes(id) - before;
+
+		assertEquals(0, allocated / BLOCKS, "Bytes allocated per block (" + allocated + " in all)");
+	}
+
+	@Test
+	void matchesTheAllocatingFunctionAndTheEngine() {
+		long[] engineSubKeys = FeistelEngine.subKeysGenerator("k3y-fe15".getBytes());
+		Random random = new Random(11);
+		byte[] block = new byte[8];
+		byte[] output = new byte[8];
+
+		for (int i = 0; i < 200; i++) {
+			random.nextBytes(block);
+			boolean isDecrypt = (i % 2 == 1);
+			Feistel.blockEncryptDecrypt(block, subKeys, isDecrypt, output);
+
+			assertArrayEquals(Feistel.blockEncryptDecrypt(block, subKeys, isDecrypt), output);
+			assertEquals(FeistelEngine.blockEncryptDecrypt(CoreUtils.bytesToLong(block, 0), engineSubKeys, isDecrypt),
+					CoreUtils.bytesToLong(output, 0));
+		}
+	}
+
+	@Test
+	void blockMayBeItsOwnOutput() {
+		byte[] block = "8 bytes!".getBytes();
+		byte[] expected = Feistel.blockEncryptDecrypt(block, subKeys, false);
+
+		Feistel.blockEncryptDecrypt(block, subKeys, false, block);
+		assertArrayEquals(expected, block);
+		Feistel.blockEncryptDecrypt(block, subKeys, true, block);
+		assertArrayEquals("8 bytes!".getBytes(), block);
+	}
+
+	/**
+	 * Encrypt and decipher the block the given number of times.
+	 */
+	private void runBlocks(byte[] block, byte[] output, int count) {
+		for (int i = 0; i < count; i += 2) {
+			Feistel.blockEncryptDecrypt(block, subKeys, false, output);
+			Feistel.blockEncryptDecrypt(output, subKeys, true, block);
+		}
+	}
+
+	/**
+	 * This function returns the thread bean of the JVM, the test is skipped
+	 * in case it can't tell the allocated bytes.
+	 */
+	private static com.sun.management.ThreadMXBean threadBean() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		assumeTrue(bean instanceof com.sun.management.ThreadMXBean, "No allocated bytes on this JVM");
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		assumeTrue(threads.isThreadAllocatedMemorySupported(), "No allocated bytes on this JVM");
+		threads.setThreadAllocatedMemoryEnabled(true);
+		return threads;
+	}
+}